@@ -0,0 +1,115 @@
+package com.fingerprint;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Wires {@link CipherAuthenticator} to {@code AndroidKeyStore}, {@code FingerprintManager} and
+ * {@code KeyguardManager}, with callbacks delivered on the main thread.
+ */
+public final class AndroidBackend {
+
+    private static final String KEY_REGISTRY_FILE = "key_registry";
+    private static final String PASSWORD_FILE = "password";
+    private static final String AUDIT_LOG_FILE = "auth_audit.log";
+
+    private static AuditLog auditLog;
+    private static AuthSettings settings;
+
+    private AndroidBackend() {
+    }
+
+    public static CipherAuthenticator createAuthenticator(Context context) {
+        return new CipherAuthenticator(new AndroidKeyStoreBackend(), new FingerprintBiometricPrompt(context),
+                new KeyguardLockScreen(context), new File(context.getFilesDir(), KEY_REGISTRY_FILE),
+                new MainThreadExecutor());
+    }
+
+    public static ChallengeSigner createChallengeSigner(Context context) {
+        return new ChallengeSigner(new AndroidKeyStoreBackend(), new FingerprintBiometricPrompt(context));
+    }
+
+    public static PasswordVerifier createPasswordVerifier(Context context) {
+        return new PasswordVerifier(new File(context.getFilesDir(), PASSWORD_FILE), new MainThreadExecutor());
+    }
+
+    /**
+     * Delivers the authentication results on the main thread.
+     */
+    public static AuthCoordinator createAuthCoordinator() {
+        return new AuthCoordinator(new MainThreadExecutor());
+    }
+
+    /**
+     * The process-wide audit log, mapped from the app's files directory on first use. If the file
+     * cannot be mapped, events are kept in memory only; the failure is counted as an
+     * {@link AuthFailure#ERROR}.
+     */
+    public static synchronized AuditLog getAuditLog(Context context) {
+        if (auditLog == null) {
+            try {
+                auditLog = AuditLog.open(new File(context.getFilesDir(), AUDIT_LOG_FILE), AuditLog.CAPACITY_DEFAULT);
+            } catch (CustomException e) {
+                auditLog = AuditLog.openInMemory(AuditLog.CAPACITY_DEFAULT);
+            }
+        }
+        return auditLog;
+    }
+
+    /**
+     * The process-wide settings. The first call starts loading the preferences in the background;
+     * listeners are called on the main thread.
+     */
+    public static synchronized AuthSettings getSettings(Context context) {
+        if (settings == null) {
+            SharedPreferencesStore store = new SharedPreferencesStore(context);
+            settings = new AuthSettings(store, new MainThreadExecutor());
+            store.setSettings(settings);
+        }
+        return settings;
+    }
+
+    /**
+     * Runs each task the next time the main thread has nothing else to do, e.g. after the first
+     * frame of the activity has been drawn.
+     */
+    public static Executor createIdleExecutor() {
+        return new MainThreadIdleExecutor();
+    }
+
+    private static class MainThreadIdleExecutor implements Executor {
+
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(final Runnable command) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                        @Override
+                        public boolean queueIdle() {
+                            command.run();
+                            return false;
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    private static class MainThreadExecutor implements Executor {
+
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            mainHandler.post(command);
+        }
+    }
+}
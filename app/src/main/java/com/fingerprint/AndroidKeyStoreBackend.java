@@ -0,0 +1,267 @@
+package com.fingerprint;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyInfo;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
+import android.security.keystore.UserNotAuthenticatedException;
+
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+
+import static android.security.keystore.KeyProperties.*;
+
+/**
+ * {@link KeyStoreBackend} on {@code AndroidKeyStore}. Keys and key pairs require user
+ * authentication and, from Android N, can be invalidated by a new biometric enrollment.
+ */
+@SuppressLint("NewApi")
+public class AndroidKeyStoreBackend implements KeyStoreBackend {
+
+    private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+
+    private volatile KeyStore keyStore;
+    private volatile KeyGenerator keyGenerator;
+
+    @Override
+    public synchronized void load() throws CustomException {
+        if (!isAvailableSdkFingerprint())
+            throw AuthFailure.KEY_STORE_UNAVAILABLE.raise();
+
+        if (keyStore == null)
+            createKeyStore();
+        if (keyGenerator == null) {
+            long start = AuthMetrics.start();
+            createKeyGenerator();
+            AuthMetrics.stop(AuthMetrics.Stage.KEY_GENERATOR, start);
+        }
+    }
+
+    private void createKeyStore() throws CustomException {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+            keyStore.load(null);
+            this.keyStore = keyStore;
+        } catch (KeyStoreException | CertificateException | IOException | NoSuchAlgorithmException e) {
+            throw new CustomException("Failed to get an instance of KeyStore", e);
+        }
+    }
+
+    private void createKeyGenerator() throws CustomException {
+        try {
+            keyGenerator = KeyGenerator.getInstance(KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new CustomException("Failed to get an instance of KeyGenerator", e);
+        }
+    }
+
+    @Override
+    public synchronized SecretKey generateKey(KeyMetadata metadata) throws CustomException {
+        CipherSuite suite = CipherSuite.fromTransformation(metadata.getTransformation());
+        try {
+            KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec.Builder(
+                    metadata.getAlias(), PURPOSE_ENCRYPT | PURPOSE_DECRYPT)
+                    .setBlockModes(suite.getBlockMode())
+                    .setUserAuthenticationRequired(true)
+                    .setEncryptionPaddings(suite.getPadding());
+
+            if (metadata.getAuthValiditySeconds() > 0)
+                builder.setUserAuthenticationValidityDurationSeconds(metadata.getAuthValiditySeconds());
+
+            if (isInvalidate())
+                builder.setInvalidatedByBiometricEnrollment(metadata.isInvalidatedByBiometricEnrollment());
+
+            keyGenerator.init(builder.build());
+            return keyGenerator.generateKey();
+
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new CustomException("Failed created key", e);
+        }
+    }
+
+    /**
+     * The key pair generator is only needed in the signing mode, so it is not created by
+     * {@link #load()}.
+     */
+    @Override
+    public synchronized PrivateKey generateKeyPair(KeyMetadata metadata) throws CustomException {
+        try {
+            KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec.Builder(
+                    metadata.getAlias(), PURPOSE_SIGN)
+                    .setAlgorithmParameterSpec(new ECGenParameterSpec(ChallengeSigner.CURVE))
+                    .setDigests(DIGEST_SHA256)
+                    .setUserAuthenticationRequired(true);
+
+            if (metadata.getAuthValiditySeconds() > 0)
+                builder.setUserAuthenticationValidityDurationSeconds(metadata.getAuthValiditySeconds());
+
+            if (isInvalidate())
+                builder.setInvalidatedByBiometricEnrollment(metadata.isInvalidatedByBiometricEnrollment());
+
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM_EC, ANDROID_KEY_STORE);
+            generator.initialize(builder.build());
+            return generator.generateKeyPair().getPrivate();
+
+        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException e) {
+            throw new CustomException("Failed created key pair", e);
+        }
+    }
+
+    @Override
+    public SecretKey getKey(String alias) throws CustomException {
+        Key key = getStoredKey(alias);
+        return key instanceof SecretKey ? (SecretKey) key : null;
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias) throws CustomException {
+        Key key = getStoredKey(alias);
+        return key instanceof PrivateKey ? (PrivateKey) key : null;
+    }
+
+    private Key getStoredKey(String alias) throws CustomException {
+        try {
+            return keyStore.containsAlias(alias) ? keyStore.getKey(alias, null) : null;
+        } catch (KeyStoreException | UnrecoverableKeyException | NoSuchAlgorithmException e) {
+            throw new CustomException("Failed to get key " + alias, e);
+        }
+    }
+
+    /**
+     * The key store keeps the public key in the self-signed certificate of the pair.
+     */
+    @Override
+    public PublicKey getPublicKey(String alias) throws CustomException {
+        try {
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (certificate == null)
+                throw new CustomException("No key pair " + alias);
+            return certificate.getPublicKey();
+        } catch (KeyStoreException e) {
+            throw new CustomException("Failed to get public key " + alias, e);
+        }
+    }
+
+    @Override
+    public void deleteKey(String alias) throws CustomException {
+        try {
+            keyStore.deleteEntry(alias);
+        } catch (KeyStoreException e) {
+            throw new CustomException("Failed to delete key", e);
+        }
+    }
+
+    @Override
+    public KeyMetadata getMetadata(String alias, Key key) throws CustomException {
+        KeyInfo keyInfo = getKeyInfo(key);
+        CipherSuite suite = getCipherSuite(keyInfo);
+        return new KeyMetadata(alias, suite != null ? suite.getTransformation() : null, 0,
+                !isInvalidate() || keyInfo.isInvalidatedByBiometricEnrollment(),
+                Math.max(0, keyInfo.getUserAuthenticationValidityDurationSeconds()));
+    }
+
+    private KeyInfo getKeyInfo(Key key) throws CustomException {
+        try {
+            if (key instanceof PrivateKey) {
+                KeyFactory factory = KeyFactory.getInstance(key.getAlgorithm(), ANDROID_KEY_STORE);
+                return factory.getKeySpec(key, KeyInfo.class);
+            }
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(key.getAlgorithm(), ANDROID_KEY_STORE);
+            return (KeyInfo) factory.getKeySpec((SecretKey) key, KeyInfo.class);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeySpecException e) {
+            throw new CustomException("Failed to read key info", e);
+        }
+    }
+
+    private static CipherSuite getCipherSuite(KeyInfo keyInfo) {
+        String[] blockModes = keyInfo.getBlockModes();
+        if (blockModes.length != 1)
+            return null;
+
+        try {
+            return CipherSuite.fromBlockMode(blockModes[0]);
+        } catch (CustomException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Cipher newCipher(CipherSuite suite) throws CustomException {
+        try {
+            return Cipher.getInstance(suite.getTransformation());
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new CustomException("Failded to create fingerprintManager cipher", e);
+        }
+    }
+
+    @Override
+    public void initCipher(Cipher cipher, int opmode, SecretKey key, AlgorithmParameterSpec params)
+            throws CustomException {
+        try {
+            if (params == null)
+                cipher.init(opmode, key);
+            else
+                cipher.init(opmode, key, params);
+        } catch (KeyPermanentlyInvalidatedException e) {
+            throw AuthFailure.KEY_INVALIDATED.raise();
+        } catch (UserNotAuthenticatedException e) {
+            throw AuthFailure.AUTHENTICATION_REQUIRED.raise();
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            throw new CustomException("Failed to init Cipher", e);
+        }
+    }
+
+    @Override
+    public Signature newSignature() throws CustomException {
+        try {
+            return Signature.getInstance(ChallengeSigner.SIGNATURE_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new CustomException("Failed to create Signature", e);
+        }
+    }
+
+    @Override
+    public void initSign(Signature signature, PrivateKey key) throws CustomException {
+        try {
+            signature.initSign(key);
+        } catch (KeyPermanentlyInvalidatedException e) {
+            throw AuthFailure.KEY_INVALIDATED.raise();
+        } catch (UserNotAuthenticatedException e) {
+            throw AuthFailure.AUTHENTICATION_REQUIRED.raise();
+        } catch (InvalidKeyException e) {
+            throw new CustomException("Failed to init Signature", e);
+        }
+    }
+
+    private boolean isAvailableSdkFingerprint() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    private boolean isInvalidate() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+    }
+}
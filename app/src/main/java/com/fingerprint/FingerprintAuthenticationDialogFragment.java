@@ -17,8 +17,7 @@
 package com.fingerprint;
 
 import android.app.Dialog;
-import android.content.Context;
-import android.hardware.fingerprint.FingerprintManager;
+import android.content.DialogInterface;
 import android.os.Bundle;
 import android.support.v4.app.DialogFragment;
 import android.view.LayoutInflater;
@@ -27,21 +26,21 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.TextView;
 
+import javax.crypto.Cipher;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
 
-import static android.hardware.fingerprint.FingerprintManager.CryptoObject;
-
 
+/**
+ * Completes the {@link AuthFuture} it is given: with the authorized cipher when the fingerprint is
+ * recognized, cancelled when the user dismisses it, or through the password dialog it hands the
+ * future to.
+ */
 public class FingerprintAuthenticationDialogFragment extends DialogFragment
         implements FingerprintUiHelper.Callback {
 
-    public interface Callback {
-        void onPurchased(CryptoObject cryptoObject);
-        void onUsePassword();
-    }
-
     public static FingerprintAuthenticationDialogFragment createInstance() {
         return new FingerprintAuthenticationDialogFragment();
     }
@@ -52,11 +51,17 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
     @BindView(R.id.btnSecond) Button btnSecond;
     @BindView(R.id.tvFingerprintStatus) TextView tvFingerStatus;
 
-    private CryptoObject cryptoObject;
+    private Cipher cipher;
     private FingerprintUiHelper fingerprintUiHelper;
-    private FingerprintManager fingerpritnManager;
+    private BiometricPrompt biometricPrompt;
+    private BiometricCapabilities capabilities;
+    private PasswordVerifier passwordVerifier;
+    private AuditLog auditLog;
+    private AuthFuture authFuture;
+    private AuthSettings settings;
 
-    public Callback callback;
+    private boolean fastPath;
+    private long successDelayMillis = FingerprintUiHelper.SUCCESS_DELAY_MILLIS;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -71,7 +76,9 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
 
         ButterKnife.bind(this, view);
 
-        fingerprintUiHelper = new FingerprintUiHelper(fingerpritnManager, tvFingerStatus, this);
+        fingerprintUiHelper = new FingerprintUiHelper(biometricPrompt, capabilities, auditLog, tvFingerStatus, this);
+        fingerprintUiHelper.setFastPath(fastPath);
+        fingerprintUiHelper.setSuccessDelayMillis(successDelayMillis);
 
         setTitle();
         setFooter();
@@ -91,7 +98,7 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
     @Override
     public void onResume() {
         super.onResume();
-        fingerprintUiHelper.startListening(cryptoObject);
+        fingerprintUiHelper.startListening(cipher);
     }
 
     @Override
@@ -109,25 +116,82 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
         super.onDestroyView();
     }
 
+    @Override
+    public void onCancel(DialogInterface dialog) {
+        super.onCancel(dialog);
+        cancel();
+    }
+
+    private void cancel() {
+        if (authFuture.cancel())
+            auditLog.record(AuditLog.Event.CANCELLED);
+    }
+
     private void goToDialogPassword() {
-        callback.onUsePassword();
+        auditLog.record(AuditLog.Event.PASSWORD_FALLBACK);
         fingerprintUiHelper.stopListening();
         dismiss();
+
+        PasswordAuthenticationDialogFragment fragment = PasswordAuthenticationDialogFragment.createInstance();
+        fragment.setPasswordVerifier(passwordVerifier);
+        fragment.setSettings(settings);
+        fragment.setAuditLog(auditLog);
+        fragment.setAuthFuture(authFuture);
+        fragment.show(getFragmentManager(), PasswordAuthenticationDialogFragment.TAG);
     }
 
     @Override
     public void onAuthenticated() {
-        callback.onPurchased(cryptoObject);
+        authFuture.succeed(AuthResult.fingerprint(cipher));
         fingerprintUiHelper.stopListening();
+    }
+
+    @Override
+    public void onSuccessShown() {
         dismiss();
     }
 
-    public void setCryptoObject(CryptoObject cryptoObject) {
-        this.cryptoObject = cryptoObject;
+    public void setCipher(Cipher cipher) {
+        this.cipher = cipher;
+    }
+
+    public void setBiometricPrompt(BiometricPrompt biometricPrompt) {
+        this.biometricPrompt = biometricPrompt;
     }
 
-    public void setFingerpritnManager(FingerprintManager fingerpritnManager) {
-        this.fingerpritnManager = fingerpritnManager;
+    public void setCapabilities(BiometricCapabilities capabilities) {
+        this.capabilities = capabilities;
+    }
+
+    /**
+     * Verifies the password if the user falls back to it.
+     */
+    public void setPasswordVerifier(PasswordVerifier passwordVerifier) {
+        this.passwordVerifier = passwordVerifier;
+    }
+
+    public void setSettings(AuthSettings settings) {
+        this.settings = settings;
+    }
+
+    public void setAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    public void setAuthFuture(AuthFuture authFuture) {
+        this.authFuture = authFuture;
+    }
+
+    /**
+     * Completes the {@link AuthFuture} as soon as the fingerprint is recognized instead of
+     * after the success animation.
+     */
+    public void setFastPath(boolean fastPath) {
+        this.fastPath = fastPath;
+    }
+
+    public void setSuccessDelayMillis(long successDelayMillis) {
+        this.successDelayMillis = successDelayMillis;
     }
 
     @Override
@@ -137,6 +201,7 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
 
     @OnClick(R.id.btnCancel)
     public void onClickCancel(){
+        cancel();
         dismiss();
     }
 
@@ -144,15 +209,4 @@ public class FingerprintAuthenticationDialogFragment extends DialogFragment
     public void onClickSecondDialog(){
         goToDialogPassword();
     }
-
-    @Override
-    public void onAttach(Context context) {
-        super.onAttach(context);
-        try {
-            callback = (Callback) context;
-        } catch (ClassCastException e) {
-            throw new ClassCastException(context.toString()
-                    + " must implement ConfigListener");
-        }
-    }
 }
@@ -0,0 +1,86 @@
+package com.fingerprint;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.hardware.fingerprint.FingerprintManager;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+import java.security.Signature;
+
+import javax.crypto.Cipher;
+
+/**
+ * {@link BiometricPrompt} on {@link FingerprintManager}. Below Android M there is no fingerprint
+ * API and the prompt reports no hardware.
+ */
+@SuppressLint("NewApi")
+@SuppressWarnings("ResourceType")
+public class FingerprintBiometricPrompt implements BiometricPrompt {
+
+    private final FingerprintManager fingerprintManager;
+
+    public FingerprintBiometricPrompt(Context context) {
+        this.fingerprintManager = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? context.getSystemService(FingerprintManager.class)
+                : null;
+    }
+
+    @Override
+    public boolean isHardwareDetected() {
+        return fingerprintManager != null && fingerprintManager.isHardwareDetected();
+    }
+
+    @Override
+    public boolean hasEnrolledBiometrics() {
+        return fingerprintManager != null && fingerprintManager.hasEnrolledFingerprints();
+    }
+
+    @Override
+    public Cancellation authenticate(Cipher cipher, Callback callback) {
+        return authenticate(cipher != null ? new FingerprintManager.CryptoObject(cipher) : null, callback);
+    }
+
+    @Override
+    public Cancellation authenticateSignature(Signature signature, Callback callback) {
+        return authenticate(new FingerprintManager.CryptoObject(signature), callback);
+    }
+
+    /**
+     * The authorized object is the one the caller passed in, so only a cipher is handed back.
+     */
+    private Cancellation authenticate(FingerprintManager.CryptoObject cryptoObject, final Callback callback) {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+
+        fingerprintManager.authenticate(cryptoObject, cancellationSignal, 0,
+                new FingerprintManager.AuthenticationCallback() {
+                    @Override
+                    public void onAuthenticationError(int errMsgId, CharSequence errString) {
+                        callback.onAuthenticationError(errMsgId, errString);
+                    }
+
+                    @Override
+                    public void onAuthenticationHelp(int helpMsgId, CharSequence helpString) {
+                        callback.onAuthenticationHelp(helpMsgId, helpString);
+                    }
+
+                    @Override
+                    public void onAuthenticationFailed() {
+                        callback.onAuthenticationFailed();
+                    }
+
+                    @Override
+                    public void onAuthenticationSucceeded(FingerprintManager.AuthenticationResult result) {
+                        FingerprintManager.CryptoObject cryptoObject = result.getCryptoObject();
+                        callback.onAuthenticationSucceeded(cryptoObject != null ? cryptoObject.getCipher() : null);
+                    }
+                }, null);
+
+        return new Cancellation() {
+            @Override
+            public void cancel() {
+                cancellationSignal.cancel();
+            }
+        };
+    }
+}
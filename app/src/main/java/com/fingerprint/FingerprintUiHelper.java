@@ -17,65 +17,91 @@
 package com.fingerprint;
 
 import android.annotation.SuppressLint;
-import android.hardware.fingerprint.FingerprintManager;
-import android.os.CancellationSignal;
 import android.widget.TextView;
 
+import javax.crypto.Cipher;
+
 @SuppressWarnings("ResourceType")
 @SuppressLint("NewApi")
-public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallback {
+public class FingerprintUiHelper implements BiometricPrompt.Callback {
 
     public interface Callback {
         void onAuthenticated();
+        void onSuccessShown();
         void onError();
     }
 
     private static final long ERROR_TIMEOUT_MILLIS = 1600;
-    private static final long SUCCESS_DELAY_MILLIS = 1300;
+    public static final long SUCCESS_DELAY_MILLIS = 1300;
 
-    private final FingerprintManager fingerprintManager;
+    private final BiometricPrompt biometricPrompt;
+    private final BiometricCapabilities capabilities;
+    private final AuditLog auditLog;
     private final TextView tvInfo;
     private final Callback callback;
 
-    private CancellationSignal cancellationSignal;
+    private BiometricPrompt.Cancellation cancellation;
 
     private boolean selfCancelled;
+    private long listeningSince = AuthMetrics.DISABLED;
+
+    private boolean fastPath;
+    private long successDelayMillis = SUCCESS_DELAY_MILLIS;
 
-    FingerprintUiHelper(FingerprintManager fingerprintManager,
+    FingerprintUiHelper(BiometricPrompt biometricPrompt,
+                        BiometricCapabilities capabilities,
+                        AuditLog auditLog,
                         TextView tvInfo,
                         Callback callback) {
-        this.fingerprintManager = fingerprintManager;
+        this.biometricPrompt = biometricPrompt;
+        this.capabilities = capabilities;
+        this.auditLog = auditLog;
         this.tvInfo = tvInfo;
         this.callback = callback;
     }
 
+    /**
+     * In fast path mode {@link Callback#onAuthenticated()} is called as soon as the fingerprint is
+     * recognized, while the success state is still shown; otherwise it waits for the success delay.
+     */
+    public void setFastPath(boolean fastPath) {
+        this.fastPath = fastPath;
+    }
+
+    /**
+     * How long the success state is shown before {@link Callback#onSuccessShown()}.
+     */
+    public void setSuccessDelayMillis(long successDelayMillis) {
+        this.successDelayMillis = successDelayMillis;
+    }
+
     public boolean isFingerprintAuthAvailable() {
-        return fingerprintManager.isHardwareDetected()
-                && fingerprintManager.hasEnrolledFingerprints();
+        return capabilities.get().isAvailable();
     }
 
-    public void startListening(FingerprintManager.CryptoObject cryptoObject) {
+    public void startListening(Cipher cipher) {
         if (!isFingerprintAuthAvailable())
             return;
 
-        cancellationSignal = new CancellationSignal();
         selfCancelled = false;
 
-        fingerprintManager.authenticate(cryptoObject, cancellationSignal, 0, this, null);
+        listeningSince = AuthMetrics.start();
+        cancellation = biometricPrompt.authenticate(cipher, this);
         tvInfo.setCompoundDrawablesWithIntrinsicBounds(R.drawable.ic_fp_40px, 0, 0, 0);
     }
 
     public void stopListening() {
-        if (cancellationSignal != null) {
+        if (cancellation != null) {
             selfCancelled = true;
-            cancellationSignal.cancel();
-            cancellationSignal = null;
+            cancellation.cancel();
+            cancellation = null;
         }
     }
 
     @Override
     public void onAuthenticationError(int errMsgId, CharSequence errString) {
         if (!selfCancelled) {
+            auditLog.record(AuditLog.Event.FINGERPRINT_ERROR, errMsgId);
             showError(errString);
             tvInfo.postDelayed(new Runnable() {
                 @Override
@@ -88,27 +114,43 @@ public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallba
 
     @Override
     public void onAuthenticationHelp(int helpMsgId, CharSequence helpString) {
+        auditLog.record(AuditLog.Event.FINGERPRINT_HELP, helpMsgId);
         showError(helpString);
     }
 
     @Override
     public void onAuthenticationFailed() {
+        auditLog.record(AuditLog.Event.FINGERPRINT_FAILED);
         showError(tvInfo.getResources().getString(R.string.fingerprint_not_recognized));
     }
 
     @Override
-    public void onAuthenticationSucceeded(FingerprintManager.AuthenticationResult result) {
+    public void onAuthenticationSucceeded(Cipher cipher) {
+        auditLog.record(AuditLog.Event.FINGERPRINT_SUCCEEDED);
         tvInfo.removeCallbacks(mResetErrorTextRunnable);
         tvInfo.setTextColor(tvInfo.getResources().getColor(R.color.success_color, null));
         tvInfo.setText(tvInfo.getResources().getString(R.string.fingerprint_success));
 
         tvInfo.setCompoundDrawablesWithIntrinsicBounds(R.drawable.ic_fingerprint_success, 0, 0, 0);
+
+        AuthMetrics.stop(AuthMetrics.Stage.PROMPT, listeningSince);
+        final long succeededAt = AuthMetrics.start();
+        if (fastPath)
+            notifyAuthenticated(succeededAt);
+
         tvInfo.postDelayed(new Runnable() {
             @Override
             public void run() {
-                callback.onAuthenticated();
+                if (!fastPath)
+                    notifyAuthenticated(succeededAt);
+                callback.onSuccessShown();
             }
-        }, SUCCESS_DELAY_MILLIS);
+        }, successDelayMillis);
+    }
+
+    private void notifyAuthenticated(long succeededAt) {
+        AuthMetrics.stop(AuthMetrics.Stage.TIME_TO_CALLBACK, succeededAt);
+        callback.onAuthenticated();
     }
 
     private void showError(CharSequence error) {
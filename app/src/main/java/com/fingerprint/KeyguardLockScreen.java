@@ -0,0 +1,21 @@
+package com.fingerprint;
+
+import android.app.KeyguardManager;
+import android.content.Context;
+
+/**
+ * {@link LockScreen} on {@link KeyguardManager}.
+ */
+public class KeyguardLockScreen implements LockScreen {
+
+    private final KeyguardManager keyguardManager;
+
+    public KeyguardLockScreen(Context context) {
+        this.keyguardManager = (KeyguardManager) context.getSystemService(Context.KEYGUARD_SERVICE);
+    }
+
+    @Override
+    public boolean isSecure() {
+        return keyguardManager.isKeyguardSecure();
+    }
+}
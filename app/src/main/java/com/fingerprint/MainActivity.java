@@ -1,10 +1,7 @@
 package com.fingerprint;
 
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.hardware.fingerprint.FingerprintManager;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -12,22 +9,46 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Cipher;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
 
-import static android.hardware.fingerprint.FingerprintManager.CryptoObject;
-
 @SuppressWarnings("ResourceType")
 public class MainActivity extends AppCompatActivity
-        implements FingerprintAuthenticationDialogFragment.Callback, PasswordAuthenticationDialogFragment.Callback{
+        implements CipherAuthenticator.Callback, AuthCoordinator.Flow, AuthFuture.Callback,
+        ReEncryptionPipeline.Callback {
 
     @BindView(R.id.fab) FloatingActionButton fab;
     @BindView(R.id.tvInfo) TextView tvInfo;
 
-    private SharedPreferences sharedPreferences;
+    private AuthSettings settings;
+
+    private static final String DATA_KEY_FILE = "data_key";
+    private static final String METRICS_FILE = "auth_metrics.txt";
+    private static final String AUDIT_EXPORT_FILE = "auth_audit.csv";
+    private static final String RECORDS_DIR = "records";
+    private static final String MIGRATION_CHECKPOINT_FILE = "records_migration";
 
     private CipherAuthenticator cipherAuth;
+    private DataKeyManager dataKeyManager;
+    private PasswordVerifier passwordVerifier;
+    private AuthCoordinator authCoordinator;
+    private AuthFuture pendingAuth;
+    private AuditLog auditLog;
+    private VersionedRecordStore recordStore;
+    private ReEncryptionPipeline reEncryption;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -36,50 +57,212 @@ public class MainActivity extends AppCompatActivity
         ButterKnife.bind(this);
         setToolbar();
 
-        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        settings = AndroidBackend.getSettings(this);
+
+        AuthMetrics.setEnabled(BuildConfig.DEBUG);
+
+        cipherAuth = AndroidBackend.createAuthenticator(this);
+        createAuthenticator();
+
+        dataKeyManager = new DataKeyManager(new File(getFilesDir(), DATA_KEY_FILE));
+        passwordVerifier = AndroidBackend.createPasswordVerifier(this);
+        authCoordinator = AndroidBackend.createAuthCoordinator();
+        auditLog = AndroidBackend.getAuditLog(this);
+
+        recordStore = new VersionedRecordStore(new File(getFilesDir(), RECORDS_DIR));
+        reEncryption = new ReEncryptionPipeline(recordStore, new File(getFilesDir(), MIGRATION_CHECKPOINT_FILE),
+                worker, ReEncryptionPipeline.BATCH_SIZE_DEFAULT);
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dataKeyManager.reserveVersions(recordStore.getLatestVersion());
+                } catch (CustomException e) {
+                    showInfo(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * The session window must be known before the key is created, so the settings are awaited on
+     * the worker rather than on the main thread. The key is only needed once the FAB is tapped, so
+     * provisioning waits until the main thread is idle after the first frame.
+     */
+    private void createAuthenticator() {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                cipherAuth.setSessionValiditySeconds(sessionValiditySecondsPreference());
+                cipherAuth.createLazily(MainActivity.this, AndroidBackend.createIdleExecutor());
+            }
+        });
+    }
+
+    /**
+     * The user may have enrolled a fingerprint or changed the lock screen while the app was in the
+     * background, so the capability snapshot is read again, off the main thread.
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        final BiometricCapabilities capabilities = cipherAuth.getCapabilities();
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                capabilities.refresh();
+            }
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (AuthMetrics.isEnabled())
+            dumpMetrics();
+    }
 
-        cipherAuth = new CipherAuthenticator(this);
+    /**
+     * Writes the stage latencies and the audit log to the app's files directory, e.g. for
+     * {@code adb pull}.
+     */
+    private void dumpMetrics() {
+        final File file = new File(getFilesDir(), METRICS_FILE);
+        final File auditFile = new File(getFilesDir(), AUDIT_EXPORT_FILE);
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AuthMetrics.dump(file);
+                    exportAuditLog(auditFile);
+                } catch (IOException e) {
+                    showInfo("Failed to dump metrics: " + e.getMessage());
+                }
+            }
+        });
+    }
 
+    private void exportAuditLog(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
         try {
-            cipherAuth.create();
-        } catch (CustomException e) {
-            tvInfo.setText(e.getMessage());
+            auditLog.export(writer);
+        } finally {
+            writer.close();
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        reEncryption.cancel();
+        worker.shutdown();
+        dataKeyManager.closeSession();
+        cipherAuth.close();
+        super.onDestroy();
+    }
+
     private void setToolbar() {
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
     }
 
+    /**
+     * Taps while a dialog is already up join its authentication instead of starting another one.
+     */
     @OnClick(R.id.fab)
     public void onClickFab(){
+        cipherAuth.createNow();
+        AuthFuture future = authCoordinator.authenticate(this);
+        if (future == pendingAuth)
+            return;
+
+        pendingAuth = future;
         tvInfo.setText("");
-        try {
-            cipherAuth.init();
+        future.addCallback(this);
+    }
+
+    /**
+     * Initializing the cipher waits for the provisioning deferred until idle, or generates a new
+     * key after an invalidation, so it runs on the worker and the dialog is shown back on the main
+     * thread. The worker is also where {@link #createAuthenticator()} defers the provisioning, so a
+     * tap before that finds it deferred rather than missing.
+     */
+    @Override
+    public void start(final AuthFuture future) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prepare(future);
+                } catch (CustomException e) {
+                    future.fail(e);
+                }
+            }
+        });
+    }
+
+    private void prepare(final AuthFuture future) throws CustomException {
+        if (cipherAuth.isSessionActive() && runInSession(future))
+            return;
 
-            if(useFingerprintPreference() && cipherAuth.isFingerprintAuthAvailable())
-                showDialogFingerPrint(cipherAuth.getCrypto(), cipherAuth.getFingerprintManager());
-            else
-                showDialogPassword();
+        if (!cipherAuth.isSessionMode())
+            dataKeyManager.initCipher(cipherAuth);
+
+        final Cipher cipher = cipherAuth.getPromptCipher();
+        final boolean fingerprint = useFingerprintPreference() && cipherAuth.isFingerprintAuthAvailable();
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isFinishing())
+                    future.cancel();
+                else if (fingerprint)
+                    showDialogFingerPrint(future, cipher, cipherAuth.getBiometricPrompt());
+                else
+                    showDialogPassword(future);
+            }
+        });
+    }
+
+    /**
+     * Inside the authentication window the key store authorizes the cipher without a dialog. If the
+     * window already closed in the key store, the caller falls back to prompting.
+     */
+    private boolean runInSession(AuthFuture future) {
+        try {
+            dataKeyManager.initCipher(cipherAuth);
+            return future.succeed(AuthResult.session(cipherAuth.getCipher()));
         } catch (CustomException e) {
-            tvInfo.setText(e.getMessage());
+            return false;
         }
     }
 
     private boolean useFingerprintPreference() {
-        return sharedPreferences.getBoolean(getString(R.string.use_fingerprint_to_authenticate_key), true);
+        return settings.get().getBoolean(getString(R.string.use_fingerprint_to_authenticate_key), true);
     }
 
-    private void showDialogFingerPrint(CryptoObject cryptoObject, FingerprintManager fingerprintManager) {
+    private int sessionValiditySecondsPreference() {
+        return Integer.parseInt(settings.get().getString(getString(R.string.auth_session_seconds_key),
+                getString(R.string.auth_session_seconds_default)));
+    }
+
+    private void showDialogFingerPrint(AuthFuture future, Cipher cipher, BiometricPrompt biometricPrompt) {
         FingerprintAuthenticationDialogFragment fragment = FingerprintAuthenticationDialogFragment.createInstance();
-        fragment.setCryptoObject(cryptoObject);
-        fragment.setFingerpritnManager(fingerprintManager);
+        fragment.setAuthFuture(future);
+        fragment.setCipher(cipher);
+        fragment.setBiometricPrompt(biometricPrompt);
+        fragment.setCapabilities(cipherAuth.getCapabilities());
+        fragment.setPasswordVerifier(passwordVerifier);
+        fragment.setSettings(settings);
+        fragment.setAuditLog(auditLog);
+        fragment.setFastPath(true);
         fragment.show(getSupportFragmentManager(), FingerprintAuthenticationDialogFragment.TAG);
     }
 
-    private void showDialogPassword() {
+    private void showDialogPassword(AuthFuture future) {
         PasswordAuthenticationDialogFragment fragment = PasswordAuthenticationDialogFragment.createInstance();
+        fragment.setAuthFuture(future);
+        fragment.setPasswordVerifier(passwordVerifier);
+        fragment.setSettings(settings);
+        fragment.setAuditLog(auditLog);
         fragment.show(getSupportFragmentManager(), PasswordAuthenticationDialogFragment.TAG);
     }
 
@@ -100,17 +283,102 @@ public class MainActivity extends AppCompatActivity
     }
 
     @Override
-    public void onPurchased(CryptoObject cryptoObject) {
-        tvInfo.setText(R.string.action_success);
+    public void onCreated() {
+    }
+
+    @Override
+    public void onCreateError(CustomException e) {
+        // Expected failures carry no stack trace; only real errors are worth one.
+        if (!e.isExpected())
+            e.printStackTrace();
+        tvInfo.setText(e.getMessage());
+    }
+
+    @Override
+    public void onAuthenticated(AuthResult result) {
+        switch (result.getMethod()) {
+            case FINGERPRINT:
+                onFingerprintAuthenticated(result.takeCipher());
+                break;
+            case SESSION:
+                onAuthorized(result.takeCipher());
+                break;
+            case PASSWORD:
+                tvInfo.setText(R.string.action_success);
+                break;
+        }
+    }
+
+    private void onFingerprintAuthenticated(Cipher cipher) {
+        cipherAuth.onAuthenticated();
+        onAuthorized(cipher);
+    }
+
+    @Override
+    public void onAuthenticationError(CustomException e) {
+        tvInfo.setText(e.getMessage());
     }
 
     @Override
-    public void onUsePassword() {
-        showDialogPassword();
+    public void onAuthenticationCancelled() {
+    }
+
+    /**
+     * Runs the protected work off the main thread, so it overlaps the success animation. In the
+     * session mode the fingerprint authorizes the key rather than a cipher, so {@code cipher} is
+     * null and is initialized here.
+     */
+    private void onAuthorized(final Cipher cipher) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Cipher authorized = cipher;
+                    if (authorized == null) {
+                        dataKeyManager.initCipher(cipherAuth);
+                        authorized = cipherAuth.getCipher();
+                    }
+                    dataKeyManager.openSession(authorized);
+                    showInfo(getString(R.string.action_success));
+                    startReEncryption();
+                } catch (CustomException e) {
+                    showInfo(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves the records to the current data key version in the background, or resumes a migration
+     * interrupted by the process being killed.
+     */
+    private void startReEncryption() {
+        KeyRing keyRing = dataKeyManager.getKeyRing();
+        if (keyRing != null && (dataKeyManager.needsMigration() || reEncryption.hasCheckpoint()))
+            reEncryption.start(keyRing, this);
     }
 
     @Override
-    public void onClickOk() {
-        tvInfo.setText(R.string.action_success);
+    public void onProgress(int migrated, int remaining) {
+    }
+
+    @Override
+    public void onFinished(int migrated, int failed) {
+        if (failed > 0)
+            showInfo(getString(R.string.records_unreadable, failed));
+    }
+
+    @Override
+    public void onError(CustomException e) {
+        showInfo(e.getMessage());
+    }
+
+    private void showInfo(final String text) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                tvInfo.setText(text);
+            }
+        });
     }
 }
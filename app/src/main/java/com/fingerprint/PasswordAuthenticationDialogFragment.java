@@ -17,10 +17,8 @@
 package com.fingerprint;
 
 import android.app.Dialog;
-import android.content.Context;
-import android.content.SharedPreferences;
+import android.content.DialogInterface;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.v4.app.DialogFragment;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -38,12 +36,12 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 
 
+/**
+ * Completes the {@link AuthFuture} it is given once the password is verified, or cancels it when
+ * the user dismisses the dialog.
+ */
 public class PasswordAuthenticationDialogFragment extends DialogFragment
-        implements TextView.OnEditorActionListener {
-
-    public interface Callback {
-        void onClickOk();
-    }
+        implements TextView.OnEditorActionListener, PasswordVerifier.Callback {
 
     public static final String TAG = PasswordAuthenticationDialogFragment.class.getSimpleName();
 
@@ -55,9 +53,12 @@ public class PasswordAuthenticationDialogFragment extends DialogFragment
     @BindView(R.id.tvPasswordDescription) TextView tvPasswordDescription;
     @BindView(R.id.tvNewFingerprintEnrolledDescription) TextView tvNewFingerprintEnrolled;
 
-    private SharedPreferences mSharedPreferences;
+    private AuthSettings settings;
 
-    public Callback callback;
+    private PasswordVerifier passwordVerifier;
+    private AuditLog auditLog;
+    private AuthFuture authFuture;
+    private boolean verifying;
 
     public static PasswordAuthenticationDialogFragment createInstance() {
         return new PasswordAuthenticationDialogFragment();
@@ -106,28 +107,82 @@ public class PasswordAuthenticationDialogFragment extends DialogFragment
     }
 
     @Override
-    public void onAttach(Context context) {
-        super.onAttach(context);
-        mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
-
-        try {
-            callback = (Callback) context;
-        } catch (ClassCastException e) {
-            throw new ClassCastException(context.toString()
-                    + " must implement ConfigListener");
-        }
+    public void onCancel(DialogInterface dialog) {
+        super.onCancel(dialog);
+        cancel();
+    }
+
+    public void setPasswordVerifier(PasswordVerifier passwordVerifier) {
+        this.passwordVerifier = passwordVerifier;
+    }
+
+    public void setSettings(AuthSettings settings) {
+        this.settings = settings;
     }
 
+    public void setAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    public void setAuthFuture(AuthFuture authFuture) {
+        this.authFuture = authFuture;
+    }
+
+    /**
+     * Hashes the password on the verifier's thread; the dialog stays responsive and the result
+     * arrives in {@link #onPasswordChecked(boolean)}.
+     */
     private void verifyPassword() {
-        if (!checkPassword(etPassword.getText().toString()))
+        if (verifying || etPassword.length() == 0)
             return;
 
-        callback.onClickOk();
-        dismiss();
+        char[] password = new char[etPassword.length()];
+        etPassword.getText().getChars(0, password.length, password, 0);
+
+        setVerifying(true);
+        passwordVerifier.verifyAsync(password, this);
     }
 
-    private boolean checkPassword(String password) {
-        return password.length() > 0;
+    @Override
+    public void onPasswordChecked(boolean matches) {
+        setVerifying(false);
+        auditLog.record(matches ? AuditLog.Event.PASSWORD_SUCCEEDED : AuditLog.Event.PASSWORD_FAILED);
+        if (matches)
+            authFuture.succeed(AuthResult.password());
+        if (!isAdded())
+            return;
+
+        if (matches) {
+            saveUseFingerprint();
+            dismiss();
+        } else {
+            etPassword.setError(getString(R.string.password_wrong));
+        }
+    }
+
+    /**
+     * Only when the checkbox is shown; the write reaches the preferences in the background.
+     */
+    private void saveUseFingerprint() {
+        if (chkUseFingerprintFuture.getVisibility() != View.VISIBLE)
+            return;
+
+        settings.edit()
+                .putBoolean(getString(R.string.use_fingerprint_to_authenticate_key), chkUseFingerprintFuture.isChecked())
+                .apply();
+    }
+
+    @Override
+    public void onPasswordError(CustomException e) {
+        setVerifying(false);
+        if (isAdded())
+            etPassword.setError(e.getMessage());
+    }
+
+    private void setVerifying(boolean verifying) {
+        this.verifying = verifying;
+        if (btnSecond != null)
+            btnSecond.setEnabled(!verifying);
     }
 
     @Override
@@ -141,9 +196,15 @@ public class PasswordAuthenticationDialogFragment extends DialogFragment
 
     @OnClick(R.id.btnCancel)
     public void onClickCancel(){
+        cancel();
         dismiss();
     }
 
+    private void cancel() {
+        if (authFuture.cancel())
+            auditLog.record(AuditLog.Event.CANCELLED);
+    }
+
     @OnClick(R.id.btnSecond)
     public void onClickSecondDialog(){
         verifyPassword();
@@ -0,0 +1,64 @@
+package com.fingerprint;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.Map;
+
+/**
+ * {@link AuthSettings.Store} on the default {@code SharedPreferences}, with the defaults declared
+ * in {@code R.xml.preferences}. Changes made by {@link SettingsActivity} are forwarded to the
+ * settings, so they get a new snapshot.
+ */
+class SharedPreferencesStore implements AuthSettings.Store {
+
+    private final Context context;
+
+    private SharedPreferences preferences;
+    private AuthSettings settings;
+
+    /**
+     * Held here because {@code SharedPreferences} only keeps a weak reference to it.
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener changeListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences preferences, String key) {
+                    AuthSettings settings = SharedPreferencesStore.this.settings;
+                    if (settings != null)
+                        settings.onStoreChanged(preferences.getAll());
+                }
+            };
+
+    SharedPreferencesStore(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    void setSettings(AuthSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public Map<String, ?> load() {
+        PreferenceManager.setDefaultValues(context, R.xml.preferences, false);
+        preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        preferences.registerOnSharedPreferenceChangeListener(changeListener);
+        return preferences.getAll();
+    }
+
+    @Override
+    public void write(Map<String, Object> changes) {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            Object value = change.getValue();
+            if (value instanceof Boolean)
+                editor.putBoolean(change.getKey(), (Boolean) value);
+            else if (value instanceof Integer)
+                editor.putInt(change.getKey(), (Integer) value);
+            else
+                editor.putString(change.getKey(), String.valueOf(value));
+        }
+        editor.commit();
+    }
+}
@@ -0,0 +1,60 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.AuditLog;
+import com.fingerprint.CustomException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending to the memory-mapped {@link AuditLog}; run with {@code -prof gc} to check that
+ * recording does not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditLogBenchmark {
+
+    private File file;
+    private AuditLog log;
+
+    @Setup
+    public void setUp() throws CustomException, IOException {
+        file = File.createTempFile("auth_audit", ".log");
+        log = AuditLog.open(file, AuditLog.CAPACITY_DEFAULT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        log.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void record() {
+        log.record(AuditLog.Event.FINGERPRINT_HELP, 1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordConcurrently() {
+        log.record(AuditLog.Event.FINGERPRINT_FAILED);
+    }
+}
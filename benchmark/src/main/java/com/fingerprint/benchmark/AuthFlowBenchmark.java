@@ -0,0 +1,125 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.BiometricPrompt;
+import com.fingerprint.CipherAuthenticator;
+import com.fingerprint.CustomException;
+import com.fingerprint.InMemoryBiometricPrompt;
+import com.fingerprint.InMemoryKeyStoreBackend;
+import com.fingerprint.InMemoryLockScreen;
+import com.fingerprint.LoadSimulation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+/**
+ * Complete authentication flows per second against one shared {@link CipherAuthenticator}, the
+ * flow {@link LoadSimulation} runs: initialize the cipher, authenticate with a prompt that misreads
+ * one finger in ten, encrypt a token with the authorized cipher and decrypt it again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class AuthFlowBenchmark {
+
+    private static final int TOKEN_SIZE = 64;
+    private static final double FAILURE_RATE = 0.1;
+
+    private CipherAuthenticator authenticator;
+    private InMemoryBiometricPrompt prompt;
+    private File registryFile;
+
+    /**
+     * The prompt callback and token of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Flow implements BiometricPrompt.Callback {
+        private final byte[] token = new byte[TOKEN_SIZE];
+        private final Random random = new Random();
+        private Cipher authorized;
+
+        @Override
+        public void onAuthenticationSucceeded(Cipher cipher) {
+            authorized = cipher;
+        }
+
+        @Override
+        public void onAuthenticationFailed() {
+        }
+
+        @Override
+        public void onAuthenticationHelp(int helpCode, CharSequence helpString) {
+        }
+
+        @Override
+        public void onAuthenticationError(int errorCode, CharSequence errString) {
+        }
+    }
+
+    @Setup
+    public void setUp() throws CustomException, IOException {
+        InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        prompt = new InMemoryBiometricPrompt(keyStore);
+        prompt.setFailureRate(FAILURE_RATE);
+        registryFile = File.createTempFile("key_registry", ".idx");
+        registryFile.delete();
+        authenticator = new CipherAuthenticator(keyStore, prompt, new InMemoryLockScreen(), registryFile,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        authenticator.create();
+    }
+
+    @TearDown
+    public void tearDown() {
+        authenticator.close();
+        registryFile.delete();
+    }
+
+    /**
+     * @return false if the prompt locked out before a finger was read
+     */
+    @Benchmark
+    public boolean flow(Flow flow) throws CustomException, GeneralSecurityException {
+        authenticator.init();
+        flow.authorized = null;
+        prompt.authenticate(authenticator.getPromptCipher(), flow);
+        if (flow.authorized == null)
+            return false;
+
+        authenticator.onAuthenticated();
+        flow.random.nextBytes(flow.token);
+        byte[] ciphertext = flow.authorized.doFinal(flow.token);
+
+        authenticator.initDecrypt(flow.authorized.getIV());
+        if (!Arrays.equals(flow.token, authenticator.getCipher().doFinal(ciphertext)))
+            throw new IllegalStateException("Decrypted token does not match");
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.BatchResult;
+import com.fingerprint.CustomException;
+import com.fingerprint.DataKeySession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A batch of tokens protected under one authentication, compared with encrypting them one by one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    private static final int TOKEN_SIZE = 256;
+
+    @Param({"16", "64", "256"})
+    public int batchSize;
+
+    private DataKeySession session;
+    private List<byte[]> tokens;
+    private List<byte[]> records;
+
+    @Setup
+    public void setUp() throws CustomException {
+        session = DataKeySession.generate();
+        Random random = new Random(batchSize);
+        tokens = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            byte[] token = new byte[TOKEN_SIZE];
+            random.nextBytes(token);
+            tokens.add(token);
+        }
+        records = session.encryptAll(tokens);
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public void encryptOneByOne(Blackhole blackhole) throws CustomException {
+        for (byte[] token : tokens)
+            blackhole.consume(session.encrypt(token));
+    }
+
+    @Benchmark
+    public BatchResult encryptBatch() throws CustomException {
+        return session.encryptBatch(tokens);
+    }
+
+    @Benchmark
+    public BatchResult decryptBatch() throws CustomException {
+        return session.decryptBatch(records);
+    }
+}
@@ -0,0 +1,111 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.CipherAuthenticator;
+import com.fingerprint.CipherSuite;
+import com.fingerprint.CustomException;
+import com.fingerprint.InMemoryBiometricPrompt;
+import com.fingerprint.InMemoryKeyStoreBackend;
+import com.fingerprint.InMemoryLockScreen;
+import com.fingerprint.KeyRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Getting an initialized cipher from {@link CipherAuthenticator}, compared with a plain
+ * {@code getInstance} and {@code init} and with the {@link KeyRegistry} cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherInitBenchmark {
+
+    private static final String ALIAS = "account_key";
+
+    @Param({"AES_GCM", "AES_CBC_PKCS7"})
+    public CipherSuite suite;
+
+    private String transformation;
+    private SecretKey key;
+    private byte[] iv;
+    private CipherAuthenticator authenticator;
+    private KeyRegistry registry;
+    private File indexFile;
+
+    @Setup
+    public void setUp() throws CustomException, IOException {
+        InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        indexFile = File.createTempFile("key_registry", ".idx");
+        indexFile.delete();
+        authenticator = new CipherAuthenticator(keyStore, new InMemoryBiometricPrompt(keyStore),
+                new InMemoryLockScreen(), indexFile, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        authenticator.setCipherSuite(suite);
+        authenticator.create();
+        authenticator.init();
+        iv = authenticator.getCipher().getIV();
+
+        transformation = InMemoryKeyStoreBackend.getJceTransformation(suite);
+        registry = authenticator.getKeyRegistry();
+        key = registry.getOrCreateKey(ALIAS, suite.getTransformation(), true, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        indexFile.delete();
+    }
+
+    @Benchmark
+    public Cipher newCipher() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(transformation);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        return cipher;
+    }
+
+    /**
+     * Takes a cipher from the pool while it is refilled in the background; whatever the refill
+     * cannot keep up with is initialized on the calling thread.
+     */
+    @Benchmark
+    public Cipher init() throws CustomException {
+        authenticator.init();
+        return authenticator.getCipher();
+    }
+
+    @Benchmark
+    public Cipher initDecrypt() throws CustomException {
+        authenticator.initDecrypt(iv);
+        return authenticator.getCipher();
+    }
+
+    @Benchmark
+    public Cipher takeCipherFromRegistry() throws CustomException {
+        return registry.takeCipher(ALIAS);
+    }
+}
@@ -0,0 +1,63 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.CustomException;
+import com.fingerprint.DataKeySession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records encrypted with the in-memory {@link DataKeySession} that bulk data goes through once the
+ * key store cipher has unwrapped it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataKeyBenchmark {
+
+    @Param({"256", "4096", "65536", "1048576"})
+    public int payloadSize;
+
+    private DataKeySession session;
+    private byte[] payload;
+    private byte[] record;
+
+    @Setup
+    public void setUp() throws CustomException {
+        session = DataKeySession.generate();
+        payload = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(payload);
+        record = session.encrypt(payload);
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws CustomException {
+        return session.encrypt(payload);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws CustomException {
+        return session.decrypt(record);
+    }
+}
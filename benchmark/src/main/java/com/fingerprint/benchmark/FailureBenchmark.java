@@ -0,0 +1,141 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.CipherAuthenticator;
+import com.fingerprint.CustomException;
+import com.fingerprint.InMemoryBiometricPrompt;
+import com.fingerprint.InMemoryKeyStoreBackend;
+import com.fingerprint.InMemoryLockScreen;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The expected failures of {@link CipherAuthenticator}: {@code create()} on a device without
+ * enrolled fingerprints, and {@code initDecrypt()} once the key has been invalidated. The
+ * {@code Constructed} methods add what these failures cost before they were preallocated: a new
+ * exception with a full stack trace, which {@code create()} also printed. It is a plain
+ * {@link Exception}, so each failure is still counted once. Anything written to
+ * {@code System.err} on the way is formatted but discarded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FailureBenchmark {
+
+    private static final byte[] IV = new byte[12];
+
+    private CipherAuthenticator notEnrolled;
+    private CipherAuthenticator invalidated;
+    private File notEnrolledIndex;
+    private File invalidatedIndex;
+    private PrintStream err;
+
+    @Setup
+    public void setUp() throws CustomException, IOException {
+        err = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        InMemoryBiometricPrompt prompt = new InMemoryBiometricPrompt(keyStore);
+        prompt.setEnrolled(false);
+        notEnrolledIndex = File.createTempFile("key_registry", ".idx");
+        notEnrolled = newAuthenticator(keyStore, prompt, notEnrolledIndex);
+
+        keyStore = new InMemoryKeyStoreBackend();
+        invalidatedIndex = File.createTempFile("key_registry", ".idx");
+        invalidated = newAuthenticator(keyStore, new InMemoryBiometricPrompt(keyStore), invalidatedIndex);
+        invalidated.create();
+        keyStore.enrollBiometric();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setErr(err);
+        notEnrolledIndex.delete();
+        invalidatedIndex.delete();
+    }
+
+    @Benchmark
+    public CustomException createNotEnrolled() {
+        try {
+            notEnrolled.create();
+            throw new IllegalStateException("create() succeeded");
+        } catch (CustomException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Exception createNotEnrolledConstructed() {
+        try {
+            notEnrolled.create();
+            throw new IllegalStateException("create() succeeded");
+        } catch (CustomException e) {
+            Exception constructed = new Exception(e.getMessage());
+            constructed.printStackTrace();
+            return constructed;
+        }
+    }
+
+    /**
+     * Decrypts, since {@code init()} may take an encrypt cipher the pool prepared before the
+     * enrollment.
+     */
+    @Benchmark
+    public CustomException initInvalidated() {
+        try {
+            invalidated.initDecrypt(IV);
+            throw new IllegalStateException("initDecrypt() succeeded");
+        } catch (CustomException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Exception initInvalidatedConstructed() {
+        try {
+            invalidated.initDecrypt(IV);
+            throw new IllegalStateException("initDecrypt() succeeded");
+        } catch (CustomException e) {
+            return new Exception(e.getMessage());
+        }
+    }
+
+    private static CipherAuthenticator newAuthenticator(InMemoryKeyStoreBackend keyStore, InMemoryBiometricPrompt prompt,
+                                                        File indexFile) {
+        indexFile.delete();
+        return new CipherAuthenticator(keyStore, prompt, new InMemoryLockScreen(), indexFile, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,105 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.CipherAuthenticator;
+import com.fingerprint.CipherSuite;
+import com.fingerprint.CustomException;
+import com.fingerprint.InMemoryBiometricPrompt;
+import com.fingerprint.InMemoryKeyStoreBackend;
+import com.fingerprint.InMemoryLockScreen;
+import com.fingerprint.KeyMetadata;
+import com.fingerprint.KeyRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The key store steps of {@link CipherAuthenticator#create()}: loading the key store, generating
+ * the key, and looking it up again on later starts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeySetupBenchmark {
+
+    private static final String ALIAS = "account_key";
+
+    private InMemoryKeyStoreBackend keyStore;
+    private CipherAuthenticator authenticator;
+    private KeyRegistry registry;
+    private KeyMetadata metadata;
+    private File indexFile;
+
+    @Setup
+    public void setUp() throws CustomException, IOException {
+        keyStore = new InMemoryKeyStoreBackend();
+        indexFile = File.createTempFile("key_registry", ".idx");
+        indexFile.delete();
+        authenticator = new CipherAuthenticator(keyStore, new InMemoryBiometricPrompt(keyStore),
+                new InMemoryLockScreen(), indexFile, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        authenticator.create();
+
+        registry = authenticator.getKeyRegistry();
+        registry.getOrCreateKey(ALIAS, CipherSuite.DEFAULT.getTransformation(), true, 0);
+        metadata = new KeyMetadata("generated_key", CipherSuite.DEFAULT.getTransformation(), 0, true, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        indexFile.delete();
+    }
+
+    @Benchmark
+    public InMemoryKeyStoreBackend loadKeyStore() throws CustomException {
+        InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        keyStore.load();
+        return keyStore;
+    }
+
+    @Benchmark
+    public SecretKey generateKey() throws CustomException {
+        return keyStore.generateKey(metadata);
+    }
+
+    /**
+     * {@code create()} on a later start, when the key exists and only has to be checked.
+     */
+    @Benchmark
+    public CipherAuthenticator createWithExistingKey() throws CustomException {
+        authenticator.create();
+        return authenticator;
+    }
+
+    @Benchmark
+    public SecretKey getKeyFromKeyStore() throws CustomException {
+        return keyStore.getKey(ALIAS);
+    }
+
+    @Benchmark
+    public SecretKey getKeyFromRegistry() throws CustomException {
+        return registry.getOrCreateKey(ALIAS, metadata.getTransformation(), true, 0);
+    }
+}
@@ -0,0 +1,51 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.AuthMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of timing one stage with {@link AuthMetrics}, with timing off and on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    @Param({"false", "true"})
+    public boolean enabled;
+
+    @Setup
+    public void setUp() {
+        AuthMetrics.setEnabled(enabled);
+    }
+
+    @TearDown
+    public void tearDown() {
+        AuthMetrics.setEnabled(false);
+        AuthMetrics.reset();
+    }
+
+    @Benchmark
+    public long timeStage() {
+        long start = AuthMetrics.start();
+        AuthMetrics.stop(AuthMetrics.Stage.INIT, start);
+        return start;
+    }
+}
@@ -0,0 +1,49 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.CustomException;
+import com.fingerprint.PasswordHash;
+import com.fingerprint.PasswordVerifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password hashes per second for each iteration count, i.e. how many guesses per second an
+ * attacker gets on this machine for a given cost. {@link PasswordVerifier#calibrate(long)} picks
+ * the count from the same measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordBenchmark {
+
+    @Param({"10000", "50000", "200000"})
+    public int iterations;
+
+    private PasswordHash hash;
+    private final char[] password = "correct horse battery staple".toCharArray();
+
+    @Setup
+    public void setUp() throws CustomException {
+        hash = PasswordHash.create(password, iterations);
+    }
+
+    @Benchmark
+    public boolean verify() throws CustomException {
+        return hash.matches(password);
+    }
+}
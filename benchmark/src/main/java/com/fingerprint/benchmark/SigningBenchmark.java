@@ -0,0 +1,108 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.ChallengeSigner;
+import com.fingerprint.ChallengeVerifier;
+import com.fingerprint.CustomException;
+import com.fingerprint.InMemoryBiometricPrompt;
+import com.fingerprint.InMemoryKeyStoreBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signatures per second for the challenge-response of {@link ChallengeSigner}: a new signature
+ * for every authorization, signatures within one session, and how many of them the
+ * {@link ChallengeVerifier} standing in for the backend checks. The software provider stands in
+ * for the key store, which is far slower on a device, so compare the modes rather than the
+ * absolute numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningBenchmark {
+
+    private ChallengeSigner perOperation;
+    private ChallengeSigner session;
+    private byte[] challenge;
+
+    /**
+     * A fresh challenge and its signature for every verification, since the verifier accepts each
+     * challenge once.
+     */
+    @State(Scope.Thread)
+    public static class SignedChallenge {
+
+        private ChallengeSigner signer;
+        private ChallengeVerifier verifier;
+
+        byte[] challenge;
+        byte[] signature;
+
+        @Setup
+        public void setUp() throws CustomException {
+            signer = newSigner(30);
+            verifier = new ChallengeVerifier(signer.getPublicKey().getEncoded());
+        }
+
+        @Setup(Level.Invocation)
+        public void sign() throws CustomException {
+            challenge = verifier.newChallenge();
+            signature = signer.sign(challenge);
+        }
+    }
+
+    @Setup
+    public void setUp() throws CustomException {
+        perOperation = newSigner(0);
+        session = newSigner(30);
+        challenge = new byte[ChallengeVerifier.CHALLENGE_LENGTH];
+    }
+
+    /**
+     * One authorization per signature, so the signature is initialized every time.
+     */
+    @Benchmark
+    public byte[] signPerOperation() throws CustomException {
+        perOperation.init();
+        return perOperation.sign(challenge);
+    }
+
+    /**
+     * Within a session the signature initialized after the authentication signs every challenge,
+     * as {@link ChallengeSigner#signBatch} does.
+     */
+    @Benchmark
+    public byte[] signInSession() throws CustomException {
+        return session.sign(challenge);
+    }
+
+    @Benchmark
+    public boolean verify(SignedChallenge signed) {
+        return signed.verifier.verify(signed.challenge, signed.signature);
+    }
+
+    private static ChallengeSigner newSigner(int sessionValiditySeconds) throws CustomException {
+        InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        ChallengeSigner signer = new ChallengeSigner(keyStore, new InMemoryBiometricPrompt(keyStore));
+        signer.setSessionValiditySeconds(sessionValiditySeconds);
+        signer.create();
+        keyStore.onUserAuthenticated();
+        signer.onAuthenticated();
+        signer.init();
+        return signer;
+    }
+}
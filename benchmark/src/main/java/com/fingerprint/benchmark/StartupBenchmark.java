@@ -0,0 +1,131 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.CipherAuthenticator;
+import com.fingerprint.CustomException;
+import com.fingerprint.InMemoryBiometricPrompt;
+import com.fingerprint.InMemoryKeyStoreBackend;
+import com.fingerprint.InMemoryLockScreen;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to the first frame of a first launch, with the provisioning of {@link CipherAuthenticator}
+ * started in {@code onCreate} or deferred until the main thread is idle. The frame is a fixed
+ * amount of work on the calling thread; the key is deleted before every start, so
+ * {@code create()} generates it again. Provisioning competes with the frame for the CPU, so the
+ * gap is widest on devices with few cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final String KEY_NAME = "key_default";
+    private static final long FRAME_TOKENS = 200000;
+
+    private final List<Runnable> idleTasks = new ArrayList<>();
+    private final Executor idleExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            idleTasks.add(command);
+        }
+    };
+
+    private final CipherAuthenticator.Callback callback = new CipherAuthenticator.Callback() {
+        @Override
+        public void onCreated() {
+        }
+
+        @Override
+        public void onCreateError(CustomException e) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    private InMemoryKeyStoreBackend keyStore;
+    private CipherAuthenticator authenticator;
+    private File indexFile;
+
+    @Setup
+    public void setUp() throws CustomException, IOException {
+        keyStore = new InMemoryKeyStoreBackend();
+        indexFile = File.createTempFile("key_registry", ".idx");
+        indexFile.delete();
+        authenticator = new CipherAuthenticator(keyStore, new InMemoryBiometricPrompt(keyStore),
+                new InMemoryLockScreen(), indexFile, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        authenticator.create();
+    }
+
+    @TearDown
+    public void tearDown() {
+        indexFile.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteKey() throws CustomException {
+        keyStore.deleteKey(KEY_NAME);
+    }
+
+    /**
+     * The deferred provisioning runs once the frame is done, and every start waits for it, so the
+     * next one begins with an idle provisioning thread.
+     */
+    @TearDown(Level.Invocation)
+    public void finishProvisioning() throws InterruptedException, ExecutionException {
+        for (Runnable task : idleTasks)
+            task.run();
+        idleTasks.clear();
+        Future<?> provisioning = authenticator.createNow();
+        if (provisioning != null)
+            provisioning.get();
+    }
+
+    @Benchmark
+    public void firstFrameEager() {
+        authenticator.createAsync(callback);
+        Blackhole.consumeCPU(FRAME_TOKENS);
+    }
+
+    @Benchmark
+    public void firstFrameLazy() {
+        authenticator.createLazily(callback, idleExecutor);
+        Blackhole.consumeCPU(FRAME_TOKENS);
+    }
+
+    /**
+     * The frame alone, as a baseline.
+     */
+    @Benchmark
+    public void firstFrameOnly() {
+        Blackhole.consumeCPU(FRAME_TOKENS);
+    }
+}
@@ -0,0 +1,134 @@
+package com.fingerprint.benchmark;
+
+import com.fingerprint.CipherStream;
+import com.fingerprint.CipherSuite;
+import com.fingerprint.CustomException;
+import com.fingerprint.DataKeySession;
+import com.fingerprint.InMemoryKeyStoreBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * One payload through {@link CipherStream} per operation, from memory into a sink that drops the
+ * output, so the figures are the stream and the cipher only. The whole-payload variants use one
+ * CBC cipher, the segment variants a {@link DataKeySession} with a GCM cipher per segment.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+
+    @Param({"1048576", "16777216"})
+    public int payloadSize;
+
+    private final CipherStream stream = new CipherStream();
+    private final WritableByteChannel sink = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            src.position(src.limit());
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private String transformation;
+    private SecretKey key;
+    private DataKeySession session;
+    private byte[] payload;
+    private byte[] ciphertext;
+    private byte[] segments;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException, CustomException {
+        transformation = InMemoryKeyStoreBackend.getJceTransformation(CipherSuite.AES_CBC_PKCS7);
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        key = keyGenerator.generateKey();
+        session = DataKeySession.generate();
+
+        payload = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(payload);
+
+        Cipher cipher = Cipher.getInstance(transformation);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payloadSize + 1024);
+        stream.encrypt(cipher, source(payload), Channels.newChannel(out));
+        ciphertext = out.toByteArray();
+
+        out.reset();
+        stream.encrypt(session, source(payload), Channels.newChannel(out));
+        segments = out.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public long encrypt() throws GeneralSecurityException, CustomException {
+        Cipher cipher = Cipher.getInstance(transformation);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        return stream.encrypt(cipher, source(payload), sink);
+    }
+
+    @Benchmark
+    public long decrypt() throws GeneralSecurityException, CustomException {
+        ReadableByteChannel in = source(ciphertext);
+        Cipher cipher = Cipher.getInstance(transformation);
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(stream.readHeader(in)));
+        return stream.decrypt(cipher, in, sink);
+    }
+
+    @Benchmark
+    public long encryptSegments() throws CustomException {
+        return stream.encrypt(session, source(payload), sink);
+    }
+
+    @Benchmark
+    public long decryptSegments() throws CustomException {
+        return stream.decrypt(session, source(segments), sink);
+    }
+
+    private static ReadableByteChannel source(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+}
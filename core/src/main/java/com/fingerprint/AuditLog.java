@@ -0,0 +1,250 @@
+package com.fingerprint;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only log of authentication attempts in a fixed-size, memory-mapped ring buffer. Once
+ * the buffer is full the oldest records are overwritten, so disk use never grows.
+ * <p>
+ * {@link #record(Event, int)} only writes 24 bytes into the mapping: it does not allocate, block
+ * or make a system call, so it can be called from the UI thread and from any number of threads at
+ * once. A background thread flushes the mapping to disk every few seconds.
+ * <p>
+ * Layout: a 16-byte header (magic, version, capacity), then {@code capacity} records of
+ * {@code sequence, time millis, event, code}. Slot {@code i} holds the record whose sequence is
+ * {@code i + 1} modulo the capacity; sequence 0 marks an empty slot.
+ */
+public class AuditLog implements Closeable {
+
+    public enum Event {
+        FINGERPRINT_SUCCEEDED,
+        FINGERPRINT_FAILED,
+        /** The code is the help code of the sensor. */
+        FINGERPRINT_HELP,
+        /** The code is the error code of the sensor. */
+        FINGERPRINT_ERROR,
+        PASSWORD_FALLBACK,
+        PASSWORD_SUCCEEDED,
+        PASSWORD_FAILED,
+        CANCELLED
+    }
+
+    public static class Entry {
+        public final long sequence;
+        public final long timeMillis;
+        public final Event event;
+        public final int code;
+
+        Entry(long sequence, long timeMillis, Event event, int code) {
+            this.sequence = sequence;
+            this.timeMillis = timeMillis;
+            this.event = event;
+            this.code = code;
+        }
+    }
+
+    public static final int CAPACITY_DEFAULT = 16384;
+
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 24;
+
+    private static final int MAGIC = 0x4155444c;
+    private static final int VERSION = 1;
+
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int TIME_OFFSET = 8;
+    private static final int EVENT_OFFSET = 16;
+    private static final int CODE_OFFSET = 20;
+
+    private static final long FLUSH_INTERVAL_MILLIS = 2000;
+
+    private static final Event[] EVENTS = Event.values();
+
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private final int capacity;
+
+    private final AtomicLong lastSequence;
+    private volatile boolean dirty;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AuditLog");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private AuditLog(RandomAccessFile file, ByteBuffer buffer, int capacity, long lastSequence) {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.lastSequence = new AtomicLong(lastSequence);
+
+        if (file == null)
+            return;
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the log in {@code file}, keeping its records, or starts a new one if the file is
+     * missing or was created with another capacity.
+     */
+    public static AuditLog open(File file, int capacity) throws CustomException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+            boolean reset = raf.length() != size;
+            if (reset)
+                raf.setLength(size);
+
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (!reset && (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != capacity))
+                reset = true;
+
+            if (reset) {
+                for (long i = HEADER_SIZE; i < size; i += 8)
+                    buffer.putLong((int) i, 0);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, capacity);
+                buffer.force();
+            }
+            return new AuditLog(raf, buffer, capacity, reset ? 0 : findLastSequence(buffer, capacity));
+        } catch (IOException e) {
+            closeQuietly(raf);
+            throw new CustomException("Failed to open audit log", e);
+        }
+    }
+
+    /**
+     * A log kept only in memory, e.g. when the file cannot be mapped.
+     */
+    public static AuditLog openInMemory(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + capacity * RECORD_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        return new AuditLog(null, buffer, capacity, 0);
+    }
+
+    private static long findLastSequence(ByteBuffer buffer, int capacity) {
+        long last = 0;
+        for (int slot = 0; slot < capacity; slot++)
+            last = Math.max(last, buffer.getLong(offsetOf(slot) + SEQUENCE_OFFSET));
+        return last;
+    }
+
+    private static int offsetOf(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Appends an event. Each caller claims its own slot, and the slot's sequence is cleared while
+     * it is rewritten, so a reader skips a record that is only partly written.
+     *
+     * @param code the sensor help or error code, or 0
+     */
+    public void record(Event event, int code) {
+        long sequence = lastSequence.incrementAndGet();
+        int offset = offsetOf((int) ((sequence - 1) % capacity));
+
+        buffer.putLong(offset + SEQUENCE_OFFSET, 0);
+        buffer.putLong(offset + TIME_OFFSET, System.currentTimeMillis());
+        buffer.putInt(offset + EVENT_OFFSET, event.ordinal());
+        buffer.putInt(offset + CODE_OFFSET, code);
+        buffer.putLong(offset + SEQUENCE_OFFSET, sequence);
+        dirty = true;
+    }
+
+    public void record(Event event) {
+        record(event, 0);
+    }
+
+    /**
+     * Writes the records appended so far to disk. Called periodically in the background.
+     */
+    public void flush() {
+        if (!dirty || !(buffer instanceof MappedByteBuffer))
+            return;
+        dirty = false;
+        ((MappedByteBuffer) buffer).force();
+    }
+
+    /**
+     * The records still in the buffer, oldest first.
+     */
+    public List<Entry> read() {
+        List<Entry> entries = new ArrayList<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = offsetOf(slot);
+            long sequence = buffer.getLong(offset + SEQUENCE_OFFSET);
+            int event = buffer.getInt(offset + EVENT_OFFSET);
+            if (sequence == 0 || event < 0 || event >= EVENTS.length)
+                continue;
+
+            entries.add(new Entry(sequence, buffer.getLong(offset + TIME_OFFSET), EVENTS[event],
+                    buffer.getInt(offset + CODE_OFFSET)));
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Writes the records as CSV, oldest first: {@code sequence,time_millis,event,code}.
+     */
+    public void export(Writer writer) throws IOException {
+        writer.write("sequence,time_millis,event,code\n");
+        for (Entry entry : read())
+            writer.write(entry.sequence + "," + entry.timeMillis + "," + entry.event + "," + entry.code + "\n");
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+        closeQuietly(file);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
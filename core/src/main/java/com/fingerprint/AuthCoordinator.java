@@ -0,0 +1,82 @@
+package com.fingerprint;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces authentication requests: while one authentication is in flight, further requests get
+ * the same {@link AuthFuture} instead of starting another prompt, so rapid taps neither stack
+ * dialogs nor initialize the cipher again.
+ */
+public class AuthCoordinator {
+
+    /**
+     * Starts one authentication, e.g. initializes the cipher and shows the dialog, and completes
+     * the future when the user is done.
+     */
+    public interface Flow {
+        void start(AuthFuture future) throws CustomException;
+    }
+
+    private final Executor callbackExecutor;
+
+    private AuthFuture inFlight;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong flows = new AtomicLong();
+
+    /**
+     * @param callbackExecutor delivers the {@link AuthFuture.Callback}s, e.g. on the main thread
+     */
+    public AuthCoordinator(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Joins the authentication in flight, or starts {@code flow} if there is none. A flow that
+     * throws fails its future.
+     */
+    public AuthFuture authenticate(Flow flow) {
+        requests.incrementAndGet();
+
+        AuthFuture future;
+        synchronized (this) {
+            if (inFlight != null && !inFlight.isDone())
+                return inFlight;
+
+            future = new AuthFuture(callbackExecutor);
+            inFlight = future;
+        }
+
+        flows.incrementAndGet();
+        try {
+            flow.start(future);
+        } catch (CustomException e) {
+            future.fail(e);
+        }
+        return future;
+    }
+
+    public synchronized boolean isInFlight() {
+        return inFlight != null && !inFlight.isDone();
+    }
+
+    /**
+     * Requests made, including the ones that joined a flow in flight.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Flows started, i.e. prompts shown and ciphers initialized.
+     */
+    public long getFlows() {
+        return flows.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AuthCoordinator: requests=" + getRequests() + " flows=" + getFlows();
+    }
+}
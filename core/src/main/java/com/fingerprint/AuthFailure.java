@@ -0,0 +1,128 @@
+package com.fingerprint;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Why an authentication step failed. Every code but {@link #ERROR} is an expected outcome the UI
+ * reacts to (the user has no fingerprint enrolled, the key needs replacing, ...), so it is thrown
+ * as a preallocated {@link CustomException} without a stack trace, cause or suppressed exceptions:
+ * {@link #raise()} costs a counter increment, not a stack walk. {@link #ERROR} covers real errors, which are
+ * constructed as usual and keep their stack trace and cause.
+ * <p>
+ * Every code counts its failures since the last {@link #resetCounts()}, so failure rates show up
+ * next to the stage latencies in {@link AuthMetrics#dump}.
+ * <pre>
+ * if (!capabilities.get().hasEnrolledBiometrics())
+ *     throw AuthFailure.NO_ENROLLED_BIOMETRICS.raise();
+ * </pre>
+ */
+public enum AuthFailure {
+    /** No PIN, pattern or password is set up. */
+    NO_SECURE_LOCK_SCREEN("Secure lock screen hasn't set up.\n"
+            + "Go to 'Settings -> Security -> Fingerprint' to set up fingerprintManager fingerprint"),
+    /** No fingerprint is enrolled. */
+    NO_ENROLLED_BIOMETRICS("Has not Enrolled Fingerprints.\n"
+            + "Go to 'Settings -> Security -> Fingerprint' and register at least one fingerprint"),
+    /** The key store did not load, so no key operation can run. */
+    KEY_STORE_UNAVAILABLE("Key store is not available"),
+    /** Thrown as a {@link KeyInvalidatedException}. */
+    KEY_INVALIDATED("Key has been invalidated"),
+    /** Thrown as an {@link AuthenticationRequiredException}. */
+    AUTHENTICATION_REQUIRED("Authentication required"),
+    /** The user or the app cancelled the authentication, see {@link AuthFuture#cancel()}. */
+    CANCELLED("Authentication cancelled"),
+    /** Anything unexpected; never preallocated. */
+    ERROR(null);
+
+    private static final AuthFailure[] FAILURES = values();
+    private static final StackTraceElement[] NO_STACK_TRACE = new StackTraceElement[0];
+
+    /**
+     * Before Android 7.0 a shared instance would collect suppressed exceptions from every thread,
+     * so {@link #raise()} constructs a fresh one there instead.
+     */
+    private static final boolean SHARED = canDisableSuppression();
+
+    static {
+        if (SHARED) {
+            for (AuthFailure failure : FAILURES) {
+                if (failure != ERROR)
+                    failure.exception = failure.newException(true);
+            }
+        }
+    }
+
+    private final String message;
+    private final AtomicLong count = new AtomicLong();
+    private CustomException exception;
+
+    AuthFailure(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @param canDisableSuppression false before Android 7.0, where the instance keeps suppression
+     *                              enabled and only its stack trace is cleared
+     */
+    private CustomException newException(boolean canDisableSuppression) {
+        switch (this) {
+            case KEY_INVALIDATED:
+                return canDisableSuppression
+                        ? new KeyInvalidatedException(this)
+                        : new KeyInvalidatedException(this, NO_STACK_TRACE);
+            case AUTHENTICATION_REQUIRED:
+                return canDisableSuppression
+                        ? new AuthenticationRequiredException(this)
+                        : new AuthenticationRequiredException(this, NO_STACK_TRACE);
+            default:
+                return canDisableSuppression
+                        ? new CustomException(this)
+                        : new CustomException(this, NO_STACK_TRACE);
+        }
+    }
+
+    /**
+     * Throwable(String, Throwable, boolean, boolean) is missing before Android 7.0 (API 24).
+     */
+    private static boolean canDisableSuppression() {
+        try {
+            Throwable.class.getDeclaredConstructor(String.class, Throwable.class, boolean.class, boolean.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    /**
+     * Counts the failure and returns the shared exception to throw for it, or a new one without a
+     * stack trace before Android 7.0.
+     *
+     * @throws IllegalStateException for {@link #ERROR}, which has to be constructed with its cause
+     */
+    public CustomException raise() {
+        if (this == ERROR)
+            throw new IllegalStateException(name() + " is not preallocated");
+        count.incrementAndGet();
+        return exception != null ? exception : newException(false);
+    }
+
+    void count() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * @return the failures with this code since the last {@link #resetCounts()}
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    public static void resetCounts() {
+        for (AuthFailure failure : FAILURES)
+            failure.count.set(0);
+    }
+}
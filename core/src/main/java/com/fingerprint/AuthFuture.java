@@ -0,0 +1,125 @@
+package com.fingerprint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * The outcome of one authentication, shared by every caller that asked for it while it was in
+ * flight. It completes once, by {@link #succeed}, {@link #fail} or {@link #cancel}; callbacks
+ * added before or after that are delivered on the callback executor.
+ */
+public class AuthFuture {
+
+    public interface Callback {
+        void onAuthenticated(AuthResult result);
+        void onAuthenticationError(CustomException e);
+        void onAuthenticationCancelled();
+    }
+
+    private final Executor callbackExecutor;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private final List<Callback> callbacks = new ArrayList<>();
+    private boolean completed;
+    private boolean cancelled;
+    private AuthResult result;
+    private CustomException error;
+
+    AuthFuture(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public void addCallback(Callback callback) {
+        synchronized (this) {
+            if (!completed) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        deliver(callback);
+    }
+
+    public boolean succeed(AuthResult result) {
+        return complete(result, null, false);
+    }
+
+    public boolean fail(CustomException error) {
+        return complete(null, error, false);
+    }
+
+    /**
+     * The user dismissed the prompt. Does nothing if the authentication already completed.
+     */
+    public boolean cancel() {
+        return complete(null, null, true);
+    }
+
+    public synchronized boolean isDone() {
+        return completed;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Waits for the authentication; not to be called on the thread that completes it.
+     *
+     * @throws CustomException the error the authentication failed with, or if it was cancelled
+     */
+    public AuthResult get() throws CustomException, InterruptedException {
+        done.await();
+        synchronized (this) {
+            if (cancelled)
+                throw AuthFailure.CANCELLED.raise();
+            if (error != null)
+                throw error;
+            return result;
+        }
+    }
+
+    private boolean complete(AuthResult result, CustomException error, boolean cancelled) {
+        List<Callback> pending;
+        synchronized (this) {
+            if (completed)
+                return false;
+
+            this.completed = true;
+            this.result = result;
+            this.error = error;
+            this.cancelled = cancelled;
+            pending = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        done.countDown();
+
+        for (Callback callback : pending)
+            deliver(callback);
+        return true;
+    }
+
+    private void deliver(final Callback callback) {
+        final AuthResult result;
+        final CustomException error;
+        final boolean cancelled;
+        synchronized (this) {
+            result = this.result;
+            error = this.error;
+            cancelled = this.cancelled;
+        }
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled)
+                    callback.onAuthenticationCancelled();
+                else if (error != null)
+                    callback.onAuthenticationError(error);
+                else
+                    callback.onAuthenticated(result);
+            }
+        });
+    }
+}
@@ -0,0 +1,133 @@
+package com.fingerprint;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Process-wide latency histograms of the authentication flow, one per {@link Stage}.
+ * <p>
+ * Timing is off by default. When it is off, {@link #start()} returns {@link #DISABLED} and
+ * {@link #stop(Stage, long)} returns right away, so an instrumented step costs one volatile read.
+ * When it is on, a step reads the monotonic clock twice and records into a fixed-bucket
+ * {@link LatencyHistogram} without allocating.
+ * <pre>
+ * long start = AuthMetrics.start();
+ * keyStore.load();
+ * AuthMetrics.stop(AuthMetrics.Stage.KEY_STORE_LOAD, start);
+ * </pre>
+ */
+public final class AuthMetrics {
+
+    public enum Stage {
+        /** The whole of {@link CipherAuthenticator#create()}. */
+        CREATE,
+        /** Loading the key store; includes {@link #KEY_GENERATOR} where the backend records it. */
+        KEY_STORE_LOAD,
+        /** Getting the key generator, as part of loading the key store. */
+        KEY_GENERATOR,
+        /** Getting the cipher instance for the key's suite. */
+        CIPHER_CREATE,
+        /** Looking up the existing key and checking it is still usable. */
+        KEY_CHECK,
+        /** Generating a new key. */
+        KEY_CREATE,
+        /** {@link CipherAuthenticator#init()}. */
+        INIT,
+        /** {@link CipherAuthenticator#initDecrypt(byte[])}. */
+        INIT_DECRYPT,
+        /** From listening on the sensor to the authentication succeeding. */
+        PROMPT,
+        /** From the authentication succeeding to the authenticated callback. */
+        TIME_TO_CALLBACK
+    }
+
+    /**
+     * Returned by {@link #start()} while timing is off.
+     */
+    public static final long DISABLED = Long.MIN_VALUE;
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[STAGES.length];
+
+    static {
+        for (Stage stage : STAGES)
+            HISTOGRAMS[stage.ordinal()] = new LatencyHistogram(stage.name().toLowerCase(Locale.ROOT));
+    }
+
+    private static volatile boolean enabled;
+
+    private AuthMetrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        AuthMetrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the monotonic clock in nanoseconds, or {@link #DISABLED}
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : DISABLED;
+    }
+
+    /**
+     * Records the time since {@code start} under {@code stage}. Does nothing if {@code start} is
+     * {@link #DISABLED}.
+     */
+    public static void stop(Stage stage, long start) {
+        if (start != DISABLED)
+            HISTOGRAMS[stage.ordinal()].record(System.nanoTime() - start);
+    }
+
+    public static LatencyHistogram.Snapshot snapshot(Stage stage) {
+        return HISTOGRAMS[stage.ordinal()].snapshot();
+    }
+
+    /**
+     * Clears the histograms and the {@link AuthFailure} counts.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS)
+            histogram.reset();
+        AuthFailure.resetCounts();
+    }
+
+    /**
+     * Writes a snapshot of every stage that has recordings to {@code file}, one stage per line,
+     * followed by a line with the count of every {@link AuthFailure} that occurred.
+     */
+    public static void dump(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            for (Stage stage : STAGES) {
+                LatencyHistogram.Snapshot snapshot = snapshot(stage);
+                if (snapshot.getCount() > 0)
+                    writer.write(snapshot + "\n");
+            }
+            writer.write(failureCounts() + "\n");
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Failed to replace " + file);
+    }
+
+    static String failureCounts() {
+        StringBuilder sb = new StringBuilder("failures");
+        for (AuthFailure failure : AuthFailure.values()) {
+            long count = failure.getCount();
+            if (count > 0)
+                sb.append(' ').append(failure.name().toLowerCase(Locale.ROOT)).append('=').append(count);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.fingerprint;
+
+import javax.crypto.Cipher;
+
+/**
+ * How the user was authenticated, and the cipher that authentication authorized, if any.
+ * <p>
+ * Every caller that joined the same {@link AuthFuture} gets this same result, but a cipher can only
+ * be used by one thread, so {@link #takeCipher()} hands it to the first caller only.
+ */
+public class AuthResult {
+
+    public enum Method {
+        FINGERPRINT,
+        PASSWORD,
+        /** Inside the session window, without prompting. */
+        SESSION
+    }
+
+    private final Method method;
+    private Cipher cipher;
+
+    private AuthResult(Method method, Cipher cipher) {
+        this.method = method;
+        this.cipher = cipher;
+    }
+
+    /**
+     * @param cipher the cipher authorized by the fingerprint, or null if the prompt listened
+     *               without one
+     */
+    public static AuthResult fingerprint(Cipher cipher) {
+        return new AuthResult(Method.FINGERPRINT, cipher);
+    }
+
+    public static AuthResult password() {
+        return new AuthResult(Method.PASSWORD, null);
+    }
+
+    public static AuthResult session(Cipher cipher) {
+        return new AuthResult(Method.SESSION, cipher);
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the authorized cipher to the first caller, and null to every later one, which then
+     * initializes its own as in the session mode.
+     */
+    public synchronized Cipher takeCipher() {
+        Cipher taken = cipher;
+        cipher = null;
+        return taken;
+    }
+}
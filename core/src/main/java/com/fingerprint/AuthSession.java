@@ -0,0 +1,37 @@
+package com.fingerprint;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory mirror of the key store authentication validity window. While it is active, protected
+ * operations run without prompting; the key store still has the last word and a
+ * {@code UserNotAuthenticatedException} ends the session early.
+ */
+public class AuthSession {
+
+    private final long validityNanos;
+
+    private volatile boolean active;
+    private volatile long expiresAt;
+
+    public AuthSession(int validitySeconds) {
+        this.validityNanos = TimeUnit.SECONDS.toNanos(validitySeconds);
+    }
+
+    public void start() {
+        expiresAt = System.nanoTime() + validityNanos;
+        active = true;
+    }
+
+    public boolean isActive() {
+        return active && expiresAt - System.nanoTime() > 0;
+    }
+
+    public long getRemainingMillis() {
+        return isActive() ? TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()) : 0;
+    }
+
+    public void expire() {
+        active = false;
+    }
+}
@@ -0,0 +1,288 @@
+package com.fingerprint;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Authentication settings served from an immutable in-memory {@link Snapshot}, so reading them,
+ * e.g. on every tap, never touches the disk.
+ * <p>
+ * The store is loaded once on a background thread as soon as the instance is created. Writes
+ * are visible in the snapshot immediately and reach the store in batches on the same thread.
+ * Every change, from {@link Editor#apply()} or from the store itself, swaps in a new snapshot
+ * atomically and is delivered to the {@link Listener}s on the callback executor.
+ */
+public class AuthSettings {
+
+    /**
+     * Where the values live, e.g. {@code SharedPreferences}. Only called on the settings thread.
+     */
+    public interface Store {
+        /**
+         * Reads every value, with the defaults filled in.
+         */
+        Map<String, ?> load();
+
+        void write(Map<String, Object> changes);
+    }
+
+    public interface Listener {
+        void onSettingsChanged(Snapshot snapshot);
+    }
+
+    /**
+     * The values at one point in time. Never changes; a change produces a new snapshot.
+     */
+    public static class Snapshot {
+
+        private final Map<String, ?> values;
+
+        Snapshot(Map<String, ?> values) {
+            this.values = values;
+        }
+
+        public boolean getBoolean(String key, boolean defaultValue) {
+            Object value = values.get(key);
+            return value instanceof Boolean ? (Boolean) value : defaultValue;
+        }
+
+        public String getString(String key, String defaultValue) {
+            Object value = values.get(key);
+            return value instanceof String ? (String) value : defaultValue;
+        }
+
+        public int getInt(String key, int defaultValue) {
+            Object value = values.get(key);
+            return value instanceof Integer ? (Integer) value : defaultValue;
+        }
+
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        Snapshot with(Map<String, Object> changes) {
+            if (changes.isEmpty())
+                return this;
+
+            Map<String, Object> merged = new HashMap<>(values);
+            merged.putAll(changes);
+            return new Snapshot(Collections.unmodifiableMap(merged));
+        }
+    }
+
+    /**
+     * Collects changes; nothing is visible until {@link #apply()}. Not thread safe.
+     */
+    public class Editor {
+
+        private final Map<String, Object> changes = new HashMap<>();
+
+        public Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        /**
+         * Publishes the changes in a new snapshot and queues them for the store.
+         */
+        public void apply() {
+            AuthSettings.this.apply(changes);
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(Collections.<String, Object>emptyMap());
+
+    private final Store store;
+    private final Executor callbackExecutor;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(EMPTY);
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Object lock = new Object();
+    private final Map<String, Object> pending = new HashMap<>();
+    private boolean flushScheduled;
+    private long writes;
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AuthSettings");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+
+    /**
+     * Starts loading {@code store} right away.
+     *
+     * @param callbackExecutor delivers the {@link Listener} callbacks, e.g. on the main thread
+     */
+    public AuthSettings(Store store, Executor callbackExecutor) {
+        this.store = store;
+        this.callbackExecutor = callbackExecutor;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onStoreChanged(AuthSettings.this.store.load());
+                loaded.countDown();
+            }
+        });
+    }
+
+    /**
+     * The current snapshot. Waits for the initial load if it has not finished yet; after that it
+     * only reads a field.
+     */
+    public Snapshot get() {
+        if (loaded.getCount() > 0) {
+            try {
+                loaded.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return snapshot.get();
+    }
+
+    public boolean isLoaded() {
+        return loaded.getCount() == 0;
+    }
+
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * The listener gets the current snapshot right away if the settings are loaded, and a new one
+     * on every change.
+     */
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+        if (isLoaded())
+            notifyListener(listener, snapshot.get());
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Replaces the snapshot with the values the store holds now, e.g. from a change listener of
+     * the store when another screen wrote to it. Changes not yet written stay on top.
+     */
+    public void onStoreChanged(Map<String, ?> values) {
+        synchronized (lock) {
+            swap(new Snapshot(Collections.unmodifiableMap(new HashMap<>(values))).with(pending));
+        }
+    }
+
+    /**
+     * @return how many batches were written to the store
+     */
+    public long getWrites() {
+        synchronized (lock) {
+            return writes;
+        }
+    }
+
+    /**
+     * Writes the changes not yet in the store and stops the settings thread once it has. Changes
+     * applied afterwards are still published in the snapshot but never written.
+     */
+    public void close() {
+        synchronized (lock) {
+            if (!flushScheduled && !pending.isEmpty()) {
+                flushScheduled = true;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            }
+            executor.shutdown();
+        }
+    }
+
+    private void apply(Map<String, Object> changes) {
+        synchronized (lock) {
+            swap(snapshot.get().with(changes));
+            if (executor.isShutdown())
+                return;
+
+            pending.putAll(changes);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Called with the lock held, so listeners see the snapshots in the order they were swapped in.
+     */
+    private void swap(Snapshot next) {
+        snapshot.set(next);
+        for (Listener listener : listeners)
+            notifyListener(listener, next);
+    }
+
+    /**
+     * Writes everything applied since the last flush in one batch. The pending changes stay on top
+     * of the snapshot until the store has them, so a reload in between does not undo them.
+     */
+    private void flush() {
+        Map<String, Object> batch;
+        synchronized (lock) {
+            flushScheduled = false;
+            batch = new HashMap<>(pending);
+        }
+        if (batch.isEmpty())
+            return;
+
+        store.write(batch);
+        synchronized (lock) {
+            for (Map.Entry<String, Object> entry : batch.entrySet()) {
+                Object value = pending.get(entry.getKey());
+                if (value != null && value.equals(entry.getValue()))
+                    pending.remove(entry.getKey());
+            }
+            writes++;
+        }
+    }
+
+    private void notifyListener(final Listener listener, final Snapshot snapshot) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSettingsChanged(snapshot);
+            }
+        });
+    }
+}
@@ -0,0 +1,20 @@
+package com.fingerprint;
+
+/**
+ * The key is fine but the user has to authenticate before it can be used, e.g. because the
+ * session window has closed.
+ */
+public class AuthenticationRequiredException extends CustomException {
+
+    public AuthenticationRequiredException(final String message, final Throwable cause) {
+        super(AuthFailure.AUTHENTICATION_REQUIRED, message, cause);
+    }
+
+    AuthenticationRequiredException(final AuthFailure failure) {
+        super(failure);
+    }
+
+    AuthenticationRequiredException(final AuthFailure failure, final StackTraceElement[] stackTrace) {
+        super(failure, stackTrace);
+    }
+}
@@ -0,0 +1,93 @@
+package com.fingerprint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of one batch of records processed under a single authentication, in input order. A
+ * record that fails has its error in place of its output; the rest of the batch still runs.
+ */
+public class BatchResult {
+
+    private final byte[][] outputs;
+    private final CustomException[] errors;
+    private final long bytes;
+    private final long nanos;
+
+    BatchResult(byte[][] outputs, CustomException[] errors, long bytes, long nanos) {
+        this.outputs = outputs;
+        this.errors = errors;
+        this.bytes = bytes;
+        this.nanos = nanos;
+    }
+
+    public int size() {
+        return outputs.length;
+    }
+
+    public boolean isSuccess(int index) {
+        return errors[index] == null;
+    }
+
+    /**
+     * @throws CustomException the error of this record
+     */
+    public byte[] get(int index) throws CustomException {
+        if (errors[index] != null)
+            throw errors[index];
+        return outputs[index];
+    }
+
+    public CustomException getError(int index) {
+        return errors[index];
+    }
+
+    public int getFailureCount() {
+        int failures = 0;
+        for (CustomException error : errors) {
+            if (error != null)
+                failures++;
+        }
+        return failures;
+    }
+
+    /**
+     * Every output, in input order.
+     *
+     * @throws CustomException if any record failed
+     */
+    public List<byte[]> getAll() throws CustomException {
+        List<byte[]> all = new ArrayList<>(outputs.length);
+        for (int i = 0; i < outputs.length; i++) {
+            if (errors[i] != null)
+                throw new CustomException("Failed to process records", errors[i]);
+            all.add(outputs[i]);
+        }
+        return all;
+    }
+
+    /**
+     * Input bytes processed, including the records that failed.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public double getRecordsPerSecond() {
+        return nanos == 0 ? 0 : outputs.length / (nanos / 1e9);
+    }
+
+    public double getMegabytesPerSecond() {
+        return nanos == 0 ? 0 : bytes / (nanos / 1e9) / (1024 * 1024);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d records, %d failed, %.0f records/s, %.1f MB/s", size(), getFailureCount(),
+                getRecordsPerSecond(), getMegabytesPerSecond());
+    }
+}
@@ -0,0 +1,116 @@
+package com.fingerprint;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches what the device can do for authentication, so the sensor and lock screen state is read
+ * once rather than on every check. On a device each of these reads is a call into a system
+ * service in another process.
+ * <p>
+ * The snapshot is read on first use and kept until {@link #refresh()} or {@link #invalidate()}:
+ * refresh when the app comes back to the foreground, since the user may have changed the settings
+ * meanwhile, and invalidate when a key turns out to be invalidated by a new enrollment.
+ */
+public class BiometricCapabilities {
+
+    public static class Snapshot {
+        private final boolean hardwareDetected;
+        private final boolean enrolled;
+        private final boolean secureLockScreen;
+        /** System calls reading this snapshot took, and so each cached read saves. */
+        private final int calls;
+
+        Snapshot(boolean hardwareDetected, boolean enrolled, boolean secureLockScreen, int calls) {
+            this.hardwareDetected = hardwareDetected;
+            this.enrolled = enrolled;
+            this.secureLockScreen = secureLockScreen;
+            this.calls = calls;
+        }
+
+        public boolean isHardwareDetected() {
+            return hardwareDetected;
+        }
+
+        /**
+         * Always false when there is no hardware, since the enrollment is not read then.
+         */
+        public boolean hasEnrolledBiometrics() {
+            return enrolled;
+        }
+
+        public boolean isSecureLockScreen() {
+            return secureLockScreen;
+        }
+
+        public boolean isAvailable() {
+            return hardwareDetected && enrolled;
+        }
+    }
+
+    private final BiometricPrompt biometricPrompt;
+    private final LockScreen lockScreen;
+
+    private volatile Snapshot snapshot;
+
+    private final AtomicLong systemCalls = new AtomicLong();
+    private final AtomicLong savedCalls = new AtomicLong();
+
+    public BiometricCapabilities(BiometricPrompt biometricPrompt, LockScreen lockScreen) {
+        this.biometricPrompt = biometricPrompt;
+        this.lockScreen = lockScreen;
+    }
+
+    /**
+     * The cached snapshot, read from the system if there is none yet.
+     */
+    public Snapshot get() {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot == null)
+            return refresh();
+
+        savedCalls.addAndGet(snapshot.calls);
+        return snapshot;
+    }
+
+    /**
+     * Reads the state from the system now and caches it.
+     */
+    public Snapshot refresh() {
+        boolean hardwareDetected = biometricPrompt.isHardwareDetected();
+        boolean enrolled = hardwareDetected && biometricPrompt.hasEnrolledBiometrics();
+        boolean secureLockScreen = lockScreen.isSecure();
+        // Hardware, enrollment if there is hardware, and lock screen.
+        int calls = hardwareDetected ? 3 : 2;
+        systemCalls.addAndGet(calls);
+
+        Snapshot snapshot = new Snapshot(hardwareDetected, enrolled, secureLockScreen, calls);
+        this.snapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Drops the snapshot; the next {@link #get()} reads the system again.
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * Calls made into the sensor and lock screen services.
+     */
+    public long getSystemCalls() {
+        return systemCalls.get();
+    }
+
+    /**
+     * Calls the cached snapshots answered instead.
+     */
+    public long getSavedCalls() {
+        return savedCalls.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BiometricCapabilities: system calls=" + getSystemCalls() + " saved=" + getSavedCalls();
+    }
+}
@@ -0,0 +1,53 @@
+package com.fingerprint;
+
+import java.security.Signature;
+
+import javax.crypto.Cipher;
+
+/**
+ * The sensor that authorizes key store operations: {@code FingerprintManager} on a device, or
+ * {@link InMemoryBiometricPrompt} on the desktop JVM.
+ */
+public interface BiometricPrompt {
+
+    interface Callback {
+        /**
+         * @param cipher the cipher passed to {@link #authenticate}, now authorized, or null if
+         *               none was passed
+         */
+        void onAuthenticationSucceeded(Cipher cipher);
+
+        /**
+         * A biometric was read but not recognized. The prompt keeps listening.
+         */
+        void onAuthenticationFailed();
+
+        void onAuthenticationHelp(int helpCode, CharSequence helpString);
+
+        /**
+         * The prompt stopped listening and will not call back again.
+         */
+        void onAuthenticationError(int errorCode, CharSequence errString);
+    }
+
+    interface Cancellation {
+        void cancel();
+    }
+
+    boolean isHardwareDetected();
+
+    boolean hasEnrolledBiometrics();
+
+    /**
+     * Starts listening. {@code cipher} may be null when the key is authorized by a session window
+     * rather than per operation.
+     */
+    Cancellation authenticate(Cipher cipher, Callback callback);
+
+    /**
+     * Like {@link #authenticate(Cipher, Callback)} for a key pair: {@code signature}, initialized
+     * for signing, is authorized when {@link Callback#onAuthenticationSucceeded} is called with a
+     * null cipher.
+     */
+    Cancellation authenticateSignature(Signature signature, Callback callback);
+}
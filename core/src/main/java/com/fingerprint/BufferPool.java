@@ -0,0 +1,144 @@
+package com.fingerprint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded pool of direct buffers for plaintexts and ciphertexts passed to
+ * {@link javax.crypto.Cipher#update(ByteBuffer, ByteBuffer)} and
+ * {@link javax.crypto.Cipher#doFinal(ByteBuffer, ByteBuffer)}, e.g. through
+ * {@link DataKeySession#decrypt(ByteBuffer, ByteBuffer)} or a {@link CipherEnvelope}. Direct buffers live outside the Java heap, so the garbage collector never
+ * copies a secret around, and every buffer is zeroed when it is released. Once the pool is warm,
+ * {@link #acquire()} and {@link #release(ByteBuffer)} allocate nothing.
+ * <p>
+ * At most {@code capacity} buffers are kept. When all of them are in use, {@link #acquire()}
+ * allocates an extra buffer, which is wiped and dropped if the pool is full when it comes back.
+ * Providers that cannot work on direct memory copy through a temporary array of their own, which
+ * this pool cannot wipe.
+ * <p>
+ * Thread safe.
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private static final byte[] ZEROS = new byte[4096];
+
+    private final int bufferSize;
+    private final ByteBuffer[] free;
+    private int freeCount;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param bufferSize size of every pooled buffer, enough for the largest plaintext plus the
+     *                   cipher overhead, see {@link CipherEnvelope#getMaxLength}
+     * @param capacity   how many released buffers are kept for reuse
+     */
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.free = new ByteBuffer[capacity];
+    }
+
+    /**
+     * @return a zeroed buffer of {@link #getBufferSize()} bytes, positioned at 0 with the limit at
+     * its capacity
+     */
+    public ByteBuffer acquire() {
+        synchronized (free) {
+            if (freeCount > 0) {
+                hits++;
+                ByteBuffer buffer = free[--freeCount];
+                free[freeCount] = null;
+                return buffer;
+            }
+            misses++;
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Like {@link #acquire()}, with a dedicated buffer when {@code minSize} does not fit a pooled
+     * one. A dedicated buffer is wiped on release but not kept.
+     */
+    public ByteBuffer acquire(int minSize) {
+        if (minSize <= bufferSize)
+            return acquire();
+
+        synchronized (free) {
+            misses++;
+        }
+        return ByteBuffer.allocateDirect(minSize);
+    }
+
+    /**
+     * Zeroes the buffer and keeps it for the next {@link #acquire()}. The caller must not touch
+     * it, or any view of it, afterwards.
+     *
+     * @throws IllegalStateException if the buffer is already released, since keeping it twice
+     *                               would hand it to two callers
+     */
+    public void release(ByteBuffer buffer) {
+        boolean pooled = buffer.isDirect() && buffer.capacity() == bufferSize;
+        if (pooled) {
+            synchronized (free) {
+                if (isFree(buffer))
+                    throw new IllegalStateException("Buffer released twice");
+            }
+        }
+        wipe(buffer);
+        if (!pooled)
+            return;
+
+        synchronized (free) {
+            if (freeCount < free.length && !isFree(buffer))
+                free[freeCount++] = buffer;
+        }
+    }
+
+    private boolean isFree(ByteBuffer buffer) {
+        for (int i = 0; i < freeCount; i++) {
+            if (free[i] == buffer)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Overwrites the whole capacity with zeros and clears the buffer, without allocating.
+     */
+    public static void wipe(ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.hasRemaining())
+            buffer.put(ZEROS, 0, Math.min(ZEROS.length, buffer.remaining()));
+        buffer.clear();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getFreeCount() {
+        synchronized (free) {
+            return freeCount;
+        }
+    }
+
+    /**
+     * @return how many {@link #acquire()} calls were served from the pool
+     */
+    public long getHits() {
+        synchronized (free) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return how many {@link #acquire()} calls had to allocate
+     */
+    public long getMisses() {
+        synchronized (free) {
+            return misses;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.fingerprint;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Proves possession of a key store EC key to a backend: the backend sends a random challenge and
+ * checks its signature with the public key registered earlier, so no ciphertext has to make the
+ * round trip. Like the key of {@link CipherAuthenticator}, the private key never leaves the key
+ * store and needs the user to authenticate.
+ * <p>
+ * Per operation (the default), {@link #init()} prepares the {@link Signature} to hand to
+ * {@link BiometricPrompt#authenticateSignature}, and each authentication authorizes one
+ * signature. In the session mode the key stays usable for a window after an authentication, so
+ * {@link #signBatch(List)} signs any number of challenges under that one authentication.
+ * <p>
+ * Thread safety: as in {@link CipherAuthenticator}, the signature set up by {@link #init()} is
+ * confined to the calling thread.
+ */
+public class ChallengeSigner {
+
+    public static final String KEY_ALGORITHM = "EC";
+    public static final String CURVE = "secp256r1";
+    public static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+
+    private static final String KEY_NAME_DEFAULT = "key_signing";
+
+    private final KeyStoreBackend keyStore;
+    private final BiometricPrompt biometricPrompt;
+
+    private volatile PrivateKey privateKey;
+    private final AtomicBoolean keyReplaced = new AtomicBoolean();
+    private final ThreadLocal<Signature> signature = new ThreadLocal<>();
+
+    private volatile int sessionValiditySeconds;
+    private volatile AuthSession session;
+
+    public ChallengeSigner(KeyStoreBackend keyStore, BiometricPrompt biometricPrompt) {
+        this.keyStore = keyStore;
+        this.biometricPrompt = biometricPrompt;
+    }
+
+    /**
+     * Enables the session mode: the key stays usable for {@code seconds} after an authentication.
+     * Zero (the default) requires an authentication for every signature. Must be called before
+     * {@link #create()}; an existing key pair created with a different window is regenerated.
+     */
+    public void setSessionValiditySeconds(int seconds) {
+        this.sessionValiditySeconds = seconds;
+        this.session = seconds > 0 ? new AuthSession(seconds) : null;
+    }
+
+    /**
+     * Reuses the stored key pair and only generates a new one when it is missing, was created with
+     * another session window, or has been permanently invalidated (e.g. a new fingerprint was
+     * enrolled).
+     */
+    public synchronized void create() throws CustomException {
+        keyStore.load();
+
+        PrivateKey key = keyStore.getPrivateKey(KEY_NAME_DEFAULT);
+        if (key != null && !isKeyValid(key)) {
+            keyStore.deleteKey(KEY_NAME_DEFAULT);
+            key = null;
+        }
+
+        if (key == null) {
+            key = keyStore.generateKeyPair(new KeyMetadata(KEY_NAME_DEFAULT, SIGNATURE_ALGORITHM,
+                    System.currentTimeMillis(), true, sessionValiditySeconds));
+            keyReplaced.set(true);
+        }
+        privateKey = key;
+    }
+
+    private boolean isKeyValid(PrivateKey key) throws CustomException {
+        if (keyStore.getMetadata(KEY_NAME_DEFAULT, key).getAuthValiditySeconds() != sessionValiditySeconds)
+            return false;
+
+        try {
+            keyStore.initSign(keyStore.newSignature(), key);
+        } catch (KeyInvalidatedException e) {
+            return false;
+        } catch (AuthenticationRequiredException e) {
+            // Session keys can only be used inside their window; the key itself is fine.
+        }
+        return true;
+    }
+
+    /**
+     * Reports, once, that {@link #create()} generated a new key pair since the last call, so its
+     * {@link #getPublicKey() public key} has to be registered with the backend again.
+     */
+    public boolean consumeKeyReplaced() {
+        return keyReplaced.getAndSet(false);
+    }
+
+    /**
+     * The key the backend verifies the signatures with.
+     */
+    public PublicKey getPublicKey() throws CustomException {
+        if (privateKey == null)
+            throw new CustomException("Signing key is not available");
+        return keyStore.getPublicKey(KEY_NAME_DEFAULT);
+    }
+
+    /**
+     * Initializes a signature for the calling thread. Per operation it still has to be authorized
+     * through {@link #getPromptSignature()}; in the session mode it signs right away.
+     *
+     * @throws AuthenticationRequiredException in the session mode when the window is closed
+     */
+    public void init() throws CustomException {
+        PrivateKey key = privateKey;
+        if (key == null)
+            throw new CustomException("Signing key is not available");
+
+        Signature signature = keyStore.newSignature();
+        try {
+            keyStore.initSign(signature, key);
+        } catch (KeyInvalidatedException e) {
+            privateKey = null;
+            throw e;
+        } catch (AuthenticationRequiredException e) {
+            AuthSession session = this.session;
+            if (session != null)
+                session.expire();
+            throw e;
+        }
+        this.signature.set(signature);
+    }
+
+    /**
+     * The signature to hand to {@link BiometricPrompt#authenticateSignature}. In the session mode
+     * the key is authorized by the authentication itself, so the prompt listens without one and
+     * {@link #init()} is called once it succeeds.
+     */
+    public Signature getPromptSignature() {
+        return session != null ? null : signature.get();
+    }
+
+    public void onAuthenticated() {
+        AuthSession session = this.session;
+        if (session != null)
+            session.start();
+    }
+
+    public boolean isSessionActive() {
+        AuthSession session = this.session;
+        return session != null && session.isActive();
+    }
+
+    /**
+     * Signs one challenge with the signature set up by {@link #init()} on this thread.
+     */
+    public byte[] sign(byte[] challenge) throws CustomException {
+        Signature signature = requireSignature();
+        try {
+            signature.update(challenge);
+            return signature.sign();
+        } catch (SignatureException e) {
+            throw new CustomException("Failed to sign challenge", e);
+        }
+    }
+
+    /**
+     * Signs every challenge with the signature set up by {@link #init()} on this thread, so one
+     * authentication covers the whole batch. A challenge that fails, e.g. because the window
+     * closed on the way, has its error in the result; the rest of the batch still runs.
+     *
+     * @throws CustomException if a batch of more than one challenge is signed per operation, where
+     *                         the key store authorizes a single signature
+     */
+    public BatchResult signBatch(List<byte[]> challenges) throws CustomException {
+        if (session == null && challenges.size() > 1)
+            throw new CustomException("Signing a batch needs the session mode");
+
+        Signature signature = requireSignature();
+        byte[][] signatures = new byte[challenges.size()][];
+        CustomException[] errors = new CustomException[signatures.length];
+        long bytes = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < signatures.length; i++) {
+            byte[] challenge = challenges.get(i);
+            if (challenge == null) {
+                errors[i] = new CustomException("Missing challenge " + i);
+                continue;
+            }
+            bytes += challenge.length;
+            try {
+                signature.update(challenge);
+                signatures[i] = signature.sign();
+            } catch (SignatureException e) {
+                errors[i] = new CustomException("Failed to sign challenge " + i, e);
+                signature = restart(errors, i + 1);
+                if (signature == null)
+                    break;
+            }
+        }
+        return new BatchResult(signatures, errors, bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * A failed {@code sign()} leaves the signature in an undefined state, so it is initialized
+     * again. If that fails too, the rest of the batch fails with the same error.
+     */
+    private Signature restart(CustomException[] errors, int from) {
+        try {
+            init();
+            return signature.get();
+        } catch (CustomException e) {
+            for (int i = from; i < errors.length; i++)
+                errors[i] = e;
+            return null;
+        }
+    }
+
+    private Signature requireSignature() throws CustomException {
+        Signature signature = this.signature.get();
+        if (signature == null)
+            throw new CustomException("Signature has not been initialized");
+        return signature;
+    }
+
+    public BiometricPrompt getBiometricPrompt() {
+        return biometricPrompt;
+    }
+}
@@ -0,0 +1,147 @@
+package com.fingerprint;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the backend side of the challenge-response with a {@link ChallengeSigner}:
+ * hands out random single-use challenges and verifies their signatures with the registered public
+ * key. The time spent verifying is counted, so the throughput reads as signatures per second.
+ * <p>
+ * Thread safe.
+ */
+public class ChallengeVerifier {
+
+    public static final int CHALLENGE_LENGTH = 32;
+
+    private final PublicKey publicKey;
+    private final SecureRandom random = new SecureRandom();
+    private final Set<ByteBuffer> outstanding =
+            Collections.newSetFromMap(new ConcurrentHashMap<ByteBuffer, Boolean>());
+    private final ThreadLocal<Signature> signature = new ThreadLocal<>();
+
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    /**
+     * @param encodedPublicKey the X.509 encoding of {@link ChallengeSigner#getPublicKey()}, as a
+     *                         backend would have stored it
+     */
+    public ChallengeVerifier(byte[] encodedPublicKey) throws CustomException {
+        try {
+            publicKey = KeyFactory.getInstance(ChallengeSigner.KEY_ALGORITHM)
+                    .generatePublic(new X509EncodedKeySpec(encodedPublicKey));
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to read public key", e);
+        }
+    }
+
+    public byte[] newChallenge() {
+        byte[] challenge = new byte[CHALLENGE_LENGTH];
+        random.nextBytes(challenge);
+        outstanding.add(ByteBuffer.wrap(challenge.clone()));
+        return challenge;
+    }
+
+    public List<byte[]> newChallenges(int count) {
+        List<byte[]> challenges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            challenges.add(newChallenge());
+        return challenges;
+    }
+
+    /**
+     * Consumes the challenge, so a replayed signature is rejected even if it is valid.
+     *
+     * @return true if the challenge was outstanding and the signature matches it
+     */
+    public boolean verify(byte[] challenge, byte[] signature) {
+        if (!outstanding.remove(ByteBuffer.wrap(challenge))) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean valid;
+        try {
+            Signature verifier = getSignature();
+            verifier.update(challenge);
+            valid = verifier.verify(signature);
+        } catch (GeneralSecurityException e) {
+            // A malformed signature is a failed proof, not an error of the verifier.
+            valid = false;
+            this.signature.remove();
+        }
+        nanos.addAndGet(System.nanoTime() - start);
+        checked.incrementAndGet();
+
+        if (valid)
+            verified.incrementAndGet();
+        else
+            rejected.incrementAndGet();
+        return valid;
+    }
+
+    /**
+     * Verifies the signatures of {@link ChallengeSigner#signBatch(List)} against the challenges
+     * they were made for. A challenge that failed to sign counts as rejected.
+     *
+     * @return how many were verified
+     */
+    public int verifyBatch(List<byte[]> challenges, BatchResult signatures) throws CustomException {
+        int valid = 0;
+        for (int i = 0; i < challenges.size(); i++) {
+            if (!signatures.isSuccess(i)) {
+                outstanding.remove(ByteBuffer.wrap(challenges.get(i)));
+                rejected.incrementAndGet();
+            } else if (verify(challenges.get(i), signatures.get(i))) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    private Signature getSignature() throws GeneralSecurityException {
+        Signature verifier = signature.get();
+        if (verifier == null) {
+            verifier = Signature.getInstance(ChallengeSigner.SIGNATURE_ALGORITHM);
+            verifier.initVerify(publicKey);
+            signature.set(verifier);
+        }
+        return verifier;
+    }
+
+    public int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    public long getVerifiedCount() {
+        return verified.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Signatures checked per second of verification time, valid or not; replays rejected before
+     * any check are not counted.
+     */
+    public double getSignaturesPerSecond() {
+        long nanos = this.nanos.get();
+        return nanos == 0 ? 0 : checked.get() / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,560 @@
+package com.fingerprint;
+
+import java.io.File;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Created by alejandro on 8/09/16.
+ * <p>
+ * The key store, the biometric sensor and the lock screen are reached through
+ * {@link KeyStoreBackend}, {@link BiometricPrompt} and {@link LockScreen}, so the same code runs on
+ * a device and, with the in-memory backends, on any JVM.
+ * <p>
+ * Thread safety: an instance can be shared by the UI and worker threads. {@link #create()} runs
+ * at most once at a time, key handles are published through volatile fields, and initialized
+ * ciphers come from a {@link CipherPool} so each one is handed to a single caller. The cipher set
+ * up by {@link #init()} or {@link #initDecrypt(byte[])} is confined to the calling thread and is
+ * what {@link #getPromptCipher()} and {@link #getCipher()} return on that same thread. A
+ * {@link Cipher} itself is not thread safe and must not be passed between threads while in use.
+ */
+public class CipherAuthenticator implements KeyRegistry.KeySource {
+
+    public interface Callback {
+        void onCreated();
+        void onCreateError(CustomException e);
+    }
+
+    /**
+     * Transformation of keys created before cipher suites were configurable. New keys use
+     * {@link CipherSuite#DEFAULT} unless {@link #setCipherSuite(CipherSuite)} says otherwise.
+     */
+    public static final String CIPHER_DEFAULT = CipherSuite.AES_CBC_PKCS7.getTransformation();
+
+    private static final String KEY_NAME_DEFAULT = "key_default";
+    private static final int ENCRYPT_POOL_SIZE = 2;
+    private static final int BUFFER_POOL_SIZE = 4;
+
+    private final KeyStoreBackend keyStore;
+    private final BiometricPrompt biometricPrompt;
+    private final BiometricCapabilities capabilities;
+    private final Executor callbackExecutor;
+
+    private volatile boolean loaded;
+
+    private Cipher probeCipher;
+    private final ThreadLocal<Cipher> cipher = new ThreadLocal<>();
+
+    /**
+     * Static, so a thread still winding down after {@link #close()} keeps no authenticator alive.
+     */
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CipherAuthenticator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+
+    private volatile Future<?> pendingCreate;
+    private final Object lazyLock = new Object();
+    private Callback lazyCallback;
+
+    private volatile SecretKey secretKey;
+    private final AtomicBoolean keyInvalidated = new AtomicBoolean();
+    private final CipherPool encryptCiphers = new CipherPool(new CipherPool.Factory() {
+        @Override
+        public Cipher newCipher() throws CustomException {
+            return newInitializedCipher(Cipher.ENCRYPT_MODE, null);
+        }
+    }, executor, ENCRYPT_POOL_SIZE);
+
+    private final BufferPool buffers = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, BUFFER_POOL_SIZE);
+
+    private volatile CipherSuite requestedSuite;
+    private volatile CipherSuite cipherSuite = CipherSuite.DEFAULT;
+
+    private volatile int sessionValiditySeconds;
+    private volatile AuthSession session;
+
+    private final KeyRegistry keyRegistry;
+
+    /**
+     * @param registryFile     where the {@link KeyRegistry} keeps its metadata index
+     * @param callbackExecutor delivers the {@link Callback} of {@link #createAsync(Callback)}, e.g.
+     *                         on the main thread
+     */
+    public CipherAuthenticator(KeyStoreBackend keyStore, BiometricPrompt biometricPrompt,
+                               LockScreen lockScreen, File registryFile, Executor callbackExecutor) {
+        this.keyStore = keyStore;
+        this.biometricPrompt = biometricPrompt;
+        this.capabilities = new BiometricCapabilities(biometricPrompt, lockScreen);
+        this.callbackExecutor = callbackExecutor;
+        this.keyRegistry = new KeyRegistry(registryFile, this);
+    }
+
+    /**
+     * Keys for other accounts or data classes, created on demand once {@link #create()} is done.
+     */
+    public KeyRegistry getKeyRegistry() {
+        return keyRegistry;
+    }
+
+    /**
+     * Enables the session mode: the key stays usable for {@code seconds} after an authentication,
+     * so protected operations inside that window skip the dialog. Zero (the default) requires an
+     * authentication for every operation. Must be called before {@link #create()}; an existing key
+     * created with a different window is regenerated.
+     */
+    public void setSessionValiditySeconds(int seconds) {
+        this.sessionValiditySeconds = seconds;
+        this.session = seconds > 0 ? new AuthSession(seconds) : null;
+    }
+
+    /**
+     * Forces the suite of the key. By default an existing key keeps the suite it was created with
+     * and new keys use {@link CipherSuite#DEFAULT}. Must be called before {@link #create()}; an
+     * existing key of another suite is regenerated.
+     */
+    public void setCipherSuite(CipherSuite suite) {
+        this.requestedSuite = suite;
+    }
+
+    public CipherSuite getCipherSuite() {
+        return cipherSuite;
+    }
+
+    public boolean isSessionMode() {
+        return session != null;
+    }
+
+    public boolean isSessionActive() {
+        return session != null && session.isActive();
+    }
+
+    /**
+     * Starts the session window after a successful authentication.
+     */
+    public void onAuthenticated() {
+        AuthSession session = this.session;
+        if (session != null) {
+            session.start();
+            prepareNextCipher();
+        }
+    }
+
+    /**
+     * Each step is timed under its {@link AuthMetrics.Stage} while {@link AuthMetrics} is enabled.
+     */
+    public synchronized void create() throws CustomException {
+        long createStart = AuthMetrics.start();
+        long start = AuthMetrics.start();
+        keyStore.load();
+        loaded = true;
+        AuthMetrics.stop(AuthMetrics.Stage.KEY_STORE_LOAD, start);
+
+        capabilities.refresh();
+
+        cipherSuite = requestedSuite != null ? requestedSuite : CipherSuite.DEFAULT;
+        createCipher();
+
+        checkSetUpFingerprint();
+
+        checkHasEnrolledFingerprints();
+
+        createKeyIfNeeded(KEY_NAME_DEFAULT, true);
+
+        prepareNextCipher();
+
+        AuthMetrics.stop(AuthMetrics.Stage.CREATE, createStart);
+    }
+
+    /**
+     * Runs {@link #create()} off the calling thread. The callback is delivered on the callback
+     * executor, and {@link #init()} waits for the pending provisioning if it is called before it
+     * finishes.
+     *
+     * @return null after {@link #close()}
+     */
+    public Future<?> createAsync(final Callback callback) {
+        synchronized (lazyLock) {
+            lazyCallback = null;
+            if (executor.isShutdown())
+                return null;
+            pendingCreate = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        create();
+                        postCreated(callback);
+                    } catch (CustomException e) {
+                        postCreateError(callback, e);
+                    }
+                }
+            });
+            return pendingCreate;
+        }
+    }
+
+    /**
+     * Lazy mode: {@link #createAsync(Callback)} starts once {@code idleExecutor} runs it, e.g. when
+     * the main thread goes idle after the first frame, so provisioning does not compete with
+     * startup. Anything that needs the key before then starts it at once through
+     * {@link #createNow()}.
+     */
+    public void createLazily(Callback callback, Executor idleExecutor) {
+        synchronized (lazyLock) {
+            if (executor.isShutdown())
+                return;
+            lazyCallback = callback;
+        }
+        idleExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                createNow();
+            }
+        });
+    }
+
+    /**
+     * Starts the provisioning deferred by {@link #createLazily} unless it has already started,
+     * e.g. when the user taps before the main thread went idle.
+     *
+     * @return the pending provisioning, or null if none was started or deferred
+     */
+    public Future<?> createNow() {
+        synchronized (lazyLock) {
+            if (lazyCallback != null)
+                return createAsync(lazyCallback);
+            return pendingCreate;
+        }
+    }
+
+    /**
+     * Stops the background thread, dropping a deferred provisioning and the prepared ciphers, e.g.
+     * from {@code Activity.onDestroy()}. A {@link #create()} in progress is interrupted. Nothing
+     * but {@link #init()} and {@link #initDecrypt} may be called afterwards, and those no longer
+     * use the pool.
+     */
+    public void close() {
+        synchronized (lazyLock) {
+            lazyCallback = null;
+            executor.shutdownNow();
+        }
+        encryptCiphers.clear();
+    }
+
+    private void postCreated(final Callback callback) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCreated();
+            }
+        });
+    }
+
+    private void postCreateError(final Callback callback, final CustomException e) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCreateError(e);
+            }
+        });
+    }
+
+    private void awaitCreate() throws CustomException {
+        Future<?> pending = createNow();
+        if (pending == null)
+            return;
+
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CustomException("Interrupted while creating key");
+        } catch (ExecutionException e) {
+            // Rethrown as is, so an expected failure keeps its code and is not counted twice.
+            if (e.getCause() instanceof CustomException)
+                throw (CustomException) e.getCause();
+            throw new CustomException("Failed created key", e.getCause());
+        }
+    }
+
+    private void createCipher() throws CustomException {
+        long start = AuthMetrics.start();
+        probeCipher = keyStore.newCipher(cipherSuite);
+        AuthMetrics.stop(AuthMetrics.Stage.CIPHER_CREATE, start);
+    }
+
+    private void checkSetUpFingerprint() throws CustomException {
+        if (!capabilities.get().isSecureLockScreen()) {
+            throw AuthFailure.NO_SECURE_LOCK_SCREEN.raise();
+        }
+    }
+
+    private void checkHasEnrolledFingerprints() throws CustomException {
+        if (!capabilities.get().hasEnrolledBiometrics()) {
+            throw AuthFailure.NO_ENROLLED_BIOMETRICS.raise();
+        }
+    }
+
+    /**
+     * Reuses the key stored under {@code keyName} and only generates a new one when it is missing,
+     * has been permanently invalidated (e.g. a new fingerprint was enrolled), or no longer matches
+     * the requested suite or session window. Replacing an existing key is reported through
+     * {@link #consumeKeyInvalidated()} either way.
+     */
+    private void createKeyIfNeeded(String keyName, boolean invalidatedByBiometricEnrollment) throws CustomException {
+        long start = AuthMetrics.start();
+        boolean valid = isKeyValid(keyName);
+        AuthMetrics.stop(AuthMetrics.Stage.KEY_CHECK, start);
+
+        if (!valid) {
+            start = AuthMetrics.start();
+            createKey(keyName, invalidatedByBiometricEnrollment);
+            AuthMetrics.stop(AuthMetrics.Stage.KEY_CREATE, start);
+        }
+    }
+
+    private boolean isKeyValid(String keyName) throws CustomException {
+        SecretKey key = keyStore.getKey(keyName);
+        if (key == null)
+            return false;
+
+        KeyMetadata metadata = keyStore.getMetadata(keyName, key);
+        CipherSuite keySuite = getCipherSuite(metadata);
+        if (keySuite == null
+                || (requestedSuite != null && requestedSuite != keySuite)
+                || metadata.getAuthValiditySeconds() != sessionValiditySeconds) {
+            // Whatever was wrapped with the old key can't be unwrapped with the new one.
+            keyInvalidated.set(true);
+            keyStore.deleteKey(keyName);
+            return false;
+        }
+
+        if (keySuite != cipherSuite) {
+            cipherSuite = keySuite;
+            createCipher();
+        }
+
+        try {
+            keyStore.initCipher(probeCipher, Cipher.ENCRYPT_MODE, key, null);
+        } catch (KeyInvalidatedException e) {
+            keyInvalidated.set(true);
+            capabilities.invalidate();
+            keyStore.deleteKey(keyName);
+            return false;
+        } catch (AuthenticationRequiredException e) {
+            // Session keys can only be used inside their window; the key itself is fine.
+        }
+        setSecretKey(key);
+        return true;
+    }
+
+    private static CipherSuite getCipherSuite(KeyMetadata metadata) {
+        if (metadata.getTransformation() == null)
+            return null;
+
+        try {
+            return CipherSuite.fromTransformation(metadata.getTransformation());
+        } catch (CustomException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public SecretKey generateKey(KeyMetadata metadata) throws CustomException {
+        requireKeyStore();
+        return keyStore.generateKey(metadata);
+    }
+
+    @Override
+    public SecretKey getKey(String alias) throws CustomException {
+        requireKeyStore();
+        return keyStore.getKey(alias);
+    }
+
+    @Override
+    public void deleteKey(String keyName) throws CustomException {
+        requireKeyStore();
+        keyStore.deleteKey(keyName);
+    }
+
+    @Override
+    public Cipher newCipher(CipherSuite suite) throws CustomException {
+        return keyStore.newCipher(suite);
+    }
+
+    @Override
+    public void initCipher(Cipher cipher, int opmode, SecretKey key, AlgorithmParameterSpec params)
+            throws CustomException {
+        keyStore.initCipher(cipher, opmode, key, params);
+    }
+
+    private void requireKeyStore() throws CustomException {
+        awaitCreate();
+        if (!loaded)
+            throw AuthFailure.KEY_STORE_UNAVAILABLE.raise();
+    }
+
+    private void createKey(String keyName, boolean invalidatedByBiometricEnrollment) throws CustomException {
+        setSecretKey(keyStore.generateKey(new KeyMetadata(keyName, cipherSuite.getTransformation(),
+                System.currentTimeMillis(), invalidatedByBiometricEnrollment, sessionValiditySeconds)));
+    }
+
+    /**
+     * Ciphers prepared for a previous key, or still being prepared, must not be handed out.
+     */
+    private void setSecretKey(SecretKey key) {
+        SecretKey previous = secretKey;
+        secretKey = key;
+        if (key != previous)
+            encryptCiphers.clear();
+    }
+
+    /**
+     * Hands the calling thread a cipher prepared in the background (or by {@link #create()}), and
+     * the pool starts preparing the next one, so the key store is not touched on the calling thread.
+     * Waits for a pending or deferred {@link #createAsync}, so call it off the main thread.
+     *
+     * @throws CustomException with {@link AuthFailure#KEY_STORE_UNAVAILABLE} if no
+     *                         {@link #create()} has loaded the key store
+     */
+    public void init() throws CustomException {
+        requireKeyStore();
+
+        long start = AuthMetrics.start();
+        cipher.set(canPrepareCiphers()
+                ? encryptCiphers.take()
+                : newInitializedCipher(Cipher.ENCRYPT_MODE, null));
+        AuthMetrics.stop(AuthMetrics.Stage.INIT, start);
+    }
+
+    private void prepareNextCipher() {
+        if (canPrepareCiphers())
+            encryptCiphers.refill();
+    }
+
+    private boolean canPrepareCiphers() {
+        if (secretKey == null || executor.isShutdown())
+            return false;
+
+        // Session keys cannot be initialized before the user has authenticated.
+        AuthSession session = this.session;
+        return session == null || session.isActive();
+    }
+
+    /**
+     * Initializes a cipher in {@link Cipher#DECRYPT_MODE} with the IV stored next to the data, e.g.
+     * to unwrap a {@link WrappedDataKey} once the user has authenticated.
+     */
+    public void initDecrypt(byte[] iv) throws CustomException {
+        requireKeyStore();
+
+        long start = AuthMetrics.start();
+        cipher.set(newInitializedCipher(Cipher.DECRYPT_MODE, iv));
+        AuthMetrics.stop(AuthMetrics.Stage.INIT_DECRYPT, start);
+    }
+
+    /**
+     * Like {@link #initDecrypt(byte[])} with the IV of a {@link CipherEnvelope} whose header was
+     * read.
+     */
+    public void initDecrypt(CipherEnvelope envelope) throws CustomException {
+        requireKeyStore();
+
+        if (envelope.getSuite() != cipherSuite)
+            throw new CustomException("Envelope was encrypted with " + envelope.getSuite());
+        initDecrypt(envelope.getIv());
+    }
+
+    private Cipher newInitializedCipher(int opmode, byte[] iv) throws CustomException {
+        SecretKey key = secretKey;
+        if (key == null)
+            throw AuthFailure.KEY_INVALIDATED.raise();
+
+        CipherSuite suite = cipherSuite;
+        Cipher cipher = keyStore.newCipher(suite);
+        try {
+            keyStore.initCipher(cipher, opmode, key, iv == null ? null : suite.getParameterSpec(iv));
+            return cipher;
+        } catch (KeyInvalidatedException e) {
+            keyInvalidated.set(true);
+            invalidateKey();
+            throw e;
+        } catch (AuthenticationRequiredException e) {
+            AuthSession session = this.session;
+            if (session != null)
+                session.expire();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the cached key handle, the prepared ciphers and the capability snapshot, since the
+     * enrollment has likely changed. The next {@link #create()} regenerates the key if the key
+     * store reports it as invalidated.
+     */
+    public void invalidateKey() {
+        secretKey = null;
+        encryptCiphers.clear();
+        capabilities.invalidate();
+    }
+
+    /**
+     * Reports, once, that the key was invalidated since the last call, so that whatever it
+     * protected can be rewrapped with the new key. {@link #create()} replaces an invalidated key
+     * silently, so this is the only trace of it.
+     */
+    public boolean consumeKeyInvalidated() {
+        return keyInvalidated.getAndSet(false);
+    }
+
+    public boolean isFingerprintAuthAvailable() {
+        return capabilities.get().isAvailable();
+    }
+
+    /**
+     * Shared with the UI, so that every check reads the same cached snapshot.
+     */
+    public BiometricCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * The cipher to hand to {@link BiometricPrompt#authenticate}. In session mode the key is
+     * authorized by the authentication itself, so the prompt listens without a cipher and the
+     * cipher is initialized once it succeeds.
+     */
+    public Cipher getPromptCipher() {
+        return session != null ? null : cipher.get();
+    }
+
+    public Cipher getCipher() {
+        return cipher.get();
+    }
+
+    /**
+     * Wipeable direct buffers for the input and output of {@link #getCipher()}, shared by every
+     * thread.
+     */
+    public BufferPool getBufferPool() {
+        return buffers;
+    }
+
+    public BiometricPrompt getBiometricPrompt() {
+        return biometricPrompt;
+    }
+}
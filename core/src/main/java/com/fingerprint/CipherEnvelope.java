@@ -0,0 +1,171 @@
+package com.fingerprint;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+
+/**
+ * Self-describing container for a secret encrypted in one piece, so it can be persisted and read
+ * back: {@code magic (2) | version (1) | suite id (1) | key id (2) | iv length (1) | iv | ciphertext},
+ * where the ciphertext of an authenticated suite ends with its tag. For authenticated suites the
+ * header, IV included, is bound to the ciphertext as additional data, so a changed key id or IV
+ * fails decryption like a changed ciphertext.
+ * <p>
+ * Both directions work on caller-owned {@link ByteBuffer}s, and {@link #read(ByteBuffer)} parses
+ * the header into fields of this instance without allocating, so one instance can decode any
+ * number of envelopes. To decrypt, read the header, initialize the cipher with the IV (for example
+ * with {@link CipherAuthenticator#initDecrypt(CipherEnvelope)}) and call
+ * {@link #decrypt(Cipher, ByteBuffer, ByteBuffer)} on the same buffer.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class CipherEnvelope {
+
+    public static final int HEADER_LENGTH = 7;
+    public static final int MAX_IV_LENGTH = 16;
+
+    private static final short MAGIC = 0x4645;
+    private static final byte VERSION = 1;
+
+    private final byte[] header = new byte[HEADER_LENGTH + MAX_IV_LENGTH];
+    private int headerLength;
+
+    private CipherSuite suite;
+    private int keyId;
+
+    /**
+     * @return the size of the envelope of {@code plaintextLength} bytes, an upper bound for
+     * padded suites
+     */
+    public static int getMaxLength(CipherSuite suite, int ivLength, int plaintextLength) {
+        int overhead = suite.isAuthenticated() ? suite.getTagLengthBits() / 8 : 16;
+        return HEADER_LENGTH + ivLength + plaintextLength + overhead;
+    }
+
+    /**
+     * Writes the envelope of the remaining bytes of {@code plaintext} to {@code out}.
+     *
+     * @param cipher initialized in {@link Cipher#ENCRYPT_MODE} with a key of {@code suite}
+     * @param keyId  identifies the key to the reader, e.g. an index of key aliases; 0 to 65535
+     * @return the number of bytes written
+     */
+    public int encrypt(Cipher cipher, CipherSuite suite, int keyId, ByteBuffer plaintext, ByteBuffer out)
+            throws CustomException {
+        byte[] iv = cipher.getIV();
+        int ivLength = iv != null ? iv.length : 0;
+        if (ivLength > MAX_IV_LENGTH)
+            throw new CustomException("IV too long");
+        if (keyId < 0 || keyId > 0xFFFF)
+            throw new CustomException("Key id out of range");
+        if (out.remaining() < HEADER_LENGTH + ivLength + cipher.getOutputSize(plaintext.remaining()))
+            throw new CustomException("Envelope buffer too small");
+
+        this.suite = suite;
+        this.keyId = keyId;
+        writeHeader(iv, ivLength);
+
+        int start = out.position();
+        out.put(header, 0, headerLength);
+        try {
+            if (suite.isAuthenticated())
+                cipher.updateAAD(header, 0, headerLength);
+            cipher.doFinal(plaintext, out);
+        } catch (GeneralSecurityException e) {
+            out.position(start);
+            throw new CustomException("Failed to encrypt envelope", e);
+        }
+        return out.position() - start;
+    }
+
+    private void writeHeader(byte[] iv, int ivLength) {
+        header[0] = (byte) (MAGIC >> 8);
+        header[1] = (byte) MAGIC;
+        header[2] = VERSION;
+        header[3] = suite.getId();
+        header[4] = (byte) (keyId >> 8);
+        header[5] = (byte) keyId;
+        header[6] = (byte) ivLength;
+        if (ivLength > 0)
+            System.arraycopy(iv, 0, header, HEADER_LENGTH, ivLength);
+        headerLength = HEADER_LENGTH + ivLength;
+    }
+
+    /**
+     * Parses the header at the position of {@code in} and leaves the position at the ciphertext.
+     * On failure the position is unchanged.
+     */
+    public void read(ByteBuffer in) throws CustomException {
+        int start = in.position();
+        if (in.remaining() < HEADER_LENGTH)
+            throw new CustomException("Envelope truncated");
+
+        if (getUnsignedShort(in, start) != MAGIC || in.get(start + 2) != VERSION)
+            throw new CustomException("Not an envelope");
+
+        CipherSuite suite = CipherSuite.fromId(in.get(start + 3) & 0xFF);
+
+        int ivLength = in.get(start + 6) & 0xFF;
+        if (ivLength > MAX_IV_LENGTH)
+            throw new CustomException("Envelope IV too long");
+        if (in.remaining() < HEADER_LENGTH + ivLength + suite.getTagLengthBits() / 8)
+            throw new CustomException("Envelope truncated");
+
+        in.get(header, 0, HEADER_LENGTH + ivLength);
+        this.suite = suite;
+        this.keyId = getUnsignedShort(in, start + 4);
+        this.headerLength = HEADER_LENGTH + ivLength;
+    }
+
+    /**
+     * Big-endian whatever the {@link ByteBuffer#order()} of the caller's buffer.
+     */
+    private static int getUnsignedShort(ByteBuffer in, int index) {
+        return (in.get(index) & 0xFF) << 8 | (in.get(index + 1) & 0xFF);
+    }
+
+    /**
+     * Decrypts the ciphertext following the header last {@link #read(ByteBuffer) read} from
+     * {@code in} into {@code out}, which needs room for {@code in.remaining()} bytes.
+     *
+     * @param cipher initialized in {@link Cipher#DECRYPT_MODE} with {@link #getIv()}
+     * @return the number of plaintext bytes written
+     */
+    public int decrypt(Cipher cipher, ByteBuffer in, ByteBuffer out) throws CustomException {
+        if (suite == null)
+            throw new CustomException("Envelope header has not been read");
+
+        int inStart = in.position();
+        int outStart = out.position();
+        try {
+            if (suite.isAuthenticated())
+                cipher.updateAAD(header, 0, headerLength);
+            cipher.doFinal(in, out);
+        } catch (GeneralSecurityException e) {
+            in.position(inStart);
+            out.position(outStart);
+            throw new CustomException("Failed to decrypt envelope", e);
+        }
+        return out.position() - outStart;
+    }
+
+    public CipherSuite getSuite() {
+        return suite;
+    }
+
+    public int getKeyId() {
+        return keyId;
+    }
+
+    public int getIvLength() {
+        return headerLength - HEADER_LENGTH;
+    }
+
+    /**
+     * A copy of the IV of the last envelope read or written.
+     */
+    public byte[] getIv() {
+        return Arrays.copyOfRange(header, HEADER_LENGTH, headerLength);
+    }
+}
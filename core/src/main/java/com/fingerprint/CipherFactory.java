@@ -0,0 +1,18 @@
+package com.fingerprint;
+
+import javax.crypto.Cipher;
+
+/**
+ * Creates initialized ciphers for components that encrypt many independent items, each with its
+ * own IV.
+ */
+public interface CipherFactory {
+
+    /**
+     * Returns a cipher in {@link Cipher#ENCRYPT_MODE} with a fresh IV, available from
+     * {@link Cipher#getIV()}.
+     */
+    Cipher newEncryptCipher() throws CustomException;
+
+    Cipher newDecryptCipher(byte[] iv) throws CustomException;
+}
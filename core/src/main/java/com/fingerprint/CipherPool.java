@@ -0,0 +1,116 @@
+package com.fingerprint;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+
+/**
+ * Lock-free pool of initialized ciphers refilled on a background executor. Every cipher is handed
+ * out to exactly one caller, so the pool can be shared by any number of threads.
+ * {@link #clear()} drops the ready ciphers and any refill still in flight, e.g. when the key is
+ * invalidated.
+ */
+public class CipherPool {
+
+    public interface Factory {
+        Cipher newCipher() throws CustomException;
+    }
+
+    private final Factory factory;
+    private final Executor executor;
+    private final int capacity;
+
+    private final Queue<Cipher> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger readyCount = new AtomicInteger();
+    private final AtomicInteger refilling = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CipherPool(Factory factory, Executor executor, int capacity) {
+        this.factory = factory;
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns a ready cipher, or initializes one on the calling thread when the pool is empty, and
+     * schedules a refill either way.
+     */
+    public Cipher take() throws CustomException {
+        Cipher cipher = ready.poll();
+        if (cipher != null) {
+            readyCount.decrementAndGet();
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+
+        refill();
+        return cipher != null ? cipher : factory.newCipher();
+    }
+
+    /**
+     * Schedules background inits until the pool is full.
+     */
+    public void refill() {
+        while (true) {
+            int inFlight = refilling.get();
+            if (readyCount.get() + inFlight >= capacity)
+                return;
+            if (refilling.compareAndSet(inFlight, inFlight + 1))
+                executor.execute(new Refill(generation.get()));
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        while (ready.poll() != null)
+            readyCount.decrementAndGet();
+    }
+
+    public int getReadyCount() {
+        return readyCount.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private class Refill implements Runnable {
+
+        private final int startGeneration;
+
+        Refill(int startGeneration) {
+            this.startGeneration = startGeneration;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Cipher cipher = factory.newCipher();
+                if (generation.get() != startGeneration)
+                    return;
+
+                ready.offer(cipher);
+                readyCount.incrementAndGet();
+                // clear() may have run between the check and the offer.
+                if (generation.get() != startGeneration && ready.remove(cipher))
+                    readyCount.decrementAndGet();
+            } catch (CustomException e) {
+                // The next take() initializes on the calling thread and reports the error there.
+            } finally {
+                refilling.decrementAndGet();
+            }
+        }
+    }
+}
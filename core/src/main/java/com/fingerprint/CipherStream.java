@@ -0,0 +1,354 @@
+package com.fingerprint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+
+/**
+ * Encrypts and decrypts streams in fixed-size chunks with buffers that are reused between calls,
+ * so the payload is never held in memory.
+ * <p>
+ * With a single {@link Cipher}, typically the one authorized through
+ * {@link CipherAuthenticator#getPromptCipher()}, the encrypted stream starts with a header holding
+ * the IV: {@code magic (4) | version (1) | iv length (1) | iv}. To decrypt, read the IV with
+ * {@link #readHeader(ReadableByteChannel)}, initialize the cipher with it (for example with
+ * {@link CipherAuthenticator#initDecrypt(byte[])} and a fingerprint authentication) and then call
+ * {@link #decrypt(Cipher, ReadableByteChannel, WritableByteChannel)} on the same channel. This
+ * only works with suites that release plaintext as they go, so AES-GCM is rejected: its
+ * decryption holds everything back until the tag at the very end.
+ * <p>
+ * AES-GCM streams are written in segments with ciphers from a {@link CipherFactory}, usually a
+ * {@link DataKeySession}: {@code magic (4) | version (1) | chunk size (4) | stream id (16)}, then
+ * per chunk {@code flags (1) | iv length (1) | iv | ciphertext length (4) | ciphertext and tag}.
+ * Every segment has its own IV and tag, and the random id of its stream, its index and whether it
+ * is the last one are authenticated with it, so segments can be neither reordered, cut off nor
+ * moved to another stream under the same key unnoticed.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class CipherStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x46504353;
+    private static final byte VERSION = 1;
+    private static final byte VERSION_SEGMENTED = 2;
+    private static final int HEADER_LENGTH = 6;
+    private static final int STREAM_ID_LENGTH = 16;
+    private static final int SEGMENTED_HEADER_LENGTH = 9 + STREAM_ID_LENGTH;
+
+    private static final byte FLAG_LAST = 1;
+    private static final int SEGMENT_HEADER_LENGTH = 2;
+    private static final int AAD_LENGTH = STREAM_ID_LENGTH + 9;
+
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + 255);
+    private final ByteBuffer input;
+    private ByteBuffer output;
+    private final byte[] aad = new byte[AAD_LENGTH];
+    private SecureRandom random;
+
+    public CipherStream() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public CipherStream(int chunkSize) {
+        input = ByteBuffer.allocate(chunkSize);
+        output = ByteBuffer.allocate(chunkSize + 64);
+    }
+
+    /**
+     * Writes the header and the encrypted content of {@code in} to {@code out}.
+     *
+     * @param cipher initialized in {@link Cipher#ENCRYPT_MODE}
+     * @return number of plaintext bytes read
+     */
+    public long encrypt(Cipher cipher, ReadableByteChannel in, WritableByteChannel out) throws CustomException {
+        requireStreamingCipher(cipher);
+        try {
+            writeHeader(cipher.getIV(), out);
+            return transfer(cipher, in, out);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CustomException("Failed to encrypt stream", e);
+        }
+    }
+
+    public long encrypt(Cipher cipher, InputStream in, OutputStream out) throws CustomException {
+        return encrypt(cipher, Channels.newChannel(in), Channels.newChannel(out));
+    }
+
+    /**
+     * Reads the header of an encrypted stream and returns the IV needed to initialize the cipher.
+     */
+    public byte[] readHeader(ReadableByteChannel in) throws CustomException {
+        try {
+            header.clear();
+            header.limit(HEADER_LENGTH);
+            readFully(in, header);
+            header.flip();
+
+            if (header.getInt() != MAGIC || header.get() != VERSION)
+                throw new CustomException("Not an encrypted stream");
+
+            byte[] iv = new byte[header.get() & 0xFF];
+            header.clear();
+            header.limit(iv.length);
+            readFully(in, header);
+            header.flip();
+            header.get(iv);
+            return iv;
+        } catch (IOException e) {
+            throw new CustomException("Failed to read stream header", e);
+        }
+    }
+
+    public byte[] readHeader(InputStream in) throws CustomException {
+        return readHeader(Channels.newChannel(in));
+    }
+
+    /**
+     * Writes the decrypted content of {@code in}, positioned right after the header, to {@code out}.
+     *
+     * @param cipher initialized in {@link Cipher#DECRYPT_MODE} with the IV from {@link #readHeader}
+     * @return number of ciphertext bytes read
+     */
+    public long decrypt(Cipher cipher, ReadableByteChannel in, WritableByteChannel out) throws CustomException {
+        requireStreamingCipher(cipher);
+        try {
+            return transfer(cipher, in, out);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CustomException("Failed to decrypt stream", e);
+        }
+    }
+
+    public long decrypt(Cipher cipher, InputStream in, OutputStream out) throws CustomException {
+        return decrypt(cipher, Channels.newChannel(in), Channels.newChannel(out));
+    }
+
+    /**
+     * Writes the content of {@code in} to {@code out} in segments of one chunk, each encrypted with
+     * a new cipher from {@code ciphers}.
+     *
+     * @return number of plaintext bytes read
+     */
+    public long encrypt(CipherFactory ciphers, ReadableByteChannel in, WritableByteChannel out)
+            throws CustomException {
+        try {
+            header.clear();
+            header.putInt(MAGIC);
+            header.put(VERSION_SEGMENTED);
+            header.putInt(input.capacity());
+            if (random == null)
+                random = new SecureRandom();
+            random.nextBytes(aad);
+            header.put(aad, 0, STREAM_ID_LENGTH);
+            header.flip();
+            writeFully(header, out);
+
+            long total = 0;
+            for (long index = 0; ; index++) {
+                input.clear();
+                boolean last = !fill(in, input);
+                input.flip();
+                total += input.remaining();
+
+                Cipher cipher = ciphers.newEncryptCipher();
+                byte flags = last ? FLAG_LAST : 0;
+                cipher.updateAAD(aad(index, flags));
+                prepareOutput(cipher.getOutputSize(input.remaining()));
+                cipher.doFinal(input, output);
+                output.flip();
+
+                writeSegmentHeader(flags, cipher.getIV(), output.remaining(), out);
+                writeFully(output, out);
+                if (last)
+                    return total;
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CustomException("Failed to encrypt stream", e);
+        }
+    }
+
+    public long encrypt(CipherFactory ciphers, InputStream in, OutputStream out) throws CustomException {
+        return encrypt(ciphers, Channels.newChannel(in), Channels.newChannel(out));
+    }
+
+    /**
+     * Verifies and decrypts a stream written by {@link #encrypt(CipherFactory, ReadableByteChannel,
+     * WritableByteChannel)} segment by segment, header included. A segment is written to
+     * {@code out} only once its tag has been verified.
+     *
+     * @return number of plaintext bytes written
+     */
+    public long decrypt(CipherFactory ciphers, ReadableByteChannel in, WritableByteChannel out)
+            throws CustomException {
+        try {
+            header.clear();
+            header.limit(SEGMENTED_HEADER_LENGTH);
+            readFully(in, header);
+            header.flip();
+            if (header.getInt() != MAGIC || header.get() != VERSION_SEGMENTED)
+                throw new CustomException("Not a segmented stream");
+            if (header.getInt() > input.capacity())
+                throw new CustomException("Stream was written with larger chunks");
+            header.get(aad, 0, STREAM_ID_LENGTH);
+
+            long total = 0;
+            for (long index = 0; ; index++) {
+                header.clear();
+                header.limit(SEGMENT_HEADER_LENGTH);
+                // Only the last segment may end the stream.
+                if (!fill(in, header))
+                    throw new CustomException("Stream is truncated");
+                header.flip();
+                byte flags = header.get();
+                byte[] iv = new byte[header.get() & 0xFF];
+
+                header.clear();
+                header.limit(iv.length + 4);
+                readFully(in, header);
+                header.flip();
+                header.get(iv);
+                int length = header.getInt();
+                // The ciphertext is read into the output buffer, which has room for a chunk and
+                // its tag, and decrypted into the input buffer.
+                if (length < 0 || length > output.capacity())
+                    throw new CustomException("Segment is larger than a chunk");
+
+                output.clear();
+                output.limit(length);
+                readFully(in, output);
+                output.flip();
+
+                Cipher cipher = ciphers.newDecryptCipher(iv);
+                cipher.updateAAD(aad(index, flags));
+                input.clear();
+                if (cipher.getOutputSize(length) > input.capacity())
+                    throw new CustomException("Segment is larger than a chunk");
+                cipher.doFinal(output, input);
+                input.flip();
+                total += input.remaining();
+                writeFully(input, out);
+
+                if ((flags & FLAG_LAST) != 0)
+                    return total;
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CustomException("Failed to decrypt stream", e);
+        }
+    }
+
+    public long decrypt(CipherFactory ciphers, InputStream in, OutputStream out) throws CustomException {
+        return decrypt(ciphers, Channels.newChannel(in), Channels.newChannel(out));
+    }
+
+    private static void requireStreamingCipher(Cipher cipher) throws CustomException {
+        String[] parts = cipher.getAlgorithm().split("/");
+        if (parts.length > 1 && CipherSuite.AES_GCM.getBlockMode().equalsIgnoreCase(parts[1]))
+            throw new CustomException("GCM streams are written in segments with a CipherFactory");
+    }
+
+    /**
+     * The stream id stays at the start of {@code aad} from the header.
+     */
+    private byte[] aad(long index, byte flags) {
+        for (int i = 0; i < 8; i++)
+            aad[STREAM_ID_LENGTH + i] = (byte) (index >>> (56 - 8 * i));
+        aad[STREAM_ID_LENGTH + 8] = flags;
+        return aad;
+    }
+
+    private void writeSegmentHeader(byte flags, byte[] iv, int length, WritableByteChannel out) throws IOException {
+        header.clear();
+        header.put(flags);
+        header.put((byte) iv.length);
+        header.put(iv);
+        header.putInt(length);
+        header.flip();
+        writeFully(header, out);
+    }
+
+    private void writeHeader(byte[] iv, WritableByteChannel out) throws IOException {
+        int ivLength = iv != null ? iv.length : 0;
+
+        header.clear();
+        header.putInt(MAGIC);
+        header.put(VERSION);
+        header.put((byte) ivLength);
+        if (iv != null)
+            header.put(iv);
+        header.flip();
+        writeFully(header, out);
+    }
+
+    private long transfer(Cipher cipher, ReadableByteChannel in, WritableByteChannel out)
+            throws IOException, GeneralSecurityException {
+        long total = 0;
+
+        input.clear();
+        int read;
+        while ((read = in.read(input)) != -1) {
+            if (input.hasRemaining() && read > 0)
+                continue;
+
+            input.flip();
+            total += input.remaining();
+            prepareOutput(cipher.getOutputSize(input.remaining()));
+            cipher.update(input, output);
+            flushOutput(out);
+            input.clear();
+        }
+
+        input.flip();
+        total += input.remaining();
+        prepareOutput(cipher.getOutputSize(input.remaining()));
+        cipher.doFinal(input, output);
+        flushOutput(out);
+        return total;
+    }
+
+    /**
+     * Grows the output buffer if a cipher needs more than one chunk and its padding or tag, and
+     * keeps it for the next calls.
+     */
+    private void prepareOutput(int size) {
+        if (output.capacity() < size)
+            output = ByteBuffer.allocate(size);
+        output.clear();
+    }
+
+    private void flushOutput(WritableByteChannel out) throws IOException {
+        output.flip();
+        writeFully(output, out);
+    }
+
+    private static void writeFully(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+        while (buffer.hasRemaining())
+            out.write(buffer);
+    }
+
+    /**
+     * @return false if the channel ended before {@code buffer} was full
+     */
+    private static boolean fill(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1)
+                return false;
+        }
+        return true;
+    }
+
+    private static void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1)
+                throw new IOException("Unexpected end of stream");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.fingerprint;
+
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Symmetric cipher suites supported for the key store key. Each suite knows the block mode and
+ * padding its key must be generated with and how its IV is passed back to the cipher.
+ * <p>
+ * Names are the {@code KeyProperties} values, spelled out so the class compiles without the
+ * Android SDK. Persisted formats store the {@link #getId() id}, which never changes, rather than
+ * the ordinal.
+ */
+public enum CipherSuite {
+
+    /**
+     * No integrity: data that must not be tampered with needs a separate MAC pass.
+     */
+    AES_CBC_PKCS7(0, "AES", "CBC", "PKCS7Padding", 0),
+
+    /**
+     * Encrypts and authenticates in one pass with a 128-bit tag appended to the ciphertext.
+     */
+    AES_GCM(1, "AES", "GCM", "NoPadding", 128);
+
+    /**
+     * Used for new keys. GCM needs no second pass for integrity and outran CBC+HMAC from 4 KB
+     * payloads up in {@code PayloadBenchmark}. It releases no plaintext before its tag, so
+     * {@link CipherStream} encrypts GCM streams in segments.
+     */
+    public static final CipherSuite DEFAULT = AES_GCM;
+
+    private static final CipherSuite[] SUITES = values();
+
+    private final byte id;
+    private final String algorithm;
+    private final String blockMode;
+    private final String padding;
+    private final int tagLengthBits;
+
+    CipherSuite(int id, String algorithm, String blockMode, String padding, int tagLengthBits) {
+        this.id = (byte) id;
+        this.algorithm = algorithm;
+        this.blockMode = blockMode;
+        this.padding = padding;
+        this.tagLengthBits = tagLengthBits;
+    }
+
+    /**
+     * @return the stable id written to persisted formats, e.g. a {@link CipherEnvelope} header
+     */
+    public byte getId() {
+        return id;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getBlockMode() {
+        return blockMode;
+    }
+
+    public String getPadding() {
+        return padding;
+    }
+
+    public String getTransformation() {
+        return algorithm + "/" + blockMode + "/" + padding;
+    }
+
+    /**
+     * @return length of the tag appended to the ciphertext, 0 if the suite has none
+     */
+    public int getTagLengthBits() {
+        return tagLengthBits;
+    }
+
+    public boolean isAuthenticated() {
+        return tagLengthBits > 0;
+    }
+
+    public AlgorithmParameterSpec getParameterSpec(byte[] iv) {
+        return isAuthenticated() ? new GCMParameterSpec(tagLengthBits, iv) : new IvParameterSpec(iv);
+    }
+
+    /**
+     * The suite with {@link #getId()} {@code id}, without allocating.
+     */
+    public static CipherSuite fromId(int id) throws CustomException {
+        for (CipherSuite suite : SUITES) {
+            if (suite.id == id)
+                return suite;
+        }
+        throw new CustomException("Unsupported cipher suite id " + id);
+    }
+
+    public static CipherSuite fromTransformation(String transformation) throws CustomException {
+        for (CipherSuite suite : SUITES) {
+            if (suite.getTransformation().equalsIgnoreCase(transformation))
+                return suite;
+        }
+        throw new CustomException("Unsupported transformation " + transformation);
+    }
+
+    public static CipherSuite fromBlockMode(String blockMode) throws CustomException {
+        for (CipherSuite suite : SUITES) {
+            if (suite.blockMode.equalsIgnoreCase(blockMode))
+                return suite;
+        }
+        throw new CustomException("Unsupported block mode " + blockMode);
+    }
+}
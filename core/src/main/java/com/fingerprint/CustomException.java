@@ -0,0 +1,109 @@
+package com.fingerprint;
+
+/**
+ * A failure of the authentication flow, classified by its {@link AuthFailure}. Expected outcomes
+ * are shared instances from {@link AuthFailure#raise()}; anything constructed here is an
+ * {@link AuthFailure#ERROR} and counted as one.
+ */
+public class CustomException extends Exception {
+
+    private final AuthFailure failure;
+    private final boolean shared;
+
+    public CustomException() {
+        super();
+        failure = counted(AuthFailure.ERROR);
+        shared = false;
+    }
+
+    public CustomException(final String message) {
+        super(message);
+        failure = counted(AuthFailure.ERROR);
+        shared = false;
+    }
+
+    public CustomException(final String message, final Throwable cause) {
+        super(message, cause);
+        failure = counted(AuthFailure.ERROR);
+        shared = false;
+    }
+
+    public CustomException(final Throwable cause) {
+        super(cause);
+        failure = counted(AuthFailure.ERROR);
+        shared = false;
+    }
+
+    CustomException(final AuthFailure failure, final String message, final Throwable cause) {
+        super(message, cause);
+        this.failure = counted(failure);
+        this.shared = false;
+    }
+
+    /**
+     * The preallocated instance of {@code failure}; counted by {@link AuthFailure#raise()}. It has
+     * no stack trace and takes no suppressed exceptions, so no thread can attach anything to it.
+     * Needs Android 7.0 (API 24); see {@link #CustomException(AuthFailure, StackTraceElement[])}.
+     */
+    CustomException(final AuthFailure failure) {
+        super(failure.getMessage(), null, false, false);
+        this.failure = failure;
+        this.shared = true;
+    }
+
+    /**
+     * Like {@link #CustomException(AuthFailure)} where Throwable cannot disable suppression yet:
+     * the stack trace is replaced by {@code stackTrace} and cannot be changed afterwards, but
+     * suppressed exceptions can still be added. {@link AuthFailure#raise()} therefore builds one per
+     * failure there rather than sharing it.
+     */
+    CustomException(final AuthFailure failure, final StackTraceElement[] stackTrace) {
+        super(failure.getMessage());
+        super.setStackTrace(stackTrace);
+        this.failure = failure;
+        this.shared = true;
+    }
+
+    private static AuthFailure counted(AuthFailure failure) {
+        failure.count();
+        return failure;
+    }
+
+    public AuthFailure getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return false for {@link AuthFailure#ERROR}, the only code worth a stack trace
+     */
+    public boolean isExpected() {
+        return failure != AuthFailure.ERROR;
+    }
+
+    /**
+     * Shared instances are thrown from every thread, so they never take a cause.
+     */
+    @Override
+    public synchronized Throwable initCause(Throwable cause) {
+        if (shared)
+            throw new IllegalStateException("Can't chain a cause to " + failure);
+        return super.initCause(cause);
+    }
+
+    /**
+     * Keeps shared instances without a stack trace when they are rethrown.
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        if (shared)
+            return this;
+        return super.fillInStackTrace();
+    }
+
+    @Override
+    public void setStackTrace(StackTraceElement[] stackTrace) {
+        if (shared)
+            throw new IllegalStateException("Can't set the stack trace of " + failure);
+        super.setStackTrace(stackTrace);
+    }
+}
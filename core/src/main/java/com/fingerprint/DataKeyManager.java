@@ -0,0 +1,146 @@
+package com.fingerprint;
+
+import java.io.File;
+import java.util.List;
+
+import javax.crypto.Cipher;
+
+/**
+ * Keeps the wrapped {@link KeyRing} on disk and the unwrapped ring while the session is open.
+ * The first authentication generates and wraps a data key; later ones unwrap the stored one.
+ * Methods are synchronized so the session can be opened from a worker thread.
+ * <p>
+ * When the key store key is invalidated, the wrapped ring can no longer be unwrapped. If the ring
+ * is still open it is rotated to a new version and rewrapped with the new key at the next
+ * authentication, and the {@link ReEncryptionPipeline} moves the records to the new version.
+ * Otherwise the old versions are lost and a new ring continues the numbering.
+ */
+public class DataKeyManager {
+
+    private final File file;
+
+    private WrappedDataKey wrappedDataKey;
+    private KeyRing keyRing;
+    private int nextVersion = 1;
+
+    public DataKeyManager(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Prepares the authenticator cipher for the next authentication: decrypt mode with the stored
+     * IV when a data key exists, encrypt mode to wrap a new or rotated one otherwise.
+     */
+    public synchronized void initCipher(CipherAuthenticator cipherAuth) throws CustomException {
+        WrappedDataKey wrapped = getWrappedDataKey();
+        if (wrapped != null && cipherAuth.consumeKeyInvalidated()) {
+            onKeyInvalidated(cipherAuth);
+            wrapped = null;
+        }
+
+        if (wrapped == null) {
+            cipherAuth.init();
+            return;
+        }
+
+        try {
+            cipherAuth.initDecrypt(wrapped.getIv());
+        } catch (KeyInvalidatedException e) {
+            onKeyInvalidated(cipherAuth);
+            cipherAuth.init();
+        }
+    }
+
+    /**
+     * The wrapped ring belongs to a key that no longer exists: rotate the open ring, if any, drop
+     * the stored one and let the authenticator generate the new key.
+     */
+    private void onKeyInvalidated(CipherAuthenticator cipherAuth) throws CustomException {
+        if (keyRing != null && !keyRing.isClosed())
+            nextVersion = keyRing.rotate() + 1;
+
+        wrappedDataKey = null;
+        file.delete();
+        cipherAuth.create();
+        cipherAuth.consumeKeyInvalidated();
+    }
+
+    /**
+     * Opens the session with the cipher authorized by the fingerprint dialog.
+     */
+    public synchronized DataKeySession openSession(Cipher authorizedCipher) throws CustomException {
+        WrappedDataKey wrapped = getWrappedDataKey();
+        if (wrapped != null) {
+            closeSession();
+            keyRing = KeyRing.unwrap(wrapped, authorizedCipher);
+        } else {
+            KeyRing ring = keyRing != null && !keyRing.isClosed() ? keyRing : KeyRing.generate(nextVersion);
+            wrapped = ring.wrap(authorizedCipher);
+            wrapped.writeTo(file);
+            wrappedDataKey = wrapped;
+            keyRing = ring;
+        }
+        nextVersion = Math.max(nextVersion, keyRing.getCurrentVersion() + 1);
+        return keyRing.getCurrent();
+    }
+
+    /**
+     * Makes a ring generated after the old versions were lost start above {@code latestVersion},
+     * e.g. the {@link VersionedRecordStore#getLatestVersion()}, so its tag is never mistaken for a
+     * lost one.
+     */
+    public synchronized void reserveVersions(int latestVersion) {
+        nextVersion = Math.max(nextVersion, latestVersion + 1);
+    }
+
+    /**
+     * Encrypts a batch of secrets with the data key of the open session, so one authentication
+     * covers the whole list.
+     */
+    public BatchResult encryptBatch(List<byte[]> plaintexts) throws CustomException {
+        return requireSession().encryptBatch(plaintexts);
+    }
+
+    public BatchResult decryptBatch(List<byte[]> records) throws CustomException {
+        return requireSession().decryptBatch(records);
+    }
+
+    private DataKeySession requireSession() throws CustomException {
+        DataKeySession session = getSession();
+        if (session == null)
+            throw new CustomException("Data key session is closed");
+        return session;
+    }
+
+    /**
+     * The current version of the open ring.
+     */
+    public synchronized DataKeySession getSession() {
+        return keyRing != null && !keyRing.isClosed() ? keyRing.getCurrent() : null;
+    }
+
+    public synchronized KeyRing getKeyRing() {
+        return keyRing != null && !keyRing.isClosed() ? keyRing : null;
+    }
+
+    /**
+     * @return true if the open ring still holds older versions whose records need re-encrypting
+     */
+    public synchronized boolean needsMigration() {
+        KeyRing ring = getKeyRing();
+        return ring != null && ring.getVersions().size() > 1;
+    }
+
+    public synchronized void closeSession() {
+        if (keyRing != null) {
+            keyRing.close();
+            keyRing = null;
+        }
+    }
+
+    private synchronized WrappedDataKey getWrappedDataKey() throws CustomException {
+        if (wrappedDataKey == null && file.exists())
+            wrappedDataKey = WrappedDataKey.readFrom(file);
+        return wrappedDataKey;
+    }
+}
@@ -0,0 +1,410 @@
+package com.fingerprint;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * In-memory data-encryption key unwrapped once with the fingerprint authorized cipher.
+ * Records are encrypted in-process with AES-GCM, so bulk work never goes through the key store.
+ * Each record is {@code iv || ciphertext || tag}.
+ */
+public class DataKeySession implements CipherFactory {
+
+    private static final String DATA_KEY_ALGORITHM = "AES";
+    private static final String DATA_CIPHER = "AES/GCM/NoPadding";
+    static final int DATA_KEY_LENGTH = 32;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private static final int BATCH_THRESHOLD = 32;
+
+    private static ForkJoinPool pool;
+
+    private static final ThreadLocal<RecordCipher> RECORD_CIPHERS = new ThreadLocal<>();
+
+    private volatile byte[] dataKey;
+    private final DataKey key;
+    private final SecureRandom random = new SecureRandom();
+
+    private DataKeySession(byte[] dataKey) {
+        this.dataKey = dataKey;
+        this.key = new DataKey(dataKey);
+    }
+
+    /**
+     * Takes ownership of {@code dataKey}; it is wiped on {@link #close()}.
+     */
+    static DataKeySession of(byte[] dataKey) {
+        return new DataKeySession(dataKey);
+    }
+
+    public static DataKeySession generate() {
+        byte[] dataKey = new byte[DATA_KEY_LENGTH];
+        new SecureRandom().nextBytes(dataKey);
+        return new DataKeySession(dataKey);
+    }
+
+    /**
+     * Unwraps a stored data key with {@code decryptCipher}, which must be the authorized key store
+     * cipher initialized with {@link WrappedDataKey#getIv()}.
+     */
+    public static DataKeySession unwrap(WrappedDataKey wrapped, Cipher decryptCipher) throws CustomException {
+        try {
+            return new DataKeySession(decryptCipher.doFinal(wrapped.getWrappedKey()));
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to unwrap data key", e);
+        }
+    }
+
+    /**
+     * Wraps the data key with {@code encryptCipher}, which must be the authorized key store cipher
+     * in {@link Cipher#ENCRYPT_MODE}.
+     */
+    public WrappedDataKey wrap(Cipher encryptCipher) throws CustomException {
+        byte[] key = dataKey;
+        if (key == null)
+            throw new CustomException("Data key session is closed");
+
+        try {
+            return new WrappedDataKey(encryptCipher.getIV(), encryptCipher.doFinal(key));
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to wrap data key", e);
+        }
+    }
+
+    public byte[] encrypt(byte[] plaintext) throws CustomException {
+        try {
+            return encrypt(newCipher(), random, new byte[IV_LENGTH], keySpec(), plaintext);
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to encrypt record", e);
+        }
+    }
+
+    public byte[] decrypt(byte[] record) throws CustomException {
+        try {
+            return decrypt(newCipher(), keySpec(), record);
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to decrypt record", e);
+        }
+    }
+
+    /**
+     * Like {@link #encrypt(byte[])}, but writes the record of the remaining bytes of
+     * {@code plaintext} to {@code record}. With a direct {@code plaintext} from a
+     * {@link BufferPool} the secret stays off the Java heap. The cipher and IV are reused per
+     * thread, so only the cipher provider allocates.
+     *
+     * @param record needs {@link #getRecordLength(int)} bytes remaining
+     * @return the number of bytes written
+     */
+    public int encrypt(ByteBuffer plaintext, ByteBuffer record) throws CustomException {
+        if (record.remaining() < getRecordLength(plaintext.remaining()))
+            throw new CustomException("Record buffer too small");
+
+        int start = record.position();
+        try {
+            RecordCipher recordCipher = recordCipher();
+            random.nextBytes(recordCipher.iv);
+            recordCipher.cipher.init(Cipher.ENCRYPT_MODE, keySpec(),
+                    new GCMParameterSpec(TAG_LENGTH_BITS, recordCipher.iv));
+            record.put(recordCipher.iv);
+            recordCipher.cipher.doFinal(plaintext, record);
+        } catch (GeneralSecurityException e) {
+            record.position(start);
+            throw new CustomException("Failed to encrypt record", e);
+        }
+        return record.position() - start;
+    }
+
+    /**
+     * Like {@link #decrypt(byte[])}, but decrypts the remaining bytes of {@code record} into
+     * {@code plaintext}, which needs room for {@code record.remaining()} bytes. On failure neither
+     * position changes.
+     *
+     * @return the number of plaintext bytes written
+     */
+    public int decrypt(ByteBuffer record, ByteBuffer plaintext) throws CustomException {
+        if (record.remaining() < IV_LENGTH + TAG_LENGTH_BITS / 8)
+            throw new CustomException("Record too short");
+
+        int recordStart = record.position();
+        int start = plaintext.position();
+        try {
+            RecordCipher recordCipher = recordCipher();
+            record.get(recordCipher.iv);
+            recordCipher.cipher.init(Cipher.DECRYPT_MODE, keySpec(),
+                    new GCMParameterSpec(TAG_LENGTH_BITS, recordCipher.iv));
+            recordCipher.cipher.doFinal(record, plaintext);
+        } catch (GeneralSecurityException e) {
+            record.position(recordStart);
+            plaintext.position(start);
+            throw new CustomException("Failed to decrypt record", e);
+        }
+        return plaintext.position() - start;
+    }
+
+    /**
+     * @return the size of the record of {@code plaintextLength} bytes
+     */
+    public static int getRecordLength(int plaintextLength) {
+        return IV_LENGTH + plaintextLength + TAG_LENGTH_BITS / 8;
+    }
+
+    @Override
+    public Cipher newEncryptCipher() throws CustomException {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        return newInitializedCipher(Cipher.ENCRYPT_MODE, iv);
+    }
+
+    @Override
+    public Cipher newDecryptCipher(byte[] iv) throws CustomException {
+        return newInitializedCipher(Cipher.DECRYPT_MODE, iv);
+    }
+
+    private Cipher newInitializedCipher(int opmode, byte[] iv) throws CustomException {
+        try {
+            Cipher cipher = newCipher();
+            cipher.init(opmode, keySpec(), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to init data Cipher", e);
+        }
+    }
+
+    /**
+     * Encrypts every record in parallel on a fork/join pool. Results keep the input order.
+     *
+     * @throws CustomException if any record fails
+     */
+    public List<byte[]> encryptAll(List<byte[]> plaintexts) throws CustomException {
+        return encryptBatch(plaintexts).getAll();
+    }
+
+    /**
+     * Decrypts every record in parallel on a fork/join pool. Results keep the input order.
+     *
+     * @throws CustomException if any record fails
+     */
+    public List<byte[]> decryptAll(List<byte[]> records) throws CustomException {
+        return decryptBatch(records).getAll();
+    }
+
+    /**
+     * Like {@link #encryptAll(List)}, but a record that fails is reported in the result instead of
+     * failing the batch.
+     */
+    public BatchResult encryptBatch(List<byte[]> plaintexts) throws CustomException {
+        return runBatch(plaintexts, Cipher.ENCRYPT_MODE);
+    }
+
+    /**
+     * Like {@link #decryptAll(List)}, but a record that fails, e.g. one that was tampered with, is
+     * reported in the result instead of failing the batch.
+     */
+    public BatchResult decryptBatch(List<byte[]> records) throws CustomException {
+        return runBatch(records, Cipher.DECRYPT_MODE);
+    }
+
+    /**
+     * The raw data key, for {@link KeyRing} to wrap it together with the other versions.
+     */
+    byte[] getKeyBytes() throws CustomException {
+        byte[] key = dataKey;
+        if (key == null)
+            throw new CustomException("Data key session is closed");
+        return key;
+    }
+
+    public boolean isClosed() {
+        return dataKey == null;
+    }
+
+    /**
+     * Ends the session and wipes the data key.
+     */
+    public void close() {
+        byte[] key = dataKey;
+        dataKey = null;
+        if (key != null)
+            Arrays.fill(key, (byte) 0);
+    }
+
+    private BatchResult runBatch(List<byte[]> input, int opmode) throws CustomException {
+        byte[][] in = input.toArray(new byte[input.size()][]);
+        byte[][] out = new byte[in.length][];
+        CustomException[] errors = new CustomException[in.length];
+
+        long bytes = 0;
+        for (byte[] record : in)
+            bytes += record != null ? record.length : 0;
+
+        long start = System.nanoTime();
+        getPool().invoke(new BatchTask(keySpec(), random, opmode, in, out, errors, 0, in.length));
+        return new BatchResult(out, errors, bytes, System.nanoTime() - start);
+    }
+
+    private SecretKey keySpec() throws CustomException {
+        if (dataKey == null)
+            throw new CustomException("Data key session is closed");
+        return key;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return pool;
+    }
+
+    private static Cipher newCipher() throws GeneralSecurityException {
+        return Cipher.getInstance(DATA_CIPHER);
+    }
+
+    private static RecordCipher recordCipher() throws GeneralSecurityException {
+        RecordCipher recordCipher = RECORD_CIPHERS.get();
+        if (recordCipher == null) {
+            recordCipher = new RecordCipher();
+            RECORD_CIPHERS.set(recordCipher);
+        }
+        return recordCipher;
+    }
+
+    /**
+     * @param iv scratch buffer for the random IV, reused across records
+     */
+    private static byte[] encrypt(Cipher cipher, SecureRandom random, byte[] iv, SecretKey key,
+                                  byte[] plaintext) throws GeneralSecurityException {
+        random.nextBytes(iv);
+
+        byte[] record = new byte[IV_LENGTH + plaintext.length + TAG_LENGTH_BITS / 8];
+        System.arraycopy(iv, 0, record, 0, IV_LENGTH);
+
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, record, 0, IV_LENGTH));
+        cipher.doFinal(plaintext, 0, plaintext.length, record, IV_LENGTH);
+        return record;
+    }
+
+    private static byte[] decrypt(Cipher cipher, SecretKey key, byte[] record) throws GeneralSecurityException {
+        if (record.length < IV_LENGTH + TAG_LENGTH_BITS / 8)
+            throw new GeneralSecurityException("Record too short");
+
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, record, 0, IV_LENGTH));
+        return cipher.doFinal(record, IV_LENGTH, record.length - IV_LENGTH);
+    }
+
+    /**
+     * The data key without a copy: {@link #close()} wipes the array this key reads, so no key
+     * material is left behind on the heap but what a provider copies for itself.
+     */
+    private static class DataKey implements SecretKey {
+
+        private final byte[] key;
+
+        DataKey(byte[] key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return DATA_KEY_ALGORITHM;
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return key.clone();
+        }
+    }
+
+    /**
+     * The cipher and IV buffer of one thread for the buffer methods. Each record re-initializes
+     * the cipher with its own key, so every session can share them.
+     */
+    private static class RecordCipher {
+        final Cipher cipher;
+        final byte[] iv = new byte[IV_LENGTH];
+
+        RecordCipher() throws GeneralSecurityException {
+            cipher = newCipher();
+        }
+    }
+
+    private static class BatchTask extends RecursiveAction {
+
+        private final SecretKey key;
+        private final SecureRandom random;
+        private final int opmode;
+        private final byte[][] in;
+        private final byte[][] out;
+        private final CustomException[] errors;
+        private final int from;
+        private final int to;
+
+        BatchTask(SecretKey key, SecureRandom random, int opmode, byte[][] in, byte[][] out, CustomException[] errors,
+                  int from, int to) {
+            this.key = key;
+            this.random = random;
+            this.opmode = opmode;
+            this.in = in;
+            this.out = out;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_THRESHOLD) {
+                computeDirectly();
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask(key, random, opmode, in, out, errors, from, middle),
+                    new BatchTask(key, random, opmode, in, out, errors, middle, to));
+        }
+
+        /**
+         * One cipher and IV buffer serve the whole range; each record re-initializes the cipher, so a
+         * failed record does not affect the next one.
+         */
+        private void computeDirectly() {
+            Cipher cipher;
+            try {
+                cipher = newCipher();
+            } catch (GeneralSecurityException e) {
+                for (int i = from; i < to; i++)
+                    errors[i] = new CustomException("Failed to init data Cipher", e);
+                return;
+            }
+
+            byte[] iv = new byte[IV_LENGTH];
+            for (int i = from; i < to; i++) {
+                if (in[i] == null) {
+                    errors[i] = new CustomException("Missing record " + i);
+                    continue;
+                }
+                try {
+                    out[i] = opmode == Cipher.ENCRYPT_MODE
+                            ? encrypt(cipher, random, iv, key, in[i])
+                            : decrypt(cipher, key, in[i]);
+                } catch (GeneralSecurityException e) {
+                    errors[i] = new CustomException("Failed to process record " + i, e);
+                }
+            }
+        }
+    }
+}
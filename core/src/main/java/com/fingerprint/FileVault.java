@@ -0,0 +1,272 @@
+package com.fingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+
+/**
+ * Encrypted file vault. Ciphertexts are appended to a data file and encrypted or decrypted
+ * directly from and into {@link MappedByteBuffer} regions of it. A compact index file keeps, for
+ * every entry, its offset, length, IV and a CRC32 of the ciphertext, so reading one entry maps only
+ * its own region however big the vault is.
+ * <p>
+ * Each entry's id is passed to the cipher as additional authenticated data, so the factory must
+ * hand out AEAD ciphers, and a ciphertext moved under another id in the index fails to decrypt.
+ * <p>
+ * Ciphers come from a {@link CipherFactory}, usually the {@link DataKeySession} unlocked with the
+ * cipher from {@link CipherAuthenticator#getPromptCipher()}. Writing an existing id appends a new
+ * entry that replaces the old one; space is not reclaimed. Instances are not thread safe.
+ */
+public class FileVault {
+
+    private static final int MAGIC = 0x46505658;
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int MAX_IV_LENGTH = 16;
+    private static final int RECORD_LENGTH = 8 + 8 + 4 + 4 + 1 + MAX_IV_LENGTH;
+
+    private static final int CHECKSUM_CHUNK = 8 * 1024;
+
+    public static class Entry {
+        public final long id;
+        public final long offset;
+        public final int length;
+        public final int checksum;
+        public final byte[] iv;
+
+        Entry(long id, long offset, int length, int checksum, byte[] iv) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+            this.iv = iv;
+        }
+    }
+
+    private final RandomAccessFile dataFile;
+    private final RandomAccessFile indexFile;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final CipherFactory cipherFactory;
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+    private final ByteBuffer aad = ByteBuffer.allocate(8);
+    private final byte[] checksumChunk = new byte[CHECKSUM_CHUNK];
+    private final CRC32 crc = new CRC32();
+
+    private long dataEnd;
+
+    private FileVault(RandomAccessFile dataFile, RandomAccessFile indexFile, CipherFactory cipherFactory) {
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        this.data = dataFile.getChannel();
+        this.index = indexFile.getChannel();
+        this.cipherFactory = cipherFactory;
+    }
+
+    public static FileVault open(File dataFile, File indexFile, CipherFactory cipherFactory)
+            throws CustomException {
+        FileVault vault = null;
+        try {
+            vault = new FileVault(new RandomAccessFile(dataFile, "rw"),
+                    new RandomAccessFile(indexFile, "rw"), cipherFactory);
+            vault.loadIndex();
+            return vault;
+        } catch (IOException e) {
+            if (vault != null)
+                vault.closeQuietly();
+            throw new CustomException("Failed to open vault", e);
+        } catch (CustomException e) {
+            vault.closeQuietly();
+            throw e;
+        }
+    }
+
+    public boolean contains(long id) {
+        return entries.containsKey(id);
+    }
+
+    public Entry getEntry(long id) {
+        return entries.get(id);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Encrypts the remaining bytes of {@code plaintext} straight into a mapped region at the end of
+     * the data file and records the entry in the index.
+     */
+    public Entry put(long id, ByteBuffer plaintext) throws CustomException {
+        Cipher cipher = cipherFactory.newEncryptCipher();
+        byte[] iv = cipher.getIV();
+        if (iv == null || iv.length > MAX_IV_LENGTH)
+            throw new CustomException("Unsupported IV for vault entry");
+
+        try {
+            long offset = dataEnd;
+            MappedByteBuffer region = data.map(FileChannel.MapMode.READ_WRITE, offset,
+                    cipher.getOutputSize(plaintext.remaining()));
+            updateAad(cipher, id);
+            int length = cipher.doFinal(plaintext, region);
+
+            region.flip();
+            Entry entry = new Entry(id, offset, length, checksum(region), iv);
+            // The ciphertext must be on disk before the index points at it.
+            region.force();
+            writeRecord(entry);
+
+            dataEnd = offset + length;
+            entries.put(id, entry);
+            return entry;
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CustomException("Failed to write vault entry", e);
+        }
+    }
+
+    /**
+     * Verifies and decrypts one entry from its mapped region into {@code out}.
+     *
+     * @return number of plaintext bytes written to {@code out}
+     */
+    public int read(long id, ByteBuffer out) throws CustomException {
+        Entry entry = entries.get(id);
+        if (entry == null)
+            throw new CustomException("No vault entry " + id);
+
+        try {
+            if (entry.offset + entry.length > data.size())
+                throw new CustomException("Corrupted vault entry " + id);
+            MappedByteBuffer region = data.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length);
+            if (checksum(region) != entry.checksum)
+                throw new CustomException("Corrupted vault entry " + id);
+
+            region.rewind();
+            Cipher cipher = cipherFactory.newDecryptCipher(entry.iv);
+            updateAad(cipher, id);
+            return cipher.doFinal(region, out);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CustomException("Failed to read vault entry", e);
+        }
+    }
+
+    /**
+     * Same as {@link #read(long, ByteBuffer)} into a new buffer sized for the entry.
+     */
+    public ByteBuffer read(long id) throws CustomException {
+        Entry entry = entries.get(id);
+        if (entry == null)
+            throw new CustomException("No vault entry " + id);
+
+        ByteBuffer out = ByteBuffer.allocate(entry.length);
+        read(id, out);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Drops any bytes mapped past the last entry and flushes both files.
+     */
+    public void close() throws CustomException {
+        try {
+            data.truncate(dataEnd);
+            data.force(false);
+            index.force(false);
+        } catch (IOException e) {
+            throw new CustomException("Failed to close vault", e);
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void loadIndex() throws IOException, CustomException {
+        if (index.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            index.write(header, 0);
+            index.position(HEADER_LENGTH);
+            return;
+        }
+
+        MappedByteBuffer buffer = index.map(FileChannel.MapMode.READ_ONLY, 0, index.size());
+        if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            throw new CustomException("Not a vault index");
+
+        long dataSize = data.size();
+        long records = 0;
+        while (buffer.remaining() >= RECORD_LENGTH) {
+            long id = buffer.getLong();
+            long offset = buffer.getLong();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            int ivLength = buffer.get();
+            if (offset < 0 || length < 0 || offset + length > dataSize || ivLength < 0
+                    || ivLength > MAX_IV_LENGTH || ivLength > buffer.remaining())
+                throw new CustomException("Not a vault index");
+            byte[] iv = new byte[ivLength];
+            buffer.get(iv);
+            buffer.position(buffer.position() + MAX_IV_LENGTH - iv.length);
+
+            entries.put(id, new Entry(id, offset, length, checksum, iv));
+            dataEnd = Math.max(dataEnd, offset + length);
+            records++;
+        }
+        // A record cut short by process death is ignored and overwritten by the next put.
+        index.position(HEADER_LENGTH + records * RECORD_LENGTH);
+    }
+
+    private void writeRecord(Entry entry) throws IOException {
+        record.clear();
+        record.putLong(entry.id);
+        record.putLong(entry.offset);
+        record.putInt(entry.length);
+        record.putInt(entry.checksum);
+        record.put((byte) entry.iv.length);
+        record.put(entry.iv);
+        while (record.hasRemaining())
+            record.put((byte) 0);
+        record.flip();
+
+        while (record.hasRemaining())
+            index.write(record);
+    }
+
+    private void updateAad(Cipher cipher, long id) {
+        aad.clear();
+        aad.putLong(id).flip();
+        cipher.updateAAD(aad);
+    }
+
+    private int checksum(ByteBuffer buffer) {
+        crc.reset();
+        while (buffer.hasRemaining()) {
+            int length = Math.min(buffer.remaining(), checksumChunk.length);
+            buffer.get(checksumChunk, 0, length);
+            crc.update(checksumChunk, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    private void closeQuietly() {
+        try {
+            dataFile.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            indexFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
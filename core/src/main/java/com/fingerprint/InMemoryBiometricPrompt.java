@@ -0,0 +1,105 @@
+package com.fingerprint;
+
+import java.security.Signature;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+
+/**
+ * {@link BiometricPrompt} for the desktop JVM and tests. Each {@link #authenticate} call reads
+ * fingers on the calling thread until one is recognized, each read failing with the configured
+ * failure rate, and gives up with {@link #ERROR_LOCKOUT} after {@link #MAX_ATTEMPTS} failures, as
+ * the fingerprint sensor does. Callbacks are delivered before {@link #authenticate} returns.
+ */
+public class InMemoryBiometricPrompt implements BiometricPrompt {
+
+    /**
+     * Same codes as {@code FingerprintManager}.
+     */
+    public static final int ERROR_HW_UNAVAILABLE = 1;
+    public static final int ERROR_LOCKOUT = 7;
+
+    public static final int MAX_ATTEMPTS = 5;
+
+    private static final Cancellation NOT_LISTENING = new Cancellation() {
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final InMemoryKeyStoreBackend keyStore;
+
+    private volatile boolean hardwareDetected = true;
+    private volatile boolean enrolled = true;
+    private volatile double failureRate;
+
+    private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * @param keyStore told about every successful authentication, which opens the session window
+     *                 of its keys
+     */
+    public InMemoryBiometricPrompt(InMemoryKeyStoreBackend keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    public void setHardwareDetected(boolean hardwareDetected) {
+        this.hardwareDetected = hardwareDetected;
+    }
+
+    public void setEnrolled(boolean enrolled) {
+        this.enrolled = enrolled;
+    }
+
+    /**
+     * Probability, from 0 to 1, that a single read is not recognized.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public boolean isHardwareDetected() {
+        return hardwareDetected;
+    }
+
+    @Override
+    public boolean hasEnrolledBiometrics() {
+        return enrolled;
+    }
+
+    @Override
+    public Cancellation authenticate(Cipher cipher, Callback callback) {
+        return read(cipher, callback);
+    }
+
+    @Override
+    public Cancellation authenticateSignature(Signature signature, Callback callback) {
+        return read(null, callback);
+    }
+
+    private Cancellation read(Cipher cipher, Callback callback) {
+        if (!hardwareDetected || !enrolled) {
+            callback.onAuthenticationError(ERROR_HW_UNAVAILABLE, "Fingerprint hardware not available");
+            return NOT_LISTENING;
+        }
+
+        Random random = this.random.get();
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (random.nextDouble() >= failureRate) {
+                keyStore.onUserAuthenticated();
+                callback.onAuthenticationSucceeded(cipher);
+                return NOT_LISTENING;
+            }
+            callback.onAuthenticationFailed();
+        }
+
+        callback.onAuthenticationError(ERROR_LOCKOUT, "Too many attempts");
+        return NOT_LISTENING;
+    }
+}
@@ -0,0 +1,228 @@
+package com.fingerprint;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * {@link KeyStoreBackend} for the desktop JVM and tests. Keys and key pairs come from the software
+ * JCE provider and are kept in a {@link SoftwareKeyStore}.
+ * <p>
+ * Key invalidation and session windows behave as on a device: {@link #enrollBiometric()}
+ * invalidates the keys created with {@code invalidatedByBiometricEnrollment}, and keys with an
+ * authentication validity can only be initialized within that many seconds of
+ * {@link #onUserAuthenticated()}. Per-operation authorization of the other keys is not enforced.
+ */
+public class InMemoryKeyStoreBackend implements KeyStoreBackend {
+
+    private volatile KeyStore keyStore;
+
+    private final Map<Key, KeyMetadata> keys = new ConcurrentHashMap<>();
+    private final Map<Key, Boolean> invalidated = new ConcurrentHashMap<>();
+
+    private volatile boolean userAuthenticated;
+    private volatile long userAuthenticatedAt;
+
+    @Override
+    public synchronized void load() throws CustomException {
+        if (keyStore != null)
+            return;
+
+        try {
+            KeyStore keyStore = SoftwareKeyStore.getInstance();
+            keyStore.load(null, null);
+            this.keyStore = keyStore;
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CustomException("Failed to get an instance of KeyStore", e);
+        }
+    }
+
+    /**
+     * Accepts JCE as well as key store transformation names.
+     */
+    @Override
+    public SecretKey generateKey(KeyMetadata metadata) throws CustomException {
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance(metadata.getTransformation().split("/")[0]);
+            keyGenerator.init(128);
+            SecretKey key = keyGenerator.generateKey();
+            forget(getStoredKey(metadata.getAlias()));
+            keyStore.setEntry(metadata.getAlias(), new KeyStore.SecretKeyEntry(key), null);
+            keys.put(key, metadata);
+            return key;
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed created key", e);
+        }
+    }
+
+    @Override
+    public PrivateKey generateKeyPair(KeyMetadata metadata) throws CustomException {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(ChallengeSigner.KEY_ALGORITHM);
+            generator.initialize(new ECGenParameterSpec(ChallengeSigner.CURVE));
+            KeyPair keyPair = generator.generateKeyPair();
+            forget(getStoredKey(metadata.getAlias()));
+            keyStore.setEntry(metadata.getAlias(), new SoftwareKeyStore.KeyPairEntry(keyPair), null);
+            keys.put(keyPair.getPrivate(), metadata);
+            return keyPair.getPrivate();
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed created key pair", e);
+        }
+    }
+
+    @Override
+    public SecretKey getKey(String alias) throws CustomException {
+        Key key = getStoredKey(alias);
+        return key instanceof SecretKey ? (SecretKey) key : null;
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias) throws CustomException {
+        Key key = getStoredKey(alias);
+        return key instanceof PrivateKey ? (PrivateKey) key : null;
+    }
+
+    @Override
+    public PublicKey getPublicKey(String alias) throws CustomException {
+        try {
+            KeyStore.Entry entry = keyStore.getEntry(alias, null);
+            if (!(entry instanceof SoftwareKeyStore.KeyPairEntry))
+                throw new CustomException("No key pair " + alias);
+            return ((SoftwareKeyStore.KeyPairEntry) entry).getKeyPair().getPublic();
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to get public key " + alias, e);
+        }
+    }
+
+    private Key getStoredKey(String alias) throws CustomException {
+        try {
+            return keyStore.containsAlias(alias) ? keyStore.getKey(alias, null) : null;
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to get key " + alias, e);
+        }
+    }
+
+    @Override
+    public void deleteKey(String alias) throws CustomException {
+        try {
+            forget(getStoredKey(alias));
+            keyStore.deleteEntry(alias);
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to delete key", e);
+        }
+    }
+
+    @Override
+    public KeyMetadata getMetadata(String alias, Key key) throws CustomException {
+        KeyMetadata metadata = keys.get(key);
+        if (metadata == null)
+            throw new CustomException("Failed to read key info");
+        return metadata;
+    }
+
+    @Override
+    public Cipher newCipher(CipherSuite suite) throws CustomException {
+        try {
+            return Cipher.getInstance(getJceTransformation(suite));
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failded to create fingerprintManager cipher", e);
+        }
+    }
+
+    @Override
+    public void initCipher(Cipher cipher, int opmode, SecretKey key, AlgorithmParameterSpec params)
+            throws CustomException {
+        checkUsable(key);
+        try {
+            if (params == null)
+                cipher.init(opmode, key);
+            else
+                cipher.init(opmode, key, params);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            throw new CustomException("Failed to init Cipher", e);
+        }
+    }
+
+    @Override
+    public Signature newSignature() throws CustomException {
+        try {
+            return Signature.getInstance(ChallengeSigner.SIGNATURE_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to create Signature", e);
+        }
+    }
+
+    @Override
+    public void initSign(Signature signature, PrivateKey key) throws CustomException {
+        checkUsable(key);
+        try {
+            signature.initSign(key);
+        } catch (InvalidKeyException e) {
+            throw new CustomException("Failed to init Signature", e);
+        }
+    }
+
+    private void checkUsable(Key key) throws CustomException {
+        if (invalidated.containsKey(key))
+            throw AuthFailure.KEY_INVALIDATED.raise();
+
+        KeyMetadata metadata = keys.get(key);
+        if (metadata != null && metadata.getAuthValiditySeconds() > 0 && !isAuthenticatedWithin(metadata))
+            throw AuthFailure.AUTHENTICATION_REQUIRED.raise();
+    }
+
+    /**
+     * The JCE provider calls PKCS7 padding PKCS5Padding; the Android key store accepts PKCS7Padding.
+     */
+    public static String getJceTransformation(CipherSuite suite) {
+        return suite.getTransformation().replace("PKCS7Padding", "PKCS5Padding");
+    }
+
+    /**
+     * What a successful biometric authentication tells the key store.
+     */
+    public void onUserAuthenticated() {
+        userAuthenticatedAt = System.nanoTime();
+        userAuthenticated = true;
+    }
+
+    /**
+     * What enrolling a new biometric does to the keys created with
+     * {@code invalidatedByBiometricEnrollment}.
+     */
+    public void enrollBiometric() {
+        for (Map.Entry<Key, KeyMetadata> entry : keys.entrySet()) {
+            if (entry.getValue().isInvalidatedByBiometricEnrollment())
+                invalidated.put(entry.getKey(), Boolean.TRUE);
+        }
+    }
+
+    private void forget(Key key) {
+        if (key != null) {
+            keys.remove(key);
+            invalidated.remove(key);
+        }
+    }
+
+    private boolean isAuthenticatedWithin(KeyMetadata metadata) {
+        return userAuthenticated && System.nanoTime() - userAuthenticatedAt
+                < TimeUnit.SECONDS.toNanos(metadata.getAuthValiditySeconds());
+    }
+}
@@ -0,0 +1,18 @@
+package com.fingerprint;
+
+/**
+ * {@link LockScreen} for the desktop JVM and tests; secure unless told otherwise.
+ */
+public class InMemoryLockScreen implements LockScreen {
+
+    private volatile boolean secure = true;
+
+    public void setSecure(boolean secure) {
+        this.secure = secure;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return secure;
+    }
+}
@@ -0,0 +1,20 @@
+package com.fingerprint;
+
+/**
+ * The key can never be used again, e.g. because a new fingerprint was enrolled. The next
+ * {@link CipherAuthenticator#create()} generates a new one.
+ */
+public class KeyInvalidatedException extends CustomException {
+
+    public KeyInvalidatedException(final String message, final Throwable cause) {
+        super(AuthFailure.KEY_INVALIDATED, message, cause);
+    }
+
+    KeyInvalidatedException(final AuthFailure failure) {
+        super(failure);
+    }
+
+    KeyInvalidatedException(final AuthFailure failure, final StackTraceElement[] stackTrace) {
+        super(failure, stackTrace);
+    }
+}
@@ -0,0 +1,46 @@
+package com.fingerprint;
+
+/**
+ * What the {@link KeyRegistry} remembers about a key store alias, so it never has to enumerate
+ * the key store.
+ */
+public class KeyMetadata {
+
+    private final String alias;
+    private final String transformation;
+    private final long createdAt;
+    private final boolean invalidatedByBiometricEnrollment;
+    private final int authValiditySeconds;
+
+    public KeyMetadata(String alias, String transformation, long createdAt,
+                       boolean invalidatedByBiometricEnrollment, int authValiditySeconds) {
+        this.alias = alias;
+        this.transformation = transformation;
+        this.createdAt = createdAt;
+        this.invalidatedByBiometricEnrollment = invalidatedByBiometricEnrollment;
+        this.authValiditySeconds = authValiditySeconds;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getTransformation() {
+        return transformation;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public boolean isInvalidatedByBiometricEnrollment() {
+        return invalidatedByBiometricEnrollment;
+    }
+
+    /**
+     * Zero when every use of the key needs an authentication.
+     */
+    public int getAuthValiditySeconds() {
+        return authValiditySeconds;
+    }
+}
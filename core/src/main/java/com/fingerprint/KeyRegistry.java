@@ -0,0 +1,312 @@
+package com.fingerprint;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Keys per alias, created on demand, with a persisted metadata index and a bounded LRU of
+ * initialized ciphers. A cached cipher is handed out once by {@link #takeCipher(String)}; call
+ * {@link #prepareCipher(String)} (e.g. from a background thread) to have the next one ready.
+ * <p>
+ * Thread safe. Key handles are read lock-free; the metadata index and the cipher cache have their
+ * own locks, and ciphers are initialized outside of them so slow key store calls for one alias do
+ * not block the others.
+ */
+public class KeyRegistry {
+
+    public interface KeySource {
+        SecretKey generateKey(KeyMetadata metadata) throws CustomException;
+
+        /**
+         * @return the key, or null if the alias is not in the key store any more
+         */
+        SecretKey getKey(String alias) throws CustomException;
+
+        void deleteKey(String alias) throws CustomException;
+
+        Cipher newCipher(CipherSuite suite) throws CustomException;
+
+        /**
+         * @param params null to let the cipher pick a fresh IV
+         * @throws KeyInvalidatedException if the key can never be used again
+         * @throws AuthenticationRequiredException if the user has to authenticate first
+         */
+        void initCipher(Cipher cipher, int opmode, SecretKey key, AlgorithmParameterSpec params)
+                throws CustomException;
+    }
+
+    public static final int DEFAULT_MAX_CIPHERS = 8;
+
+    private static final int INDEX_VERSION = 1;
+
+    private final File indexFile;
+    private final KeySource keySource;
+    private final int maxCiphers;
+
+    private Map<String, KeyMetadata> index;
+    private final ConcurrentHashMap<String, SecretKey> keys = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Cipher> ciphers;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong regenerations = new AtomicLong();
+
+    public KeyRegistry(File indexFile, KeySource keySource) {
+        this(indexFile, keySource, DEFAULT_MAX_CIPHERS);
+    }
+
+    public KeyRegistry(File indexFile, KeySource keySource, final int maxCiphers) {
+        this.indexFile = indexFile;
+        this.keySource = keySource;
+        this.maxCiphers = maxCiphers;
+        this.ciphers = new LinkedHashMap<String, Cipher>(maxCiphers, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cipher> eldest) {
+                if (size() <= KeyRegistry.this.maxCiphers)
+                    return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the key of {@code alias}, generating it with the given settings when the
+     * alias is unknown or its key is gone from the key store.
+     *
+     * @param transformation the {@link CipherSuite#getTransformation()} of the key's suite
+     */
+    public SecretKey getOrCreateKey(String alias, String transformation,
+                                    boolean invalidatedByBiometricEnrollment,
+                                    int authValiditySeconds) throws CustomException {
+        SecretKey key = keys.get(alias);
+        if (key != null)
+            return key;
+
+        synchronized (this) {
+            return loadOrCreateKey(alias, transformation, invalidatedByBiometricEnrollment,
+                    authValiditySeconds);
+        }
+    }
+
+    private SecretKey loadOrCreateKey(String alias, String transformation,
+                                      boolean invalidatedByBiometricEnrollment,
+                                      int authValiditySeconds) throws CustomException {
+        SecretKey key = keys.get(alias);
+        if (key != null)
+            return key;
+
+        KeyMetadata metadata = getIndex().get(alias);
+        if (metadata != null)
+            key = keySource.getKey(alias);
+
+        if (key == null) {
+            CipherSuite.fromTransformation(transformation);
+            metadata = new KeyMetadata(alias, transformation, System.currentTimeMillis(),
+                    invalidatedByBiometricEnrollment, authValiditySeconds);
+            key = keySource.generateKey(metadata);
+            index.put(alias, metadata);
+            writeIndex();
+        }
+
+        keys.put(alias, key);
+        return key;
+    }
+
+    public synchronized KeyMetadata getMetadata(String alias) throws CustomException {
+        return getIndex().get(alias);
+    }
+
+    public synchronized List<String> getAliases() throws CustomException {
+        return new ArrayList<>(getIndex().keySet());
+    }
+
+    /**
+     * Returns the cached cipher of {@code alias} in {@link Cipher#ENCRYPT_MODE}, or initializes a
+     * new one. The alias must have been created with {@link #getOrCreateKey}.
+     *
+     * @throws KeyInvalidatedException if the key of the alias was invalidated; it has been replaced
+     *                                 by a new one, which {@link #getOrCreateKey} returns from now on
+     */
+    public Cipher takeCipher(String alias) throws CustomException {
+        Cipher cipher;
+        synchronized (ciphers) {
+            cipher = ciphers.remove(alias);
+        }
+        if (cipher != null) {
+            hits.incrementAndGet();
+            return cipher;
+        }
+
+        misses.incrementAndGet();
+        return newCipher(alias);
+    }
+
+    public void prepareCipher(String alias) throws CustomException {
+        synchronized (ciphers) {
+            if (ciphers.containsKey(alias))
+                return;
+        }
+
+        Cipher cipher = newCipher(alias);
+        synchronized (ciphers) {
+            if (!ciphers.containsKey(alias))
+                ciphers.put(alias, cipher);
+        }
+    }
+
+    /**
+     * Forgets the cached key and cipher of {@code alias}, e.g. after it was permanently invalidated.
+     */
+    public void invalidate(String alias) {
+        keys.remove(alias);
+        synchronized (ciphers) {
+            ciphers.remove(alias);
+        }
+    }
+
+    public synchronized void deleteKey(String alias) throws CustomException {
+        invalidate(alias);
+        keySource.deleteKey(alias);
+        if (getIndex().remove(alias) != null)
+            writeIndex();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getRegenerations() {
+        return regenerations.get();
+    }
+
+    private Cipher newCipher(String alias) throws CustomException {
+        KeyMetadata metadata = getMetadata(alias);
+        SecretKey key = keys.get(alias);
+        if (metadata == null || key == null)
+            throw new CustomException("Unknown key alias " + alias);
+
+        Cipher cipher = keySource.newCipher(CipherSuite.fromTransformation(metadata.getTransformation()));
+        try {
+            keySource.initCipher(cipher, Cipher.ENCRYPT_MODE, key, null);
+            return cipher;
+        } catch (KeyInvalidatedException e) {
+            regenerateKey(alias, key, metadata);
+            throw e;
+        } catch (AuthenticationRequiredException e) {
+            throw e;
+        } catch (CustomException e) {
+            invalidate(alias);
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the invalidated {@code key} of {@code alias} with a new one of the same settings,
+     * unless another thread already did.
+     */
+    private synchronized void regenerateKey(String alias, SecretKey key, KeyMetadata metadata)
+            throws CustomException {
+        SecretKey current = keys.get(alias);
+        if (current != null && current != key)
+            return;
+
+        invalidate(alias);
+        keySource.deleteKey(alias);
+        getIndex().remove(alias);
+        loadOrCreateKey(alias, metadata.getTransformation(), metadata.isInvalidatedByBiometricEnrollment(),
+                metadata.getAuthValiditySeconds());
+        regenerations.incrementAndGet();
+    }
+
+    private Map<String, KeyMetadata> getIndex() throws CustomException {
+        if (index == null)
+            index = readIndex();
+        return index;
+    }
+
+    private Map<String, KeyMetadata> readIndex() throws CustomException {
+        Map<String, KeyMetadata> result = new HashMap<>();
+        if (!indexFile.exists())
+            return result;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(indexFile));
+            if (in.readUnsignedByte() != INDEX_VERSION)
+                throw new CustomException("Unsupported key registry version");
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                KeyMetadata metadata = new KeyMetadata(in.readUTF(), in.readUTF(), in.readLong(),
+                        in.readBoolean(), in.readInt());
+                result.put(metadata.getAlias(), metadata);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new CustomException("Failed to read key registry", e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeIndex() throws CustomException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeByte(INDEX_VERSION);
+            out.writeInt(index.size());
+            for (KeyMetadata metadata : index.values()) {
+                out.writeUTF(metadata.getAlias());
+                out.writeUTF(metadata.getTransformation());
+                out.writeLong(metadata.getCreatedAt());
+                out.writeBoolean(metadata.isInvalidatedByBiometricEnrollment());
+                out.writeInt(metadata.getAuthValiditySeconds());
+            }
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(indexFile))
+                throw new IOException("Failed to replace " + indexFile);
+        } catch (IOException e) {
+            throw new CustomException("Failed to write key registry", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.fingerprint;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Cipher;
+
+/**
+ * The versions of the data key. New records are encrypted with the current version; records of
+ * older versions stay readable until the {@link ReEncryptionPipeline} has moved them to the
+ * current one and the old version is retired.
+ * <p>
+ * All versions are wrapped together in a single {@link WrappedDataKey}, so one authentication
+ * unlocks every version, and a migration can resume after the process is restarted. A wrapped key
+ * that holds a bare data key, as written before key versions, unwraps as version 1.
+ */
+public class KeyRing {
+
+    private static final int FORMAT = 0x4b;
+
+    private final TreeMap<Integer, DataKeySession> versions = new TreeMap<>();
+    private int currentVersion;
+
+    private KeyRing() {
+    }
+
+    public static KeyRing generate() {
+        return generate(1);
+    }
+
+    /**
+     * A ring whose only key has {@code version}, e.g. to continue the numbering after the older
+     * versions were lost.
+     */
+    public static KeyRing generate(int version) {
+        KeyRing ring = new KeyRing();
+        ring.versions.put(version, DataKeySession.generate());
+        ring.currentVersion = version;
+        return ring;
+    }
+
+    /**
+     * Unwraps the ring with {@code decryptCipher}, which must be the authorized key store cipher
+     * initialized with {@link WrappedDataKey#getIv()}.
+     */
+    public static KeyRing unwrap(WrappedDataKey wrapped, Cipher decryptCipher) throws CustomException {
+        byte[] plain;
+        try {
+            plain = decryptCipher.doFinal(wrapped.getWrappedKey());
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to unwrap data key", e);
+        }
+
+        KeyRing ring = new KeyRing();
+        if (plain.length == DataKeySession.DATA_KEY_LENGTH) {
+            ring.versions.put(1, DataKeySession.of(plain));
+            ring.currentVersion = 1;
+            return ring;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+            if (in.readUnsignedByte() != FORMAT)
+                throw new CustomException("Unsupported data key format");
+
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                int version = in.readInt();
+                byte[] key = new byte[DataKeySession.DATA_KEY_LENGTH];
+                in.readFully(key);
+                ring.versions.put(version, DataKeySession.of(key));
+            }
+            ring.currentVersion = in.readInt();
+        } catch (IOException e) {
+            ring.close();
+            throw new CustomException("Corrupt data key", e);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+
+        if (!ring.versions.containsKey(ring.currentVersion)) {
+            ring.close();
+            throw new CustomException("Corrupt data key");
+        }
+        return ring;
+    }
+
+    /**
+     * Wraps every version with {@code encryptCipher}, which must be the authorized key store
+     * cipher in {@link Cipher#ENCRYPT_MODE}.
+     */
+    public synchronized WrappedDataKey wrap(Cipher encryptCipher) throws CustomException {
+        // Sized up front, so the key bytes are in this one array only and can be wiped.
+        byte[] plain = new byte[2 + versions.size() * (4 + DataKeySession.DATA_KEY_LENGTH) + 4];
+        ByteBuffer out = ByteBuffer.wrap(plain);
+        try {
+            out.put((byte) FORMAT);
+            out.put((byte) versions.size());
+            for (Map.Entry<Integer, DataKeySession> entry : versions.entrySet()) {
+                out.putInt(entry.getKey());
+                out.put(entry.getValue().getKeyBytes());
+            }
+            out.putInt(currentVersion);
+
+            return new WrappedDataKey(encryptCipher.getIV(), encryptCipher.doFinal(plain));
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to wrap data key", e);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+
+    public synchronized int getCurrentVersion() {
+        return currentVersion;
+    }
+
+    public synchronized DataKeySession getCurrent() {
+        return versions.get(currentVersion);
+    }
+
+    /**
+     * @throws CustomException if the version is unknown, e.g. it was lost with an invalidated key
+     */
+    public synchronized DataKeySession get(int version) throws CustomException {
+        DataKeySession session = versions.get(version);
+        if (session == null)
+            throw new CustomException("Data key version " + version + " is not available");
+        return session;
+    }
+
+    public synchronized boolean contains(int version) {
+        return versions.containsKey(version);
+    }
+
+    public synchronized List<Integer> getVersions() {
+        return new ArrayList<>(versions.keySet());
+    }
+
+    /**
+     * Adds a new version and makes it the current one.
+     *
+     * @return the new version
+     */
+    public synchronized int rotate() {
+        currentVersion = versions.lastKey() + 1;
+        versions.put(currentVersion, DataKeySession.generate());
+        return currentVersion;
+    }
+
+    /**
+     * Forgets and wipes an old version once no record uses it. The current version is kept.
+     */
+    public synchronized void retire(int version) {
+        if (version == currentVersion)
+            return;
+
+        DataKeySession session = versions.remove(version);
+        if (session != null)
+            session.close();
+    }
+
+    public synchronized boolean isClosed() {
+        return versions.isEmpty();
+    }
+
+    public synchronized void close() {
+        for (DataKeySession session : versions.values())
+            session.close();
+        versions.clear();
+    }
+}
@@ -0,0 +1,49 @@
+package com.fingerprint;
+
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+
+/**
+ * Where {@link CipherAuthenticator} keeps its keys: {@code AndroidKeyStore} on a device, or
+ * {@link InMemoryKeyStoreBackend} on the desktop JVM. Keys are generated with the alias, suite and
+ * authentication settings of the {@link KeyMetadata} they are created from.
+ */
+public interface KeyStoreBackend extends KeyRegistry.KeySource {
+
+    /**
+     * Opens the key store. Called by every {@link CipherAuthenticator#create()}, so it must be
+     * cheap once the store is open.
+     */
+    void load() throws CustomException;
+
+    /**
+     * Reads the settings {@code key}, a secret key or the private key of a pair, was generated
+     * with. The transformation is null when the key does not match a single {@link CipherSuite}.
+     */
+    KeyMetadata getMetadata(String alias, Key key) throws CustomException;
+
+    /**
+     * Generates an EC key pair for {@link ChallengeSigner#SIGNATURE_ALGORITHM} under the alias of
+     * {@code metadata}, replacing any key stored there.
+     *
+     * @return the private key handle; the public key is read with {@link #getPublicKey(String)}
+     */
+    PrivateKey generateKeyPair(KeyMetadata metadata) throws CustomException;
+
+    /**
+     * @return the key, or null if the alias holds no key pair
+     */
+    PrivateKey getPrivateKey(String alias) throws CustomException;
+
+    PublicKey getPublicKey(String alias) throws CustomException;
+
+    Signature newSignature() throws CustomException;
+
+    /**
+     * @throws KeyInvalidatedException if the key can never be used again
+     * @throws AuthenticationRequiredException if the user has to authenticate first
+     */
+    void initSign(Signature signature, PrivateKey key) throws CustomException;
+}
@@ -0,0 +1,188 @@
+package com.fingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+/**
+ * Runs complete authentication flows against one shared {@link CipherAuthenticator} on the
+ * in-memory backends, from many threads at once. Each flow initializes the cipher, authenticates
+ * with the prompt, encrypts a token with the authorized cipher and decrypts it again with a
+ * decrypt cipher, as the app does to wrap and unwrap its data key.
+ * <p>
+ * Usage: {@code LoadSimulation [threads] [seconds] [failureRate]}
+ */
+public class LoadSimulation {
+
+    private static final int TOKEN_SIZE = 64;
+
+    public static class Result {
+        public final long flows;
+        public final long failedReads;
+        public final long lockouts;
+        public final long nanos;
+
+        Result(long flows, long failedReads, long lockouts, long nanos) {
+            this.flows = flows;
+            this.failedReads = failedReads;
+            this.lockouts = lockouts;
+            this.nanos = nanos;
+        }
+
+        public double getFlowsPerSecond() {
+            return flows / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d flows in %.1f s: %.0f flows/s, %d failed reads, %d lockouts",
+                    flows, nanos / 1e9, getFlowsPerSecond(), failedReads, lockouts);
+        }
+    }
+
+    private final int threads;
+    private final long durationMillis;
+    private final double failureRate;
+
+    public LoadSimulation(int threads, long durationMillis, double failureRate) {
+        this.threads = threads;
+        this.durationMillis = durationMillis;
+        this.failureRate = failureRate;
+    }
+
+    public Result run() throws CustomException, InterruptedException {
+        File registryFile;
+        try {
+            registryFile = File.createTempFile("key_registry", ".idx");
+        } catch (IOException e) {
+            throw new CustomException("Failed to create key registry", e);
+        }
+        registryFile.delete();
+
+        InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        InMemoryBiometricPrompt prompt = new InMemoryBiometricPrompt(keyStore);
+        prompt.setFailureRate(failureRate);
+        CipherAuthenticator authenticator = new CipherAuthenticator(keyStore, prompt, new InMemoryLockScreen(),
+                registryFile, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        authenticator.create();
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            List<Future<Flow>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++)
+                results.add(workers.submit(new Flow(authenticator, prompt, deadline)));
+
+            long flows = 0;
+            long failedReads = 0;
+            long lockouts = 0;
+            for (Future<Flow> result : results) {
+                Flow flow = result.get();
+                flows += flow.flows;
+                failedReads += flow.failedReads;
+                lockouts += flow.lockouts;
+            }
+            return new Result(flows, failedReads, lockouts, System.nanoTime() - start);
+        } catch (ExecutionException e) {
+            throw new CustomException("Authentication flow failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+            registryFile.delete();
+        }
+    }
+
+    /**
+     * The flows of one thread.
+     */
+    private static class Flow implements Callable<Flow>, BiometricPrompt.Callback {
+
+        private final CipherAuthenticator authenticator;
+        private final BiometricPrompt prompt;
+        private final long deadline;
+        private final byte[] token = new byte[TOKEN_SIZE];
+        private final Random random = new Random();
+
+        private Cipher authorized;
+
+        long flows;
+        long failedReads;
+        long lockouts;
+
+        Flow(CipherAuthenticator authenticator, BiometricPrompt prompt, long deadline) {
+            this.authenticator = authenticator;
+            this.prompt = prompt;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Flow call() throws CustomException, GeneralSecurityException {
+            while (System.nanoTime() < deadline)
+                runFlow();
+            return this;
+        }
+
+        private void runFlow() throws CustomException, GeneralSecurityException {
+            authenticator.init();
+            authorized = null;
+            prompt.authenticate(authenticator.getPromptCipher(), this);
+            if (authorized == null)
+                return;
+
+            authenticator.onAuthenticated();
+            random.nextBytes(token);
+            byte[] ciphertext = authorized.doFinal(token);
+
+            authenticator.initDecrypt(authorized.getIV());
+            if (!Arrays.equals(token, authenticator.getCipher().doFinal(ciphertext)))
+                throw new IllegalStateException("Decrypted token does not match");
+            flows++;
+        }
+
+        @Override
+        public void onAuthenticationSucceeded(Cipher cipher) {
+            authorized = cipher;
+        }
+
+        @Override
+        public void onAuthenticationFailed() {
+            failedReads++;
+        }
+
+        @Override
+        public void onAuthenticationHelp(int helpCode, CharSequence helpString) {
+        }
+
+        @Override
+        public void onAuthenticationError(int errorCode, CharSequence errString) {
+            lockouts++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        double failureRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+
+        System.out.println(String.format("%d threads, %d s, failure rate %.2f", threads, seconds, failureRate));
+        System.out.println(new LoadSimulation(threads, TimeUnit.SECONDS.toMillis(seconds), failureRate).run());
+    }
+}
@@ -0,0 +1,9 @@
+package com.fingerprint;
+
+/**
+ * Key store keys that require user authentication can only be created behind a secure lock screen.
+ */
+public interface LockScreen {
+
+    boolean isSecure();
+}
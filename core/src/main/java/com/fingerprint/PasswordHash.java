@@ -0,0 +1,140 @@
+package com.fingerprint;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * A salted PBKDF2 hash of the password, with the iteration count it was computed with.
+ * HMAC-SHA1 is the only PBKDF2 variant available on every supported API level; the salt and the
+ * calibrated iteration count are what make it costly to attack.
+ */
+public class PasswordHash {
+
+    public static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    private static final int VERSION = 1;
+    private static final int SALT_SIZE = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[] salt;
+    private final int iterations;
+    private final byte[] hash;
+
+    private PasswordHash(byte[] salt, int iterations, byte[] hash) {
+        this.salt = salt;
+        this.iterations = iterations;
+        this.hash = hash;
+    }
+
+    /**
+     * Hashes {@code password} with a new random salt.
+     */
+    public static PasswordHash create(char[] password, int iterations) throws CustomException {
+        byte[] salt = new byte[SALT_SIZE];
+        RANDOM.nextBytes(salt);
+        return new PasswordHash(salt, iterations, derive(password, salt, iterations));
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Hashes {@code password} with the same salt and iterations and compares in constant time.
+     */
+    public boolean matches(char[] password) throws CustomException {
+        return MessageDigest.isEqual(hash, derive(password, salt, iterations));
+    }
+
+    static byte[] derive(char[] password, byte[] salt, int iterations) throws CustomException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new CustomException("Failed to hash password", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Writes a temporary file, syncs it and renames it over {@code file}, so a crash leaves either
+     * the old hash or the new one, never a truncated file that would lock the user out.
+     */
+    public void writeTo(File file) throws CustomException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            FileOutputStream stream = new FileOutputStream(tmp);
+            out = new DataOutputStream(stream);
+            out.writeByte(VERSION);
+            out.writeInt(iterations);
+            out.writeShort(salt.length);
+            out.write(salt);
+            out.writeShort(hash.length);
+            out.write(hash);
+            out.flush();
+            stream.getFD().sync();
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(file))
+                throw new IOException("Failed to replace " + file);
+        } catch (IOException e) {
+            throw new CustomException("Failed to store password", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * @throws CustomException if the file is not a hash this class wrote, e.g. with an iteration
+     *                         count outside {@link PasswordVerifier#MIN_ITERATIONS} and
+     *                         {@link PasswordVerifier#MAX_ITERATIONS}
+     */
+    public static PasswordHash readFrom(File file) throws CustomException {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readUnsignedByte() != VERSION)
+                throw new CustomException("Unsupported password version");
+
+            int iterations = in.readInt();
+            if (iterations < PasswordVerifier.MIN_ITERATIONS || iterations > PasswordVerifier.MAX_ITERATIONS)
+                throw new CustomException("Corrupt password file");
+            byte[] salt = new byte[in.readUnsignedShort()];
+            in.readFully(salt);
+            byte[] hash = new byte[in.readUnsignedShort()];
+            if (salt.length == 0 || hash.length != HASH_BITS / 8)
+                throw new CustomException("Corrupt password file");
+            in.readFully(hash);
+            return new PasswordHash(salt, iterations, hash);
+        } catch (IOException e) {
+            throw new CustomException("Failed to read password", e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
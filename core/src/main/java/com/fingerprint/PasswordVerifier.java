@@ -0,0 +1,147 @@
+package com.fingerprint;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Checks the store password against the {@link PasswordHash} kept on disk. The first password
+ * set becomes the stored one.
+ * <p>
+ * Hashing is deliberately slow, so the async methods run it on a background thread and deliver
+ * the result on the callback executor. The iteration count is calibrated once per device, when
+ * the password is first set, so that one hash takes about {@link #setTargetMillis(long) the
+ * target time}.
+ */
+public class PasswordVerifier {
+
+    public interface Callback {
+        void onPasswordChecked(boolean matches);
+        void onPasswordError(CustomException e);
+    }
+
+    public static final long TARGET_MILLIS_DEFAULT = 250;
+    public static final int MIN_ITERATIONS = 10000;
+    public static final int MAX_ITERATIONS = 10000000;
+
+    private static final int CALIBRATION_ITERATIONS = 2000;
+    private static final int CALIBRATION_ROUNDS = 3;
+
+    private final File file;
+    private final Executor callbackExecutor;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PasswordVerifier");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private long targetMillis = TARGET_MILLIS_DEFAULT;
+    private PasswordHash passwordHash;
+
+    public PasswordVerifier(File file, Executor callbackExecutor) {
+        this.file = file;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * How long one hash should take on this device. Only affects passwords set afterwards.
+     */
+    public synchronized void setTargetMillis(long targetMillis) {
+        this.targetMillis = targetMillis;
+    }
+
+    public synchronized boolean hasPassword() throws CustomException {
+        return getPasswordHash() != null;
+    }
+
+    /**
+     * Hashes and stores {@code password}, calibrating the iteration count first.
+     */
+    public synchronized void setPassword(char[] password) throws CustomException {
+        PasswordHash hash = PasswordHash.create(password, calibrate(targetMillis));
+        hash.writeTo(file);
+        passwordHash = hash;
+    }
+
+    /**
+     * @return whether {@code password} matches the stored one; the first password is stored and
+     * matches
+     */
+    public synchronized boolean verify(char[] password) throws CustomException {
+        PasswordHash hash = getPasswordHash();
+        if (hash == null) {
+            setPassword(password);
+            return true;
+        }
+        return hash.matches(password);
+    }
+
+    /**
+     * Runs {@link #verify(char[])} in the background and then wipes {@code password}.
+     */
+    public Future<?> verifyAsync(final char[] password, final Callback callback) {
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    postChecked(callback, verify(password));
+                } catch (CustomException e) {
+                    postError(callback, e);
+                } finally {
+                    Arrays.fill(password, '\0');
+                }
+            }
+        });
+    }
+
+    private void postChecked(final Callback callback, final boolean matches) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPasswordChecked(matches);
+            }
+        });
+    }
+
+    private void postError(final Callback callback, final CustomException e) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPasswordError(e);
+            }
+        });
+    }
+
+    /**
+     * Times a short hash and scales the iteration count to {@code targetMillis}, between
+     * {@link #MIN_ITERATIONS} and {@link #MAX_ITERATIONS}. The fastest of a few rounds is used, so
+     * a one-off stall does not lower the cost.
+     */
+    public static int calibrate(long targetMillis) throws CustomException {
+        char[] probe = "calibration".toCharArray();
+        byte[] salt = new byte[16];
+        long fastestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+            long start = System.nanoTime();
+            PasswordHash.derive(probe, salt, CALIBRATION_ITERATIONS);
+            fastestNanos = Math.min(fastestNanos, System.nanoTime() - start);
+        }
+
+        double iterations = CALIBRATION_ITERATIONS * (targetMillis * 1e6 / Math.max(fastestNanos, 1));
+        return (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+    }
+
+    private PasswordHash getPasswordHash() throws CustomException {
+        if (passwordHash == null && file.exists())
+            passwordHash = PasswordHash.readFrom(file);
+        return passwordHash;
+    }
+}
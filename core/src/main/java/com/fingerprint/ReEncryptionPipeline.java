@@ -0,0 +1,271 @@
+package com.fingerprint;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Moves the records of a {@link VersionedRecordStore} to the current version of a {@link KeyRing},
+ * e.g. after the key store key was invalidated and the ring was rotated.
+ * <p>
+ * Records are re-encrypted in bounded batches on the worker, one batch per task, so other work on
+ * the worker is not starved. After every batch the progress is written to a checkpoint file; a
+ * pipeline started later, even in another process, resumes after the last record it finished.
+ * The ids are listed once per run, on the first batch; records written after that already use the
+ * current version. Records stay readable through their version tag the whole time. Plaintexts pass
+ * through a pooled direct buffer, which is wiped after every record.
+ */
+public class ReEncryptionPipeline {
+
+    public interface Callback {
+        /**
+         * @param remaining records not examined yet, including ones already on the current version
+         */
+        void onProgress(int migrated, int remaining);
+
+        void onFinished(int migrated, int failed);
+
+        void onError(CustomException e);
+    }
+
+    public static final int BATCH_SIZE_DEFAULT = 64;
+
+    private static final int VERSION = 1;
+
+    private final VersionedRecordStore store;
+    private final File checkpointFile;
+    private final Executor worker;
+    private final int batchSize;
+    private final BufferPool buffers = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 1);
+
+    private boolean running;
+    private volatile boolean cancelled;
+
+    public ReEncryptionPipeline(VersionedRecordStore store, File checkpointFile, Executor worker, int batchSize) {
+        this.store = store;
+        this.checkpointFile = checkpointFile;
+        this.worker = worker;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Migrates every record to the current version of {@code keyRing}, resuming from the checkpoint
+     * if it was written for the same version. Once every record is migrated the older versions are
+     * retired from the ring.
+     *
+     * @return false if the pipeline is already running
+     */
+    public synchronized boolean start(final KeyRing keyRing, final Callback callback) {
+        if (running)
+            return false;
+        running = true;
+        cancelled = false;
+
+        Checkpoint checkpoint = readCheckpoint();
+        if (checkpoint == null || checkpoint.target != keyRing.getCurrentVersion())
+            checkpoint = new Checkpoint(keyRing.getCurrentVersion(), "", 0, 0);
+
+        schedule(keyRing, checkpoint, new Cursor(), callback);
+        return true;
+    }
+
+    /**
+     * Stops after the batch in progress. The checkpoint is kept, so a later {@link #start} resumes.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return true if a migration was interrupted and has not finished yet
+     */
+    public boolean hasCheckpoint() {
+        return checkpointFile.exists();
+    }
+
+    private void schedule(final KeyRing keyRing, final Checkpoint checkpoint, final Cursor cursor,
+                          final Callback callback) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled) {
+                    stopped();
+                    return;
+                }
+                try {
+                    runBatch(keyRing, checkpoint, cursor, callback);
+                } catch (CustomException e) {
+                    stopped();
+                    callback.onError(e);
+                }
+            }
+        });
+    }
+
+    private void runBatch(KeyRing keyRing, Checkpoint checkpoint, Cursor cursor, Callback callback)
+            throws CustomException {
+        if (cursor.ids == null) {
+            cursor.ids = store.ids();
+            cursor.next = firstAfter(cursor.ids, checkpoint.lastId);
+        }
+        List<String> ids = cursor.ids;
+        int next = cursor.next;
+
+        List<String> batchIds = new ArrayList<>(batchSize);
+        List<VersionedRecordStore.Record> batch = new ArrayList<>(batchSize);
+        while (next < ids.size() && batch.size() < batchSize) {
+            String id = ids.get(next++);
+            VersionedRecordStore.Record record = store.readRecord(id);
+            if (record != null && record.version != checkpoint.target) {
+                batchIds.add(id);
+                batch.add(record);
+            }
+        }
+
+        int migrated = 0;
+        int failed = 0;
+        DataKeySession target = keyRing.get(checkpoint.target);
+        for (int i = 0; i < batch.size(); i++) {
+            VersionedRecordStore.Record record = batch.get(i);
+            if (!keyRing.contains(record.version)) {
+                failed++;
+                continue;
+            }
+
+            ByteBuffer plaintext = buffers.acquire(record.ciphertext.length);
+            try {
+                keyRing.get(record.version).decrypt(ByteBuffer.wrap(record.ciphertext), plaintext);
+                plaintext.flip();
+                byte[] ciphertext = new byte[DataKeySession.getRecordLength(plaintext.remaining())];
+                target.encrypt(plaintext, ByteBuffer.wrap(ciphertext));
+                if (store.replace(batchIds.get(i), record.version, checkpoint.target, ciphertext))
+                    migrated++;
+            } catch (CustomException e) {
+                failed++;
+            } finally {
+                buffers.release(plaintext);
+            }
+        }
+
+        Checkpoint progress = new Checkpoint(checkpoint.target,
+                next > 0 ? ids.get(next - 1) : checkpoint.lastId,
+                checkpoint.migrated + migrated, checkpoint.failed + failed);
+        cursor.next = next;
+
+        if (next < ids.size() && !cancelled) {
+            writeCheckpoint(progress);
+            callback.onProgress(progress.migrated, ids.size() - next);
+            schedule(keyRing, progress, cursor, callback);
+            return;
+        }
+
+        if (next < ids.size()) {
+            writeCheckpoint(progress);
+            stopped();
+            return;
+        }
+
+        checkpointFile.delete();
+        if (progress.failed == 0) {
+            for (int version : keyRing.getVersions())
+                keyRing.retire(version);
+        }
+        stopped();
+        callback.onFinished(progress.migrated, progress.failed);
+    }
+
+    private synchronized void stopped() {
+        running = false;
+    }
+
+    private static int firstAfter(List<String> sortedIds, String lastId) {
+        int index = Collections.binarySearch(sortedIds, lastId);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * The ids of one run and the next one to examine, carried from batch to batch.
+     */
+    private static class Cursor {
+        List<String> ids;
+        int next;
+    }
+
+    private static class Checkpoint {
+        final int target;
+        final String lastId;
+        final int migrated;
+        final int failed;
+
+        Checkpoint(int target, String lastId, int migrated, int failed) {
+            this.target = target;
+            this.lastId = lastId;
+            this.migrated = migrated;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * @return null if there is no checkpoint or it cannot be read, so the migration starts over
+     */
+    private Checkpoint readCheckpoint() {
+        if (!checkpointFile.exists())
+            return null;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(checkpointFile));
+            if (in.readUnsignedByte() != VERSION)
+                return null;
+            return new Checkpoint(in.readInt(), in.readUTF(), in.readInt(), in.readInt());
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeCheckpoint(Checkpoint checkpoint) throws CustomException {
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeByte(VERSION);
+            out.writeInt(checkpoint.target);
+            out.writeUTF(checkpoint.lastId);
+            out.writeInt(checkpoint.migrated);
+            out.writeInt(checkpoint.failed);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            throw new CustomException("Failed to write migration checkpoint", e);
+        } finally {
+            closeQuietly(out);
+        }
+
+        if (!tmp.renameTo(checkpointFile))
+            throw new CustomException("Failed to replace migration checkpoint");
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.fingerprint;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKey;
+
+/**
+ * In-memory key store for the desktop JVM. Like {@code AndroidKeyStore} it takes no passwords and
+ * has nothing to load or store, so key lookups cost a map access rather than the password based
+ * key derivation of the file based JCE key stores.
+ */
+public class SoftwareKeyStore extends KeyStoreSpi {
+
+    public static final String TYPE = "SoftwareKeyStore";
+
+    private static final Provider PROVIDER = new Provider("FingerprintSoftware", 1.0,
+            "In-memory key store") {
+        {
+            put("KeyStore." + TYPE, SoftwareKeyStore.class.getName());
+        }
+    };
+
+    /**
+     * A key pair without a certificate, which {@link KeyStore.PrivateKeyEntry} would require.
+     */
+    public static class KeyPairEntry implements KeyStore.Entry {
+
+        private final KeyPair keyPair;
+
+        public KeyPairEntry(KeyPair keyPair) {
+            this.keyPair = keyPair;
+        }
+
+        public KeyPair getKeyPair() {
+            return keyPair;
+        }
+    }
+
+    private final Map<String, Key> keys = new ConcurrentHashMap<>();
+    private final Map<String, PublicKey> publicKeys = new ConcurrentHashMap<>();
+    private final Map<String, Date> creationDates = new ConcurrentHashMap<>();
+
+    public static KeyStore getInstance() throws KeyStoreException {
+        return KeyStore.getInstance(TYPE, PROVIDER);
+    }
+
+    @Override
+    public Key engineGetKey(String alias, char[] password) {
+        return keys.get(alias);
+    }
+
+    @Override
+    public Certificate[] engineGetCertificateChain(String alias) {
+        return null;
+    }
+
+    @Override
+    public Certificate engineGetCertificate(String alias) {
+        return null;
+    }
+
+    @Override
+    public Date engineGetCreationDate(String alias) {
+        return creationDates.get(alias);
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+        keys.put(alias, key);
+        publicKeys.remove(alias);
+        creationDates.put(alias, new Date());
+    }
+
+    /**
+     * Takes secret keys and {@link KeyPairEntry key pairs} without a password, as
+     * {@code AndroidKeyStore} does.
+     */
+    @Override
+    public void engineSetEntry(String alias, KeyStore.Entry entry, KeyStore.ProtectionParameter protection)
+            throws KeyStoreException {
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            engineSetKeyEntry(alias, ((KeyStore.SecretKeyEntry) entry).getSecretKey(), null, null);
+        } else if (entry instanceof KeyPairEntry) {
+            KeyPair keyPair = ((KeyPairEntry) entry).getKeyPair();
+            engineSetKeyEntry(alias, keyPair.getPrivate(), null, null);
+            publicKeys.put(alias, keyPair.getPublic());
+        } else {
+            throw new KeyStoreException("Only secret keys and key pairs are supported");
+        }
+    }
+
+    @Override
+    public KeyStore.Entry engineGetEntry(String alias, KeyStore.ProtectionParameter protection)
+            throws KeyStoreException {
+        PublicKey publicKey = publicKeys.get(alias);
+        Key key = keys.get(alias);
+        if (publicKey != null && key instanceof PrivateKey)
+            return new KeyPairEntry(new KeyPair(publicKey, (PrivateKey) key));
+        if (key instanceof SecretKey)
+            return new KeyStore.SecretKeyEntry((SecretKey) key);
+        return null;
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) throws KeyStoreException {
+        throw new KeyStoreException("Encoded keys are not supported");
+    }
+
+    @Override
+    public void engineSetCertificateEntry(String alias, Certificate cert) throws KeyStoreException {
+        throw new KeyStoreException("Certificates are not supported");
+    }
+
+    @Override
+    public void engineDeleteEntry(String alias) {
+        keys.remove(alias);
+        publicKeys.remove(alias);
+        creationDates.remove(alias);
+    }
+
+    @Override
+    public Enumeration<String> engineAliases() {
+        return Collections.enumeration(keys.keySet());
+    }
+
+    @Override
+    public boolean engineContainsAlias(String alias) {
+        return keys.containsKey(alias);
+    }
+
+    @Override
+    public int engineSize() {
+        return keys.size();
+    }
+
+    @Override
+    public boolean engineIsKeyEntry(String alias) {
+        return keys.containsKey(alias);
+    }
+
+    @Override
+    public boolean engineIsCertificateEntry(String alias) {
+        return false;
+    }
+
+    @Override
+    public String engineGetCertificateAlias(Certificate cert) {
+        return null;
+    }
+
+    @Override
+    public void engineStore(OutputStream stream, char[] password) {
+    }
+
+    @Override
+    public void engineLoad(InputStream stream, char[] password) {
+    }
+}
@@ -0,0 +1,169 @@
+package com.fingerprint;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encrypted records in a directory, one file per record, each tagged with the {@link KeyRing}
+ * version it was encrypted with. Reads pick the key by the tag, so records of old and new versions
+ * can be read side by side while the {@link ReEncryptionPipeline} migrates them.
+ * <p>
+ * Ids are file names: letters, digits, {@code '-'} and {@code '_'}. Writes go to a temporary file
+ * that replaces the record, so a record is never half written.
+ */
+public class VersionedRecordStore {
+
+    private static final String SUFFIX = ".rec";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File directory;
+
+    public VersionedRecordStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Encrypts {@code plaintext} with the current version of {@code keyRing}.
+     */
+    public synchronized void put(String id, byte[] plaintext, KeyRing keyRing) throws CustomException {
+        int version = keyRing.getCurrentVersion();
+        write(id, version, keyRing.get(version).encrypt(plaintext));
+    }
+
+    /**
+     * Decrypts the record with the version it is tagged with.
+     *
+     * @return null if there is no such record
+     */
+    public byte[] get(String id, KeyRing keyRing) throws CustomException {
+        Record record = readRecord(id);
+        if (record == null)
+            return null;
+        return keyRing.get(record.version).decrypt(record.ciphertext);
+    }
+
+    /**
+     * @return the version the record is tagged with, or 0 if there is no such record
+     */
+    public int getVersion(String id) throws CustomException {
+        Record record = readRecord(id);
+        return record != null ? record.version : 0;
+    }
+
+    /**
+     * @return the highest version any record is tagged with, or 0 if the store is empty
+     */
+    public int getLatestVersion() throws CustomException {
+        int latest = 0;
+        for (String id : ids())
+            latest = Math.max(latest, getVersion(id));
+        return latest;
+    }
+
+    public synchronized boolean delete(String id) {
+        return fileOf(id).delete();
+    }
+
+    /**
+     * Every id, sorted, so a migration can checkpoint the last one it processed.
+     */
+    public List<String> ids() {
+        List<String> ids = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SUFFIX))
+                    ids.add(name.substring(0, name.length() - SUFFIX.length()));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    static class Record {
+        final int version;
+        final byte[] ciphertext;
+
+        Record(int version, byte[] ciphertext) {
+            this.version = version;
+            this.ciphertext = ciphertext;
+        }
+    }
+
+    Record readRecord(String id) throws CustomException {
+        File file = fileOf(id);
+        if (!file.exists())
+            return null;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            int version = in.readInt();
+            byte[] ciphertext = new byte[(int) file.length() - 4];
+            in.readFully(ciphertext);
+            return new Record(version, ciphertext);
+        } catch (IOException e) {
+            throw new CustomException("Failed to read record " + id, e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Replaces a record re-encrypted by the migration, unless it was rewritten or deleted since the
+     * migration read it.
+     *
+     * @return false if the record is no longer tagged with {@code fromVersion}
+     */
+    synchronized boolean replace(String id, int fromVersion, int toVersion, byte[] ciphertext) throws CustomException {
+        if (getVersion(id) != fromVersion)
+            return false;
+        write(id, toVersion, ciphertext);
+        return true;
+    }
+
+    void write(String id, int version, byte[] ciphertext) throws CustomException {
+        if (!id.matches("[A-Za-z0-9_-]+"))
+            throw new CustomException("Invalid record id " + id);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new CustomException("Failed to create " + directory);
+
+        File tmp = new File(directory, id + TMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeInt(version);
+            out.write(ciphertext);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            throw new CustomException("Failed to write record " + id, e);
+        } finally {
+            closeQuietly(out);
+        }
+
+        if (!tmp.renameTo(fileOf(id)))
+            throw new CustomException("Failed to replace record " + id);
+    }
+
+    private File fileOf(String id) {
+        return new File(directory, id + SUFFIX);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
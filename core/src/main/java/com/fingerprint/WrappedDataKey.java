@@ -0,0 +1,91 @@
+package com.fingerprint;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A data-encryption key encrypted by the key store key, plus the IV needed to unwrap it.
+ */
+public class WrappedDataKey {
+
+    private static final int VERSION = 1;
+
+    private final byte[] iv;
+    private final byte[] wrappedKey;
+
+    public WrappedDataKey(byte[] iv, byte[] wrappedKey) {
+        this.iv = iv;
+        this.wrappedKey = wrappedKey;
+    }
+
+    public byte[] getIv() {
+        return iv;
+    }
+
+    public byte[] getWrappedKey() {
+        return wrappedKey;
+    }
+
+    /**
+     * Writes to a temporary file first and renames it over {@code file}, so a crash on the way
+     * leaves the previous key in place rather than a truncated one.
+     */
+    public void writeTo(File file) throws CustomException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            FileOutputStream stream = new FileOutputStream(tmp);
+            out = new DataOutputStream(stream);
+            out.writeByte(VERSION);
+            out.writeShort(iv.length);
+            out.write(iv);
+            out.writeShort(wrappedKey.length);
+            out.write(wrappedKey);
+            out.flush();
+            // On disk before the rename, which may otherwise land first and point at nothing.
+            stream.getFD().sync();
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(file))
+                throw new IOException("Failed to replace " + file);
+        } catch (IOException e) {
+            throw new CustomException("Failed to store data key", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    public static WrappedDataKey readFrom(File file) throws CustomException {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readUnsignedByte() != VERSION)
+                throw new CustomException("Unsupported data key version");
+
+            byte[] iv = new byte[in.readUnsignedShort()];
+            in.readFully(iv);
+            byte[] wrappedKey = new byte[in.readUnsignedShort()];
+            in.readFully(wrappedKey);
+            return new WrappedDataKey(iv, wrappedKey);
+        } catch (IOException e) {
+            throw new CustomException("Failed to read data key", e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.fingerprint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class AuditLogTest {
+
+    private static final int CAPACITY = 1024;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("auth_audit", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void full_keepsNewestRecordsInOrder() throws Exception {
+        AuditLog log = AuditLog.open(file, CAPACITY);
+        for (int i = 0; i < CAPACITY * 3 + 10; i++)
+            log.record(AuditLog.Event.FINGERPRINT_HELP, i);
+
+        List<AuditLog.Entry> entries = log.read();
+        log.close();
+
+        assertEquals(CAPACITY, entries.size());
+        assertEquals(CAPACITY * 2 + 10, entries.get(0).code);
+        for (int i = 1; i < entries.size(); i++)
+            assertEquals(entries.get(i - 1).sequence + 1, entries.get(i).sequence);
+        assertEquals(AuditLog.HEADER_SIZE + CAPACITY * AuditLog.RECORD_SIZE, file.length());
+    }
+
+    @Test
+    public void reopen_keepsRecordsAndSequence() throws Exception {
+        AuditLog log = AuditLog.open(file, CAPACITY);
+        log.record(AuditLog.Event.FINGERPRINT_FAILED);
+        log.record(AuditLog.Event.FINGERPRINT_ERROR, 7);
+        log.close();
+
+        log = AuditLog.open(file, CAPACITY);
+        log.record(AuditLog.Event.PASSWORD_SUCCEEDED);
+        List<AuditLog.Entry> entries = log.read();
+
+        StringWriter csv = new StringWriter();
+        log.export(csv);
+        log.close();
+
+        assertEquals(3, entries.size());
+        assertEquals(AuditLog.Event.FINGERPRINT_ERROR, entries.get(1).event);
+        assertEquals(7, entries.get(1).code);
+        assertEquals(3, entries.get(2).sequence);
+        assertTrue(csv.toString().contains(",FINGERPRINT_ERROR,7\n"));
+    }
+
+    @Test
+    public void concurrentWriters_loseNothing() throws Exception {
+        final int threads = 4;
+        final int perThread = 10000;
+        final AuditLog log = AuditLog.open(file, threads * perThread);
+
+        ExecutorService writers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                results.add(writers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < perThread; i++)
+                            log.record(AuditLog.Event.FINGERPRINT_HELP, thread);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> result : results)
+                result.get();
+        } finally {
+            writers.shutdown();
+        }
+
+        int[] perWriter = new int[threads];
+        for (AuditLog.Entry entry : log.read())
+            perWriter[entry.code]++;
+        log.close();
+
+        for (int count : perWriter)
+            assertEquals(perThread, count);
+    }
+
+    @Test
+    public void record_doesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threads = TestSupport.threadMXBean();
+        if (threads == null)
+            return;
+
+        AuditLog log = AuditLog.open(file, CAPACITY);
+        for (int i = 0; i < 100000; i++)
+            log.record(AuditLog.Event.FINGERPRINT_FAILED);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; i++)
+            log.record(AuditLog.Event.FINGERPRINT_FAILED, i);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        log.close();
+
+        assertTrue(allocated + " bytes allocated", allocated < 10000);
+    }
+}
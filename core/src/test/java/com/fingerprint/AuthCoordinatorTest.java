@@ -0,0 +1,132 @@
+package com.fingerprint;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+
+import static org.junit.Assert.*;
+
+public class AuthCoordinatorTest {
+
+    private static final int CALLERS = 16;
+
+    private final AuthCoordinator coordinator = new AuthCoordinator(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    });
+
+    /**
+     * Counts the cipher inits and leaves the prompt open until the test completes it.
+     */
+    private final AtomicInteger cipherInits = new AtomicInteger();
+    private final AuthCoordinator.Flow flow = new AuthCoordinator.Flow() {
+        @Override
+        public void start(AuthFuture future) {
+            cipherInits.incrementAndGet();
+        }
+    };
+
+    @Test
+    public void concurrentRequests_shareOneFlow() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        final CountDownLatch ready = new CountDownLatch(CALLERS);
+        final CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<AuthFuture>> requests = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                requests.add(callers.submit(new Callable<AuthFuture>() {
+                    @Override
+                    public AuthFuture call() throws Exception {
+                        ready.countDown();
+                        go.await();
+                        return coordinator.authenticate(flow);
+                    }
+                }));
+            }
+            ready.await();
+            go.countDown();
+
+            AuthFuture first = requests.get(0).get();
+            for (Future<AuthFuture> request : requests)
+                assertSame(first, request.get());
+
+            AuthResult result = AuthResult.password();
+            assertTrue(first.succeed(result));
+            assertSame(result, first.get());
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertEquals(1, cipherInits.get());
+        assertEquals(1, coordinator.getFlows());
+        assertEquals(CALLERS, coordinator.getRequests());
+    }
+
+    @Test
+    public void joinedCallers_onlyFirstTakesTheCipher() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        AuthFuture first = coordinator.authenticate(flow);
+        AuthFuture joined = coordinator.authenticate(flow);
+        assertTrue(first.succeed(AuthResult.fingerprint(cipher)));
+
+        assertSame(cipher, first.get().takeCipher());
+        assertNull(joined.get().takeCipher());
+    }
+
+    @Test
+    public void completedFlow_nextRequestStartsAnother() throws Exception {
+        AuthFuture first = coordinator.authenticate(flow);
+        first.cancel();
+
+        AuthFuture second = coordinator.authenticate(flow);
+
+        assertNotSame(first, second);
+        assertEquals(2, cipherInits.get());
+    }
+
+    @Test
+    public void callbacks_getTheSameOutcome() throws Exception {
+        final List<String> outcomes = new ArrayList<>();
+        AuthFuture.Callback callback = new AuthFuture.Callback() {
+            @Override
+            public void onAuthenticated(AuthResult result) {
+                outcomes.add("authenticated");
+            }
+
+            @Override
+            public void onAuthenticationError(CustomException e) {
+                outcomes.add(e.getMessage());
+            }
+
+            @Override
+            public void onAuthenticationCancelled() {
+                outcomes.add("cancelled");
+            }
+        };
+
+        AuthFuture future = coordinator.authenticate(new AuthCoordinator.Flow() {
+            @Override
+            public void start(AuthFuture future) throws CustomException {
+                throw new CustomException("Key store is not available");
+            }
+        });
+        future.addCallback(callback);
+        coordinator.authenticate(flow).addCallback(callback);
+
+        assertFalse(future.cancel());
+        assertEquals("Key store is not available", outcomes.get(0));
+        assertEquals(1, outcomes.size());
+    }
+}
@@ -0,0 +1,148 @@
+package com.fingerprint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * The {@link AuthFailure} codes {@link CipherAuthenticator} fails with on the in-memory backends.
+ */
+public class AuthFailureTest {
+
+    private final InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+    private final InMemoryBiometricPrompt prompt = new InMemoryBiometricPrompt(keyStore);
+
+    private File registryFile;
+    private CipherAuthenticator authenticator;
+
+    @Before
+    public void setUp() throws IOException {
+        AuthFailure.resetCounts();
+        registryFile = File.createTempFile("key_registry", ".idx");
+        registryFile.delete();
+        authenticator = new CipherAuthenticator(keyStore, prompt, new InMemoryLockScreen(), registryFile,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        registryFile.delete();
+    }
+
+    @Test
+    public void expectedFailure_isSharedAndCounted() {
+        prompt.setEnrolled(false);
+
+        CustomException first = createFailure();
+        CustomException second = createFailure();
+
+        assertSame(first, second);
+        assertEquals(AuthFailure.NO_ENROLLED_BIOMETRICS, first.getFailure());
+        assertTrue(first.isExpected());
+        assertTrue(first.getMessage().startsWith("Has not Enrolled Fingerprints."));
+        assertEquals(0, first.getStackTrace().length);
+        assertNull(first.getCause());
+        assertEquals(2, AuthFailure.NO_ENROLLED_BIOMETRICS.getCount());
+        assertEquals(0, AuthFailure.ERROR.getCount());
+    }
+
+    /**
+     * Decrypts, since {@code init()} may take an encrypt cipher the pool prepared before the
+     * enrollment.
+     */
+    @Test
+    public void invalidatedKey_keepsItsExceptionType() throws Exception {
+        authenticator.create();
+        keyStore.enrollBiometric();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                authenticator.initDecrypt(new byte[12]);
+                fail();
+            } catch (KeyInvalidatedException e) {
+                assertEquals(AuthFailure.KEY_INVALIDATED, e.getFailure());
+            }
+        }
+        assertEquals(2, AuthFailure.KEY_INVALIDATED.getCount());
+        assertEquals("failures key_invalidated=2", AuthMetrics.failureCounts());
+    }
+
+    @Test
+    public void cancelledAuthentication_isExpected() throws Exception {
+        AuthFuture future = new AuthFuture(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        future.cancel();
+
+        try {
+            future.get();
+            fail();
+        } catch (CustomException e) {
+            assertEquals(AuthFailure.CANCELLED, e.getFailure());
+        }
+        assertEquals(1, AuthFailure.CANCELLED.getCount());
+        assertEquals(0, AuthFailure.ERROR.getCount());
+    }
+
+    @Test
+    public void error_keepsStackTraceAndCause() {
+        IllegalStateException cause = new IllegalStateException();
+        CustomException e = new CustomException("Failed", cause);
+
+        assertEquals(AuthFailure.ERROR, e.getFailure());
+        assertFalse(e.isExpected());
+        assertSame(cause, e.getCause());
+        assertTrue(e.getStackTrace().length > 0);
+        assertEquals(1, AuthFailure.ERROR.getCount());
+    }
+
+    @Test
+    public void expectedFailure_keepsNothingAttached() {
+        CustomException e = AuthFailure.KEY_STORE_UNAVAILABLE.raise();
+
+        e.addSuppressed(new IllegalStateException());
+        e.fillInStackTrace();
+
+        assertEquals(0, e.getSuppressed().length);
+        assertEquals(0, e.getStackTrace().length);
+        try {
+            e.setStackTrace(new Throwable().getStackTrace());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, e.getStackTrace().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void expectedFailure_refusesCause() {
+        AuthFailure.KEY_STORE_UNAVAILABLE.raise().initCause(new IllegalStateException());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void error_isNotPreallocated() {
+        AuthFailure.ERROR.raise();
+    }
+
+    private CustomException createFailure() {
+        try {
+            authenticator.create();
+            throw new AssertionError("create() succeeded");
+        } catch (CustomException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.fingerprint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AuthMetricsTest {
+
+    @Before
+    public void setUp() {
+        AuthMetrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        AuthMetrics.setEnabled(false);
+        AuthMetrics.reset();
+    }
+
+    @Test
+    public void bucketBounds_coverEveryValue() {
+        for (long micros = 0; micros < 100000; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(micros <= LatencyHistogram.bucketUpperMicros(bucket));
+            if (bucket > 0)
+                assertTrue(micros > LatencyHistogram.bucketUpperMicros(bucket - 1));
+        }
+    }
+
+    @Test
+    public void percentiles_withinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMaxMicros());
+        assertBetween(500, 625, snapshot.getPercentileMicros(50));
+        assertBetween(990, 1000, snapshot.getPercentileMicros(99));
+        assertEquals(1000, snapshot.getPercentileMicros(100));
+    }
+
+    @Test
+    public void disabled_recordsNothing() throws Exception {
+        assertEquals(AuthMetrics.DISABLED, AuthMetrics.start());
+
+        TestSupport.newAuthenticator(new InMemoryKeyStoreBackend(), TestSupport.newRegistryFile()).create();
+
+        assertEquals(0, AuthMetrics.snapshot(AuthMetrics.Stage.CREATE).getCount());
+    }
+
+    @Test
+    public void enabled_recordsCreateStages() throws Exception {
+        AuthMetrics.setEnabled(true);
+
+        CipherAuthenticator authenticator = TestSupport.newAuthenticator(new InMemoryKeyStoreBackend(),
+                TestSupport.newRegistryFile());
+        authenticator.create();
+        authenticator.init();
+
+        assertEquals(1, AuthMetrics.snapshot(AuthMetrics.Stage.CREATE).getCount());
+        assertEquals(1, AuthMetrics.snapshot(AuthMetrics.Stage.KEY_STORE_LOAD).getCount());
+        assertEquals(1, AuthMetrics.snapshot(AuthMetrics.Stage.KEY_CHECK).getCount());
+        assertEquals(1, AuthMetrics.snapshot(AuthMetrics.Stage.KEY_CREATE).getCount());
+        assertEquals(1, AuthMetrics.snapshot(AuthMetrics.Stage.INIT).getCount());
+    }
+
+    @Test
+    public void dump_writesRecordedStages() throws Exception {
+        AuthMetrics.setEnabled(true);
+        AuthMetrics.stop(AuthMetrics.Stage.PROMPT, AuthMetrics.start());
+
+        File file = File.createTempFile("auth_metrics", ".txt");
+        try {
+            AuthMetrics.dump(file);
+
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                assertTrue(reader.readLine().startsWith("prompt"));
+                assertEquals("failures", reader.readLine());
+                assertNull(reader.readLine());
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
@@ -0,0 +1,137 @@
+package com.fingerprint;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AuthSettingsTest {
+
+    private static final String USE_FINGERPRINT = "use_fingerprint_to_authenticate_key";
+    private static final String SESSION_SECONDS = "auth_session_seconds_key";
+
+    /**
+     * Holds the load and every write until the test releases it.
+     */
+    private static class BlockingStore implements AuthSettings.Store {
+        final Map<String, Object> values = new HashMap<>();
+        final List<Map<String, Object>> writes = new ArrayList<>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(1);
+
+        BlockingStore() {
+            values.put(USE_FINGERPRINT, true);
+            values.put(SESSION_SECONDS, "0");
+        }
+
+        @Override
+        public Map<String, ?> load() {
+            await();
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public void write(Map<String, Object> changes) {
+            await();
+            values.putAll(changes);
+            writes.add(changes);
+            written.countDown();
+        }
+
+        private void await() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private final BlockingStore store = new BlockingStore();
+    private final List<AuthSettings.Snapshot> notified = new ArrayList<>();
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void get_waitsForTheLoadOnce() throws Exception {
+        AuthSettings settings = new AuthSettings(store, direct);
+        assertFalse(settings.isLoaded());
+
+        store.release.countDown();
+        AuthSettings.Snapshot snapshot = settings.get();
+
+        assertTrue(settings.isLoaded());
+        assertTrue(snapshot.getBoolean(USE_FINGERPRINT, false));
+        assertEquals("0", snapshot.getString(SESSION_SECONDS, null));
+        assertSame(snapshot, settings.get());
+    }
+
+    @Test
+    public void apply_isVisibleAtOnceAndWrittenInOneBatch() throws Exception {
+        AuthSettings settings = new AuthSettings(store, direct);
+        settings.edit().putBoolean(USE_FINGERPRINT, false).apply();
+        settings.edit().putString(SESSION_SECONDS, "30").apply();
+        settings.edit().putString(SESSION_SECONDS, "60").apply();
+
+        store.release.countDown();
+        AuthSettings.Snapshot snapshot = settings.get();
+        assertFalse(snapshot.getBoolean(USE_FINGERPRINT, true));
+        assertEquals("60", snapshot.getString(SESSION_SECONDS, null));
+
+        assertTrue(store.written.await(5, TimeUnit.SECONDS));
+        assertEquals(1, store.writes.size());
+        assertEquals("60", store.values.get(SESSION_SECONDS));
+        assertEquals(false, store.values.get(USE_FINGERPRINT));
+    }
+
+    @Test
+    public void close_writesPendingChangesFirst() throws Exception {
+        AuthSettings settings = new AuthSettings(store, direct);
+        settings.edit().putString(SESSION_SECONDS, "30").apply();
+        settings.close();
+
+        store.release.countDown();
+        assertTrue(store.written.await(5, TimeUnit.SECONDS));
+        assertEquals("30", store.values.get(SESSION_SECONDS));
+
+        settings.edit().putString(SESSION_SECONDS, "60").apply();
+        assertEquals("60", settings.get().getString(SESSION_SECONDS, null));
+        assertEquals("30", store.values.get(SESSION_SECONDS));
+        assertEquals(1, store.writes.size());
+    }
+
+    @Test
+    public void storeChange_swapsSnapshotAndKeepsPendingWrites() throws Exception {
+        AuthSettings settings = new AuthSettings(store, direct);
+        settings.addListener(new AuthSettings.Listener() {
+            @Override
+            public void onSettingsChanged(AuthSettings.Snapshot snapshot) {
+                notified.add(snapshot);
+            }
+        });
+        settings.edit().putString(SESSION_SECONDS, "30").apply();
+        AuthSettings.Snapshot before = notified.get(notified.size() - 1);
+
+        Map<String, Object> changed = new HashMap<>(store.values);
+        changed.put(USE_FINGERPRINT, false);
+        settings.onStoreChanged(changed);
+
+        AuthSettings.Snapshot after = notified.get(notified.size() - 1);
+        assertNotSame(before, after);
+        assertFalse(after.getBoolean(USE_FINGERPRINT, true));
+        assertEquals("30", after.getString(SESSION_SECONDS, null));
+        assertFalse(before.contains(USE_FINGERPRINT));
+        store.release.countDown();
+    }
+}
@@ -0,0 +1,164 @@
+package com.fingerprint;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    private static final int BUFFER_SIZE = 1024;
+    private static final int CAPACITY = 4;
+    private static final int OPERATIONS = 100000;
+    private static final int WINDOWS = 8;
+    private static final int WINDOW_OPERATIONS = 2000;
+
+    private final BufferPool pool = new BufferPool(BUFFER_SIZE, CAPACITY);
+
+    @Test
+    public void release_wipesAndReusesTheBuffer() {
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(BUFFER_SIZE, buffer.remaining());
+        while (buffer.hasRemaining())
+            buffer.put((byte) 0x5A);
+        buffer.flip();
+
+        pool.release(buffer);
+        ByteBuffer reused = pool.acquire();
+
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(BUFFER_SIZE, reused.limit());
+        for (int i = 0; i < BUFFER_SIZE; i++)
+            assertEquals(0, reused.get(i));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void pool_keepsAtMostItsCapacity() {
+        ByteBuffer[] buffers = new ByteBuffer[CAPACITY + 2];
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = pool.acquire();
+        ByteBuffer large = pool.acquire(BUFFER_SIZE + 1);
+        large.put((byte) 1);
+
+        for (ByteBuffer buffer : buffers)
+            pool.release(buffer);
+        pool.release(large);
+
+        assertEquals(CAPACITY, pool.getFreeCount());
+        assertEquals(0, large.get(0));
+        assertEquals(CAPACITY + 3, pool.getMisses());
+    }
+
+    @Test
+    public void acquireAndRelease_doNotAllocate() {
+        com.sun.management.ThreadMXBean threads = TestSupport.threadMXBean();
+        if (threads == null)
+            return;
+
+        cycle(OPERATIONS);
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        cycle(OPERATIONS);
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        assertTrue(allocated + " bytes allocated", allocated < 10000);
+    }
+
+    @Test
+    public void release_rejectsBufferReleasedTwice() {
+        ByteBuffer buffer = pool.acquire();
+        pool.release(buffer);
+        try {
+            pool.release(buffer);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        assertSame(buffer, pool.acquire());
+        assertNotSame(buffer, pool.acquire());
+    }
+
+    /**
+     * A record round trip through pooled buffers allocates no more per operation than the same
+     * round trip on preallocated buffers, so the pool adds nothing once warm. What both allocate is
+     * the cipher provider, which copies direct buffers through temporary arrays on the JVM. The
+     * sides alternate, and the pair least disturbed by JIT activity counts.
+     */
+    @Test
+    public void recordRoundTrip_addsNoAllocationsToTheCipher() throws Exception {
+        com.sun.management.ThreadMXBean threads = TestSupport.threadMXBean();
+        if (threads == null)
+            return;
+
+        DataKeySession session = DataKeySession.generate();
+        byte[] secret = new byte[BUFFER_SIZE / 2];
+        new Random(23).nextBytes(secret);
+        ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer record = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer plain = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        long thread = Thread.currentThread().getId();
+        long added = Long.MAX_VALUE;
+        try {
+            for (int window = 0; window < WINDOWS; window++) {
+                long before = threads.getThreadAllocatedBytes(thread);
+                roundTrip(session, secret, true, in, record, plain, WINDOW_OPERATIONS);
+                long pooled = (threads.getThreadAllocatedBytes(thread) - before) / WINDOW_OPERATIONS;
+
+                before = threads.getThreadAllocatedBytes(thread);
+                roundTrip(session, secret, false, in, record, plain, WINDOW_OPERATIONS);
+                long bare = (threads.getThreadAllocatedBytes(thread) - before) / WINDOW_OPERATIONS;
+                added = Math.min(added, pooled - bare);
+            }
+        } finally {
+            session.close();
+        }
+
+        // A buffer allocated instead of reused adds its object and cleaner, well over 100 bytes.
+        assertTrue(added + " B/op added by the pool", added <= 8);
+    }
+
+    private void cycle(int operations) {
+        for (int i = 0; i < operations; i++) {
+            ByteBuffer in = pool.acquire();
+            ByteBuffer out = pool.acquire();
+            in.putLong(i);
+            pool.release(out);
+            pool.release(in);
+        }
+    }
+
+    /**
+     * One loop for both sides, so they run the same compiled code and differ only in where the
+     * buffers come from.
+     *
+     * @param pooled whether to take the buffers from the pool instead of using {@code in},
+     *               {@code record} and {@code plain}
+     */
+    private void roundTrip(DataKeySession session, byte[] secret, boolean pooled, ByteBuffer in, ByteBuffer record,
+                           ByteBuffer plain, int operations) throws Exception {
+        for (int i = 0; i < operations; i++) {
+            ByteBuffer input = pooled ? pool.acquire() : (ByteBuffer) in.clear();
+            ByteBuffer output = pooled ? pool.acquire() : (ByteBuffer) record.clear();
+            ByteBuffer decrypted = pooled ? pool.acquire() : (ByteBuffer) plain.clear();
+            try {
+                input.put(secret).flip();
+                session.encrypt(input, output);
+                output.flip();
+                session.decrypt(output, decrypted);
+                assertEquals(secret.length, decrypted.position());
+            } finally {
+                if (pooled) {
+                    pool.release(decrypted);
+                    pool.release(output);
+                    pool.release(input);
+                }
+            }
+        }
+    }
+}
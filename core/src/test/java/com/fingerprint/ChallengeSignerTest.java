@@ -0,0 +1,146 @@
+package com.fingerprint;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Cipher;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ChallengeSigner} on the in-memory backends, checked by a {@link ChallengeVerifier}.
+ */
+public class ChallengeSignerTest {
+
+    private static final int BATCH_SIZE = 200;
+
+    private final InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+    private final InMemoryBiometricPrompt prompt = new InMemoryBiometricPrompt(keyStore);
+
+    private ChallengeSigner signer;
+
+    @Before
+    public void setUp() {
+        signer = new ChallengeSigner(keyStore, prompt);
+    }
+
+    @Test
+    public void sign_isAcceptedOnceByTheVerifier() throws Exception {
+        signer.create();
+        ChallengeVerifier verifier = new ChallengeVerifier(signer.getPublicKey().getEncoded());
+        byte[] challenge = verifier.newChallenge();
+
+        signer.init();
+        authenticate(signer.getPromptSignature());
+        byte[] signature = signer.sign(challenge);
+
+        assertTrue(verifier.verify(challenge, signature));
+        assertFalse(verifier.verify(challenge, signature));
+        assertEquals(1, verifier.getVerifiedCount());
+        assertEquals(1, verifier.getRejectedCount());
+    }
+
+    @Test
+    public void verify_rejectsSignatureOfAnotherChallenge() throws Exception {
+        signer.create();
+        ChallengeVerifier verifier = new ChallengeVerifier(signer.getPublicKey().getEncoded());
+        byte[] first = verifier.newChallenge();
+        byte[] second = verifier.newChallenge();
+
+        signer.init();
+        byte[] signature = signer.sign(first);
+
+        assertFalse(verifier.verify(second, signature));
+        assertFalse(verifier.verify(first, new byte[]{1, 2, 3}));
+        assertEquals(0, verifier.getOutstandingCount());
+    }
+
+    @Test
+    public void sessionMode_signsBatchUnderOneAuthentication() throws Exception {
+        signer.setSessionValiditySeconds(30);
+        signer.create();
+        ChallengeVerifier verifier = new ChallengeVerifier(signer.getPublicKey().getEncoded());
+
+        try {
+            signer.init();
+            fail();
+        } catch (AuthenticationRequiredException expected) {
+        }
+
+        assertNull(signer.getPromptSignature());
+        authenticate(null);
+        signer.onAuthenticated();
+        signer.init();
+
+        List<byte[]> challenges = verifier.newChallenges(BATCH_SIZE);
+        BatchResult signatures = signer.signBatch(challenges);
+
+        assertEquals(0, signatures.getFailureCount());
+        assertEquals(BATCH_SIZE, verifier.verifyBatch(challenges, signatures));
+    }
+
+    @Test(expected = CustomException.class)
+    public void perOperationMode_refusesBatches() throws Exception {
+        signer.create();
+        ChallengeVerifier verifier = new ChallengeVerifier(signer.getPublicKey().getEncoded());
+        signer.init();
+
+        signer.signBatch(verifier.newChallenges(2));
+    }
+
+    @Test
+    public void create_replacesInvalidatedKeyPair() throws Exception {
+        signer.create();
+        assertTrue(signer.consumeKeyReplaced());
+        signer.create();
+        assertFalse(signer.consumeKeyReplaced());
+        byte[] oldKey = signer.getPublicKey().getEncoded();
+
+        keyStore.enrollBiometric();
+        try {
+            signer.init();
+            fail();
+        } catch (KeyInvalidatedException expected) {
+        }
+
+        signer.create();
+        assertTrue(signer.consumeKeyReplaced());
+        ChallengeVerifier verifier = new ChallengeVerifier(signer.getPublicKey().getEncoded());
+        byte[] challenge = verifier.newChallenge();
+        signer.init();
+        assertTrue(verifier.verify(challenge, signer.sign(challenge)));
+        assertFalse(Arrays.equals(oldKey, signer.getPublicKey().getEncoded()));
+    }
+
+    private void authenticate(Signature signature) {
+        final boolean[] succeeded = new boolean[1];
+        BiometricPrompt.Callback callback = new BiometricPrompt.Callback() {
+            @Override
+            public void onAuthenticationSucceeded(Cipher cipher) {
+                succeeded[0] = true;
+            }
+
+            @Override
+            public void onAuthenticationFailed() {
+            }
+
+            @Override
+            public void onAuthenticationHelp(int helpCode, CharSequence helpString) {
+            }
+
+            @Override
+            public void onAuthenticationError(int errorCode, CharSequence errString) {
+                fail(errString.toString());
+            }
+        };
+        if (signature != null)
+            prompt.authenticateSignature(signature, callback);
+        else
+            prompt.authenticate(null, callback);
+        assertTrue(succeeded[0]);
+    }
+}
@@ -0,0 +1,261 @@
+package com.fingerprint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link CipherAuthenticator} on the in-memory backends.
+ */
+public class CipherAuthenticatorTest {
+
+    private static final String KEY_NAME = "key_default";
+
+    private final InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+    private final InMemoryBiometricPrompt prompt = new InMemoryBiometricPrompt(keyStore);
+    private final InMemoryLockScreen lockScreen = new InMemoryLockScreen();
+
+    private File registryFile;
+    private CipherAuthenticator authenticator;
+
+    @Before
+    public void setUp() throws Exception {
+        registryFile = File.createTempFile("key_registry", ".idx");
+        registryFile.delete();
+        authenticator = new CipherAuthenticator(keyStore, prompt, lockScreen, registryFile, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        registryFile.delete();
+    }
+
+    @Test
+    public void create_reusesExistingKey() throws Exception {
+        authenticator.create();
+        SecretKey key = keyStore.getKey(KEY_NAME);
+
+        authenticator.create();
+
+        assertSame(key, keyStore.getKey(KEY_NAME));
+        assertEquals(CipherSuite.DEFAULT, authenticator.getCipherSuite());
+    }
+
+    @Test
+    public void create_regeneratesKeyOfAnotherSuite() throws Exception {
+        authenticator.create();
+        SecretKey key = keyStore.getKey(KEY_NAME);
+
+        authenticator.setCipherSuite(CipherSuite.AES_CBC_PKCS7);
+        authenticator.create();
+
+        assertNotSame(key, keyStore.getKey(KEY_NAME));
+        authenticator.init();
+        assertEquals("AES/CBC/PKCS5Padding", authenticator.getCipher().getAlgorithm());
+    }
+
+    @Test
+    public void close_stopsBackgroundWorkButKeepsInit() throws Exception {
+        authenticator.create();
+        authenticator.close();
+
+        assertNull(authenticator.createAsync(new CipherAuthenticator.Callback() {
+            @Override
+            public void onCreated() {
+                fail();
+            }
+
+            @Override
+            public void onCreateError(CustomException e) {
+                fail();
+            }
+        }));
+        authenticator.init();
+        assertNotNull(authenticator.getCipher());
+    }
+
+    @Test(expected = CustomException.class)
+    public void create_requiresSecureLockScreen() throws Exception {
+        lockScreen.setSecure(false);
+        authenticator.create();
+    }
+
+    @Test
+    public void capabilities_readOnceUntilRefreshed() throws Exception {
+        authenticator.create();
+        BiometricCapabilities capabilities = authenticator.getCapabilities();
+        long systemCalls = capabilities.getSystemCalls();
+
+        for (int i = 0; i < 5; i++)
+            assertTrue(authenticator.isFingerprintAuthAvailable());
+        prompt.setEnrolled(false);
+        assertTrue(authenticator.isFingerprintAuthAvailable());
+
+        assertEquals(systemCalls, capabilities.getSystemCalls());
+        assertTrue(capabilities.getSavedCalls() >= 18);
+
+        capabilities.refresh();
+        assertFalse(authenticator.isFingerprintAuthAvailable());
+    }
+
+    @Test
+    public void invalidateKey_dropsCapabilities() throws Exception {
+        authenticator.create();
+        prompt.setHardwareDetected(false);
+
+        authenticator.invalidateKey();
+
+        assertFalse(authenticator.isFingerprintAuthAvailable());
+        // Without hardware the enrollment is not read, so a cached read saves two calls, not three.
+        BiometricCapabilities capabilities = authenticator.getCapabilities();
+        long saved = capabilities.getSavedCalls();
+        assertFalse(authenticator.isFingerprintAuthAvailable());
+        assertEquals(saved + 2, capabilities.getSavedCalls());
+    }
+
+    @Test
+    public void init_afterEnrollment_reportsInvalidatedKeyUntilRecreated() throws Exception {
+        authenticator.create();
+        SecretKey key = keyStore.getKey(KEY_NAME);
+        keyStore.enrollBiometric();
+
+        try {
+            authenticator.initDecrypt(new byte[12]);
+            fail();
+        } catch (KeyInvalidatedException expected) {
+        }
+
+        authenticator.create();
+        assertNotSame(key, keyStore.getKey(KEY_NAME));
+        authenticator.init();
+        assertNotNull(authenticator.getCipher());
+    }
+
+    @Test
+    public void createLazily_waitsForIdleUnlessTheKeyIsNeeded() throws Exception {
+        final List<Runnable> idleTasks = new ArrayList<>();
+        final int[] created = new int[1];
+        authenticator.createLazily(new CipherAuthenticator.Callback() {
+            @Override
+            public void onCreated() {
+                created[0]++;
+            }
+
+            @Override
+            public void onCreateError(CustomException e) {
+                fail(e.getMessage());
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                idleTasks.add(command);
+            }
+        });
+        assertEquals(0, created[0]);
+
+        authenticator.init();
+        assertEquals(1, created[0]);
+        assertNotNull(authenticator.getCipher());
+
+        for (Runnable task : idleTasks)
+            task.run();
+        authenticator.createNow().get();
+        assertEquals(1, created[0]);
+    }
+
+    @Test
+    public void initDecrypt_readsEnvelopeBack() throws Exception {
+        authenticator.create();
+        authenticator.init();
+        byte[] secret = "secret".getBytes("UTF-8");
+        CipherEnvelope envelope = new CipherEnvelope();
+        ByteBuffer buffer = ByteBuffer.allocate(CipherEnvelope.getMaxLength(authenticator.getCipherSuite(), 16, secret.length));
+        envelope.encrypt(authenticator.getCipher(), authenticator.getCipherSuite(), 0, ByteBuffer.wrap(secret), buffer);
+        buffer.flip();
+
+        CipherEnvelope reader = new CipherEnvelope();
+        reader.read(buffer);
+        authenticator.initDecrypt(reader);
+        ByteBuffer plain = ByteBuffer.allocate(buffer.remaining());
+        reader.decrypt(authenticator.getCipher(), buffer, plain);
+
+        assertEquals("secret", new String(plain.array(), 0, plain.position(), "UTF-8"));
+    }
+
+    @Test
+    public void sessionMode_initRequiresAuthentication() throws Exception {
+        authenticator.setSessionValiditySeconds(30);
+        authenticator.create();
+
+        try {
+            authenticator.init();
+            fail();
+        } catch (AuthenticationRequiredException expected) {
+        }
+
+        final Cipher[] authorized = new Cipher[1];
+        prompt.authenticate(authenticator.getPromptCipher(), new BiometricPrompt.Callback() {
+            @Override
+            public void onAuthenticationSucceeded(Cipher cipher) {
+                authorized[0] = cipher;
+                authenticator.onAuthenticated();
+            }
+
+            @Override
+            public void onAuthenticationFailed() {
+            }
+
+            @Override
+            public void onAuthenticationHelp(int helpCode, CharSequence helpString) {
+            }
+
+            @Override
+            public void onAuthenticationError(int errorCode, CharSequence errString) {
+                fail(errString.toString());
+            }
+        });
+
+        assertNull(authorized[0]);
+        assertTrue(authenticator.isSessionActive());
+        authenticator.init();
+        assertNotNull(authenticator.getCipher());
+    }
+
+    @Test
+    public void registry_initsCiphersThroughBackendAndRegeneratesInvalidatedAlias() throws Exception {
+        authenticator.create();
+        KeyRegistry registry = authenticator.getKeyRegistry();
+        String transformation = CipherSuite.AES_CBC_PKCS7.getTransformation();
+        SecretKey key = registry.getOrCreateKey("account", transformation, true, 0);
+        assertEquals("AES/CBC/PKCS5Padding", registry.takeCipher("account").getAlgorithm());
+
+        keyStore.enrollBiometric();
+        try {
+            registry.takeCipher("account");
+            fail();
+        } catch (KeyInvalidatedException expected) {
+        }
+
+        SecretKey regenerated = registry.getOrCreateKey("account", transformation, true, 0);
+        assertNotSame(key, regenerated);
+        assertSame(regenerated, keyStore.getKey("account"));
+        assertNotNull(registry.takeCipher("account"));
+        assertEquals(1, registry.getRegenerations());
+    }
+}
@@ -0,0 +1,212 @@
+package com.fingerprint;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips and fuzzing on the desktop JVM with the software AES provider.
+ */
+public class CipherEnvelopeTest {
+
+    private static final int FUZZ_ITERATIONS = 5000;
+    private static final int KEY_ID = 0x1234;
+
+    private final SecretKey key = TestSupport.newKey();
+    private final Random random = new Random(20);
+
+    @Test
+    public void roundTrip_keepsContentForEverySuite() throws Exception {
+        CipherEnvelope envelope = new CipherEnvelope();
+        int maxLength = CipherEnvelope.getMaxLength(CipherSuite.AES_CBC_PKCS7, 16, 5000);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(maxLength);
+        ByteBuffer plain = ByteBuffer.allocate(maxLength);
+
+        for (CipherSuite suite : CipherSuite.values()) {
+            for (int size : new int[]{0, 1, 15, 16, 17, 255, 4096, 5000}) {
+                byte[] plaintext = randomBytes(size);
+                buffer.clear();
+                int written = envelope.encrypt(encryptCipher(suite), suite, KEY_ID, ByteBuffer.wrap(plaintext), buffer);
+                assertTrue(written <= CipherEnvelope.getMaxLength(suite, envelope.getIvLength(), size));
+
+                buffer.flip();
+                envelope.read(buffer);
+                assertEquals(suite, envelope.getSuite());
+                assertEquals(KEY_ID, envelope.getKeyId());
+
+                plain.clear();
+                envelope.decrypt(decryptCipher(suite, envelope.getIv()), buffer, plain);
+                plain.flip();
+                byte[] decrypted = new byte[plain.remaining()];
+                plain.get(decrypted);
+                assertArrayEquals(suite + " size " + size, plaintext, decrypted);
+                assertFalse(buffer.hasRemaining());
+            }
+        }
+    }
+
+    @Test
+    public void read_ignoresByteOrderOfTheBuffer() throws Exception {
+        ByteBuffer buffer = encrypt(CipherSuite.AES_GCM, randomBytes(40));
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        CipherEnvelope envelope = new CipherEnvelope();
+        envelope.read(buffer);
+
+        assertEquals(KEY_ID, envelope.getKeyId());
+    }
+
+    @Test
+    public void header_storesStableSuiteId() throws Exception {
+        ByteBuffer buffer = encrypt(CipherSuite.AES_GCM, randomBytes(40));
+        assertEquals(1, buffer.get(3));
+
+        buffer.put(3, (byte) 0x7F);
+        try {
+            new CipherEnvelope().read(buffer);
+            fail();
+        } catch (CustomException e) {
+            assertEquals("Unsupported cipher suite id 127", e.getMessage());
+        }
+    }
+
+    @Test
+    public void read_leavesPositionOnFailure() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{0x46, 0x45, 1, 1, 0, 0, 16, 1, 2, 3});
+        try {
+            new CipherEnvelope().read(buffer);
+            fail();
+        } catch (CustomException expected) {
+        }
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void authenticatedSuite_rejectsEveryFlippedBit() throws Exception {
+        byte[] plaintext = randomBytes(64);
+        byte[] encoded = toArray(encrypt(CipherSuite.AES_GCM, plaintext));
+        CipherEnvelope envelope = new CipherEnvelope();
+
+        for (int bit = 0; bit < encoded.length * 8; bit++) {
+            byte[] tampered = encoded.clone();
+            tampered[bit / 8] ^= 1 << (bit % 8);
+
+            assertNull("bit " + bit, tryDecrypt(envelope, tampered));
+        }
+        assertArrayEquals(plaintext, tryDecrypt(envelope, encoded));
+    }
+
+    @Test
+    public void fuzz_mutatedEnvelopesFailCleanly() throws Exception {
+        CipherEnvelope envelope = new CipherEnvelope();
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            CipherSuite suite = CipherSuite.values()[random.nextInt(CipherSuite.values().length)];
+            byte[] plaintext = randomBytes(random.nextInt(300));
+            byte[] mutated = mutate(toArray(encrypt(suite, plaintext)));
+
+            byte[] decrypted = tryDecrypt(envelope, mutated);
+
+            if (suite.isAuthenticated() && decrypted != null)
+                assertArrayEquals("iteration " + i, plaintext, decrypted);
+        }
+    }
+
+    @Test
+    public void fuzz_randomBytesNeverParseUnchecked() throws Exception {
+        CipherEnvelope envelope = new CipherEnvelope();
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            byte[] garbage = randomBytes(random.nextInt(64));
+            if (garbage.length > 3 && random.nextBoolean()) {
+                garbage[0] = 0x46;
+                garbage[1] = 0x45;
+                garbage[2] = 1;
+            }
+            tryDecrypt(envelope, garbage);
+        }
+    }
+
+    /**
+     * @return the plaintext, or null if the envelope was rejected with a checked exception
+     */
+    private byte[] tryDecrypt(CipherEnvelope envelope, byte[] encoded) throws Exception {
+        ByteBuffer in = ByteBuffer.wrap(encoded);
+        try {
+            envelope.read(in);
+        } catch (CustomException e) {
+            return null;
+        }
+
+        Cipher cipher;
+        try {
+            cipher = decryptCipher(envelope.getSuite(), envelope.getIv());
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(in.remaining());
+        try {
+            envelope.decrypt(cipher, in, out);
+        } catch (CustomException e) {
+            return null;
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private byte[] mutate(byte[] encoded) {
+        switch (random.nextInt(4)) {
+            case 0:
+                encoded[random.nextInt(encoded.length)] ^= 1 + random.nextInt(255);
+                return encoded;
+            case 1:
+                return Arrays.copyOf(encoded, random.nextInt(encoded.length));
+            case 2:
+                byte[] longer = Arrays.copyOf(encoded, encoded.length + 1 + random.nextInt(16));
+                longer[encoded.length] = (byte) random.nextInt();
+                return longer;
+            default:
+                int header = random.nextInt(CipherEnvelope.HEADER_LENGTH);
+                encoded[header] = (byte) random.nextInt();
+                return encoded;
+        }
+    }
+
+    private ByteBuffer encrypt(CipherSuite suite, byte[] plaintext) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(CipherEnvelope.getMaxLength(suite, 16, plaintext.length));
+        new CipherEnvelope().encrypt(encryptCipher(suite), suite, KEY_ID, ByteBuffer.wrap(plaintext), buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private Cipher encryptCipher(CipherSuite suite) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(InMemoryKeyStoreBackend.getJceTransformation(suite));
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        return cipher;
+    }
+
+    private Cipher decryptCipher(CipherSuite suite, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(InMemoryKeyStoreBackend.getJceTransformation(suite));
+        cipher.init(Cipher.DECRYPT_MODE, key, suite.getParameterSpec(iv));
+        return cipher;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
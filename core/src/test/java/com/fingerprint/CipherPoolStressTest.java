@@ -0,0 +1,285 @@
+package com.fingerprint;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hammers the shared cipher state used by {@link CipherAuthenticator} from many threads on the
+ * desktop JVM, with a software key source standing in for the Android key store.
+ */
+public class CipherPoolStressTest {
+
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 2000;
+
+    private final ExecutorService refill = Executors.newFixedThreadPool(2);
+    private final ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+
+    @After
+    public void tearDown() {
+        refill.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void pool_handsEachCipherToOneThreadAndKeepsCiphertextsCorrect() throws Exception {
+        final SecretKey key = TestSupport.newKey();
+        final CipherPool pool = new CipherPool(encryptFactory(key), refill, 4);
+        final Set<Cipher> inUse = Collections.newSetFromMap(new IdentityHashMap<Cipher, Boolean>());
+        final AtomicBoolean clearing = new AtomicBoolean(true);
+
+        Thread clearer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (clearing.get()) {
+                    pool.clear();
+                    Thread.yield();
+                }
+            }
+        });
+        clearer.start();
+
+        runConcurrently(new Worker() {
+            @Override
+            public void run(int thread, int iteration, Random random) throws Exception {
+                Cipher cipher = pool.take();
+                synchronized (inUse) {
+                    assertTrue("cipher handed out twice", inUse.add(cipher));
+                }
+
+                byte[] plaintext = plaintext(thread, iteration, random);
+                byte[] ciphertext = cipher.doFinal(plaintext);
+                byte[] iv = cipher.getIV();
+
+                synchronized (inUse) {
+                    inUse.remove(cipher);
+                }
+                assertArrayEquals(plaintext, decrypt(key, iv, ciphertext));
+            }
+        });
+
+        clearing.set(false);
+        clearer.join();
+        assertEquals(THREADS * ITERATIONS, pool.getHits() + pool.getMisses());
+    }
+
+    @Test
+    public void registry_keepsAliasesApartUnderEviction() throws Exception {
+        final Map<String, SecretKey> store = new ConcurrentHashMap<>();
+        File indexFile = File.createTempFile("key_registry", ".idx");
+        indexFile.deleteOnExit();
+        indexFile.delete();
+        final KeyRegistry registry = new KeyRegistry(indexFile, new KeyRegistry.KeySource() {
+            @Override
+            public SecretKey generateKey(KeyMetadata metadata) {
+                SecretKey key = TestSupport.newKey();
+                store.put(metadata.getAlias(), key);
+                return key;
+            }
+
+            @Override
+            public SecretKey getKey(String alias) {
+                return store.get(alias);
+            }
+
+            @Override
+            public void deleteKey(String alias) {
+                store.remove(alias);
+            }
+
+            @Override
+            public Cipher newCipher(CipherSuite suite) throws CustomException {
+                try {
+                    return Cipher.getInstance(InMemoryKeyStoreBackend.getJceTransformation(suite));
+                } catch (Exception e) {
+                    throw new CustomException("Failed to create Cipher", e);
+                }
+            }
+
+            @Override
+            public void initCipher(Cipher cipher, int opmode, SecretKey key, AlgorithmParameterSpec params)
+                    throws CustomException {
+                try {
+                    cipher.init(opmode, key, params);
+                } catch (Exception e) {
+                    throw new CustomException("Failed to init Cipher", e);
+                }
+            }
+        }, 4);
+
+        runConcurrently(new Worker() {
+            @Override
+            public void run(int thread, int iteration, Random random) throws Exception {
+                String alias = "account_" + random.nextInt(8);
+                SecretKey key = registry.getOrCreateKey(alias, CipherSuite.AES_CBC_PKCS7.getTransformation(), true, 0);
+                if (random.nextBoolean())
+                    registry.prepareCipher(alias);
+
+                Cipher cipher = registry.takeCipher(alias);
+                byte[] plaintext = plaintext(thread, iteration, random);
+                byte[] ciphertext = cipher.doFinal(plaintext);
+
+                assertArrayEquals(plaintext, decrypt(key, cipher.getIV(), ciphertext));
+                assertSame(key, store.get(alias));
+            }
+        });
+
+        assertEquals(8, registry.getAliases().size());
+        assertEquals(THREADS * ITERATIONS, registry.getHits() + registry.getMisses());
+    }
+
+    /**
+     * Workers encrypt with the cipher from {@code init()}, sometimes after a {@code create()} of
+     * their own, and decrypt with {@code initDecrypt()} while another thread keeps replacing the
+     * key. Each worker holds a read lock for one round trip, so the key is only replaced between
+     * round trips and a cipher still initialized with the old key fails to decrypt.
+     */
+    @Test
+    public void authenticator_initsCiphersWithCurrentKeyWhileKeyIsReplaced() throws Exception {
+        final InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        final CipherAuthenticator authenticator = TestSupport.newAuthenticator(keyStore,
+                TestSupport.newRegistryFile());
+        authenticator.create();
+
+        final ReadWriteLock keyLock = new ReentrantReadWriteLock(true);
+        final AtomicBoolean replacing = new AtomicBoolean(true);
+        final AtomicInteger replacements = new AtomicInteger();
+        final AtomicReference<Throwable> replaceError = new AtomicReference<>();
+        Thread replacer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CipherSuite[] suites = CipherSuite.values();
+                try {
+                    while (replacing.get()) {
+                        keyLock.writeLock().lock();
+                        try {
+                            int n = replacements.getAndIncrement();
+                            if (n % 3 == 2)
+                                keyStore.enrollBiometric();
+                            else
+                                authenticator.setCipherSuite(suites[n % suites.length]);
+                            authenticator.create();
+                        } finally {
+                            keyLock.writeLock().unlock();
+                        }
+                        Thread.sleep(1);
+                    }
+                } catch (Throwable e) {
+                    replaceError.set(e);
+                }
+            }
+        });
+        replacer.start();
+
+        try {
+            runConcurrently(new Worker() {
+                @Override
+                public void run(int thread, int iteration, Random random) throws Exception {
+                    keyLock.readLock().lock();
+                    try {
+                        if (random.nextInt(8) == 0)
+                            authenticator.create();
+                        authenticator.init();
+                        byte[] plaintext = plaintext(thread, iteration, random);
+                        Cipher encrypt = authenticator.getCipher();
+                        byte[] ciphertext = encrypt.doFinal(plaintext);
+
+                        authenticator.initDecrypt(encrypt.getIV());
+                        assertArrayEquals(plaintext, authenticator.getCipher().doFinal(ciphertext));
+                    } finally {
+                        keyLock.readLock().unlock();
+                    }
+                }
+            });
+        } finally {
+            replacing.set(false);
+            replacer.join();
+        }
+
+        assertNull(replaceError.get());
+        assertTrue(replacements.get() > 0);
+    }
+
+    private interface Worker {
+        void run(int thread, int iteration, Random random) throws Exception;
+    }
+
+    private void runConcurrently(final Worker worker) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            results.add(workers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(thread);
+                    start.await();
+                    for (int i = 0; i < ITERATIONS; i++)
+                        worker.run(thread, i, random);
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        for (Future<Void> result : results)
+            result.get();
+    }
+
+    private static CipherPool.Factory encryptFactory(final SecretKey key) {
+        return new CipherPool.Factory() {
+            @Override
+            public Cipher newCipher() throws CustomException {
+                try {
+                    Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+                    cipher.init(Cipher.ENCRYPT_MODE, key);
+                    return cipher;
+                } catch (Exception e) {
+                    throw new CustomException("Failed to init Cipher", e);
+                }
+            }
+        };
+    }
+
+    private static byte[] plaintext(int thread, int iteration, Random random) {
+        byte[] plaintext = new byte[1 + random.nextInt(256)];
+        random.nextBytes(plaintext);
+        plaintext[0] = (byte) thread;
+        return Arrays.copyOf(plaintext, plaintext.length + 4 + (iteration & 7));
+    }
+
+    private static byte[] decrypt(SecretKey key, byte[] iv, byte[] ciphertext) throws Exception {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+        return cipher.doFinal(ciphertext);
+    }
+}
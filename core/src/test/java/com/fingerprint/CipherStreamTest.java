@@ -0,0 +1,279 @@
+package com.fingerprint;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs on the desktop JVM with the software AES provider. CBC uses PKCS5Padding, which is the JCE
+ * name for the PKCS7 padding used by {@link CipherAuthenticator#CIPHER_DEFAULT}; GCM streams are
+ * written in segments with a {@link DataKeySession}.
+ */
+public class CipherStreamTest {
+
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+
+    private final SecretKey key = TestSupport.newKey();
+
+    @Test
+    public void roundTrip_keepsContent() throws Exception {
+        for (int size : new int[]{0, 1, 15, 16, 17, 4095, 4096, 4097, 100000}) {
+            byte[] plaintext = randomBytes(size);
+
+            byte[] decrypted = decrypt(encrypt(plaintext, 4096), 4096);
+
+            assertArrayEquals("size " + size, plaintext, decrypted);
+        }
+    }
+
+    @Test
+    public void encrypt_writesHeaderWithIv() throws Exception {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new CipherStream().encrypt(cipher, new ByteArrayInputStream(new byte[10]), out);
+
+        byte[] iv = new CipherStream().readHeader(new ByteArrayInputStream(out.toByteArray()));
+        assertArrayEquals(cipher.getIV(), iv);
+    }
+
+    @Test(expected = CustomException.class)
+    public void readHeader_rejectsUnknownData() throws Exception {
+        new CipherStream().readHeader(new ByteArrayInputStream(new byte[32]));
+    }
+
+    @Test
+    public void channels_roundTripLargePayload() throws Exception {
+        long size = 16L * 1024 * 1024;
+        File file = File.createTempFile("cipher_stream", ".bin");
+        file.deleteOnExit();
+        CipherStream stream = new CipherStream();
+
+        Cipher encrypt = Cipher.getInstance(TRANSFORMATION);
+        encrypt.init(Cipher.ENCRYPT_MODE, key);
+        DigestChannel source = new DigestChannel(size);
+        FileChannel fileOut = new FileOutputStream(file).getChannel();
+        stream.encrypt(encrypt, source, fileOut);
+        fileOut.close();
+
+        FileChannel fileIn = new FileInputStream(file).getChannel();
+        Cipher decrypt = Cipher.getInstance(TRANSFORMATION);
+        decrypt.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(stream.readHeader(fileIn)));
+        DigestChannel sink = new DigestChannel(0);
+        stream.decrypt(decrypt, fileIn, sink);
+        fileIn.close();
+
+        assertEquals(size, sink.count);
+        assertArrayEquals(source.digest.digest(), sink.digest.digest());
+    }
+
+    @Test
+    public void segmented_roundTripKeepsContent() throws Exception {
+        DataKeySession session = DataKeySession.generate();
+        try {
+            for (int size : new int[]{0, 1, 4095, 4096, 4097, 8192, 100000}) {
+                byte[] plaintext = randomBytes(size);
+
+                byte[] decrypted = decryptSegments(session, encryptSegments(session, plaintext, 4096), 4096);
+
+                assertArrayEquals("size " + size, plaintext, decrypted);
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void segmented_rejectsTamperedAndTruncatedStreams() throws Exception {
+        DataKeySession session = DataKeySession.generate();
+        try {
+            byte[] encrypted = encryptSegments(session, randomBytes(3 * 4096 + 100), 4096);
+            // Header, then segments of flags, IV length, IV, length, chunk and tag.
+            int segment = 1 + 1 + 12 + 4 + 4096 + 16;
+            int header = 9 + 16;
+
+            byte[] tampered = encrypted.clone();
+            tampered[header + segment + 30] ^= 1;
+            byte[] truncated = Arrays.copyOf(encrypted, header + 3 * segment);
+            byte[] reordered = encrypted.clone();
+            System.arraycopy(encrypted, header, reordered, header + segment, segment);
+            System.arraycopy(encrypted, header + segment, reordered, header, segment);
+
+            for (byte[] stream : new byte[][]{tampered, truncated, reordered}) {
+                try {
+                    decryptSegments(session, stream, 4096);
+                    fail();
+                } catch (CustomException expected) {
+                }
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void segmented_rejectsSegmentFromAnotherStream() throws Exception {
+        DataKeySession session = DataKeySession.generate();
+        try {
+            byte[] plaintext = randomBytes(2 * 4096 + 100);
+            byte[] encrypted = encryptSegments(session, plaintext, 4096);
+            byte[] other = encryptSegments(session, plaintext, 4096);
+            int segment = 1 + 1 + 12 + 4 + 4096 + 16;
+            int header = 9 + 16;
+
+            byte[] spliced = encrypted.clone();
+            System.arraycopy(other, header + segment, spliced, header + segment, segment);
+
+            assertArrayEquals(plaintext, decryptSegments(session, other, 4096));
+            try {
+                decryptSegments(session, spliced, 4096);
+                fail();
+            } catch (CustomException expected) {
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test(expected = CustomException.class)
+    public void cipher_rejectsGcm() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        new CipherStream().encrypt(cipher, new ByteArrayInputStream(new byte[10]), new ByteArrayOutputStream());
+    }
+
+    /**
+     * A GCM cipher decrypting in one operation holds back all of the plaintext until its tag, so
+     * the segments keep what decryption allocates far below the size of the payload.
+     */
+    @Test
+    public void segmented_decryptsWithConstantBuffers() throws Exception {
+        long size = 32L * 1024 * 1024;
+        File file = File.createTempFile("cipher_stream", ".bin");
+        file.deleteOnExit();
+        CipherStream stream = new CipherStream();
+        DataKeySession session = DataKeySession.generate();
+        com.sun.management.ThreadMXBean threads = TestSupport.threadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        try {
+            DigestChannel source = new DigestChannel(size);
+            FileChannel fileOut = new FileOutputStream(file).getChannel();
+            stream.encrypt(session, source, fileOut);
+            fileOut.close();
+
+            FileChannel fileIn = new FileInputStream(file).getChannel();
+            DigestChannel sink = new DigestChannel(0);
+            long allocatedBefore = threads != null ? threads.getThreadAllocatedBytes(thread) : 0;
+            stream.decrypt(session, fileIn, sink);
+            long allocated = threads != null ? threads.getThreadAllocatedBytes(thread) - allocatedBefore : 0;
+            fileIn.close();
+
+            assertEquals(size, sink.count);
+            assertArrayEquals(source.digest.digest(), sink.digest.digest());
+            assertTrue(allocated + " bytes allocated", allocated < size / 8);
+        } finally {
+            session.close();
+            file.delete();
+        }
+    }
+
+    private static byte[] encryptSegments(CipherFactory ciphers, byte[] plaintext, int chunkSize) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CipherStream(chunkSize).encrypt(ciphers, new ByteArrayInputStream(plaintext), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] decryptSegments(CipherFactory ciphers, byte[] encrypted, int chunkSize) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CipherStream(chunkSize).decrypt(ciphers, new ByteArrayInputStream(encrypted), out);
+        return out.toByteArray();
+    }
+
+    private byte[] encrypt(byte[] plaintext, int chunkSize) throws Exception {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CipherStream(chunkSize).encrypt(cipher, new ByteArrayInputStream(plaintext), out);
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted, int chunkSize) throws Exception {
+        CipherStream stream = new CipherStream(chunkSize);
+        ByteArrayInputStream in = new ByteArrayInputStream(encrypted);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(stream.readHeader(in)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream.decrypt(cipher, in, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Generates or swallows bytes while hashing them, so the payload never sits in memory.
+     */
+    private static class DigestChannel implements ReadableByteChannel, WritableByteChannel {
+
+        final MessageDigest digest;
+        final byte[] block = new byte[8192];
+        long remaining;
+        long count;
+
+        DigestChannel(long size) throws Exception {
+            digest = MessageDigest.getInstance("SHA-256");
+            remaining = size;
+            new Random(1).nextBytes(block);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (remaining == 0)
+                return -1;
+            int length = (int) Math.min(Math.min(dst.remaining(), block.length), remaining);
+            dst.put(block, 0, length);
+            digest.update(block, 0, length);
+            remaining -= length;
+            return length;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            count += length;
+            digest.update(src);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.fingerprint;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+/**
+ * Every {@link CipherSuite} on the desktop JVM with the software AES provider. Their throughput is
+ * measured by the PayloadBenchmark in the benchmark module.
+ */
+public class CipherSuiteTest {
+
+    private final SecretKey key = TestSupport.newKey();
+
+    @Test
+    public void suites_roundTrip() throws Exception {
+        byte[] plaintext = new byte[1000];
+        new Random(1).nextBytes(plaintext);
+
+        for (CipherSuite suite : CipherSuite.values()) {
+            Cipher encrypt = newCipher(suite);
+            encrypt.init(Cipher.ENCRYPT_MODE, key);
+            byte[] ciphertext = encrypt.doFinal(plaintext);
+
+            Cipher decrypt = newCipher(suite);
+            decrypt.init(Cipher.DECRYPT_MODE, key, suite.getParameterSpec(encrypt.getIV()));
+            assertArrayEquals(suite.name(), plaintext, decrypt.doFinal(ciphertext));
+        }
+    }
+
+    @Test
+    public void suites_resolveFromKeyProperties() throws Exception {
+        for (CipherSuite suite : CipherSuite.values()) {
+            assertSame(suite, CipherSuite.fromTransformation(suite.getTransformation()));
+            assertSame(suite, CipherSuite.fromBlockMode(suite.getBlockMode()));
+        }
+    }
+
+    /**
+     * The JCE provider calls PKCS7 padding PKCS5Padding; the Android key store accepts PKCS7Padding.
+     */
+    private static Cipher newCipher(CipherSuite suite) throws Exception {
+        return Cipher.getInstance(suite.getTransformation().replace("PKCS7Padding", "PKCS5Padding"));
+    }
+}
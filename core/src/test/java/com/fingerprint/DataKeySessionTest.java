@@ -0,0 +1,105 @@
+package com.fingerprint;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DataKeySessionTest {
+
+    private static final int RECORDS = 500;
+
+    private final DataKeySession session = DataKeySession.generate();
+
+    @After
+    public void tearDown() {
+        session.close();
+    }
+
+    @Test
+    public void batch_keepsOrder() throws Exception {
+        List<byte[]> plaintexts = tokens(RECORDS);
+
+        BatchResult encrypted = session.encryptBatch(plaintexts);
+        BatchResult decrypted = session.decryptBatch(encrypted.getAll());
+
+        assertEquals(0, decrypted.getFailureCount());
+        for (int i = 0; i < RECORDS; i++)
+            assertArrayEquals(plaintexts.get(i), decrypted.get(i));
+    }
+
+    @Test
+    public void batch_reportsFailedRecordsWithoutAborting() throws Exception {
+        List<byte[]> records = new ArrayList<>(session.encryptBatch(tokens(RECORDS)).getAll());
+        records.get(7)[records.get(7).length - 1] ^= 1;
+        records.set(300, null);
+        records.set(400, new byte[3]);
+
+        BatchResult result = session.decryptBatch(records);
+
+        assertEquals(3, result.getFailureCount());
+        assertFalse(result.isSuccess(7));
+        assertFalse(result.isSuccess(300));
+        assertFalse(result.isSuccess(400));
+        assertTrue(result.isSuccess(8));
+        assertEquals("token 8", new String(result.get(8), "UTF-8"));
+        try {
+            result.getAll();
+            fail();
+        } catch (CustomException e) {
+            assertSame(result.getError(7), e.getCause());
+        }
+    }
+
+    @Test
+    public void bufferRecord_matchesArrayRecord() throws Exception {
+        byte[] token = "token 1".getBytes("UTF-8");
+        ByteBuffer plaintext = ByteBuffer.allocateDirect(64);
+        plaintext.put(token).flip();
+        ByteBuffer record = ByteBuffer.allocate(DataKeySession.getRecordLength(token.length));
+
+        assertEquals(record.capacity(), session.encrypt(plaintext, record));
+        assertArrayEquals(token, session.decrypt(record.array()));
+
+        ByteBuffer decrypted = ByteBuffer.allocateDirect(64);
+        assertEquals(token.length, session.decrypt(ByteBuffer.wrap(session.encrypt(token)), decrypted));
+        decrypted.flip();
+        byte[] read = new byte[decrypted.remaining()];
+        decrypted.get(read);
+        assertArrayEquals(token, read);
+    }
+
+    @Test
+    public void bufferRecord_rejectsTamperingWithoutMoving() throws Exception {
+        byte[] record = session.encrypt("token 1".getBytes("UTF-8"));
+        record[record.length - 1] ^= 1;
+        ByteBuffer in = ByteBuffer.wrap(record);
+        ByteBuffer out = ByteBuffer.allocateDirect(64);
+
+        try {
+            session.decrypt(in, out);
+            fail();
+        } catch (CustomException expected) {
+        }
+        assertEquals(0, in.position());
+        assertEquals(0, out.position());
+    }
+
+    @Test(expected = CustomException.class)
+    public void batch_requiresOpenSession() throws Exception {
+        session.close();
+        session.encryptBatch(tokens(1));
+    }
+
+    private static List<byte[]> tokens(int count) throws Exception {
+        List<byte[]> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            tokens.add(("token " + i).getBytes("UTF-8"));
+        return tokens;
+    }
+}
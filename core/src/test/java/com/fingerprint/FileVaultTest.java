@@ -0,0 +1,212 @@
+package com.fingerprint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link FileVault} with a {@link DataKeySession} as the cipher factory.
+ */
+public class FileVaultTest {
+
+    private static final int ENTRIES = 50;
+
+    /** Where the id of the first record sits, right after the header. */
+    private static final int FIRST_ID = 8;
+
+    /** Where the IV length of the first record sits: header, id, offset, length, checksum. */
+    private static final int FIRST_IV_LENGTH = 8 + 8 + 8 + 4 + 4;
+
+    private final DataKeySession session = DataKeySession.generate();
+
+    private File dataFile;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dataFile = File.createTempFile("vault", ".dat");
+        indexFile = File.createTempFile("vault", ".idx");
+        dataFile.delete();
+        indexFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        dataFile.delete();
+        indexFile.delete();
+    }
+
+    @Test
+    public void put_readsBackEveryEntry() throws Exception {
+        FileVault vault = FileVault.open(dataFile, indexFile, session);
+        try {
+            for (int i = 0; i < ENTRIES; i++)
+                vault.put(i, plaintext(i));
+
+            assertEquals(ENTRIES, vault.size());
+            for (int i = 0; i < ENTRIES; i++)
+                assertEquals(plaintext(i), vault.read(i));
+        } finally {
+            vault.close();
+        }
+    }
+
+    @Test
+    public void reopen_keepsEntries() throws Exception {
+        FileVault vault = FileVault.open(dataFile, indexFile, session);
+        for (int i = 0; i < ENTRIES; i++)
+            vault.put(i, plaintext(i));
+        vault.close();
+
+        vault = FileVault.open(dataFile, indexFile, session);
+        try {
+            assertEquals(ENTRIES, vault.size());
+            assertEquals(plaintext(7), vault.read(7));
+
+            vault.put(ENTRIES, plaintext(ENTRIES));
+            assertEquals(plaintext(ENTRIES), vault.read(ENTRIES));
+            assertEquals(plaintext(ENTRIES - 1), vault.read(ENTRIES - 1));
+        } finally {
+            vault.close();
+        }
+    }
+
+    @Test
+    public void put_replacesExistingId() throws Exception {
+        FileVault vault = FileVault.open(dataFile, indexFile, session);
+        vault.put(1, plaintext(1));
+        vault.put(1, plaintext(2));
+        assertEquals(plaintext(2), vault.read(1));
+        vault.close();
+
+        vault = FileVault.open(dataFile, indexFile, session);
+        try {
+            assertEquals(1, vault.size());
+            assertEquals(plaintext(2), vault.read(1));
+        } finally {
+            vault.close();
+        }
+    }
+
+    @Test
+    public void read_rejectsCorruptedEntry() throws Exception {
+        FileVault vault = FileVault.open(dataFile, indexFile, session);
+        FileVault.Entry entry = vault.put(1, plaintext(1));
+        vault.close();
+        flipByte(dataFile, entry.offset + 3);
+
+        vault = FileVault.open(dataFile, indexFile, session);
+        try {
+            vault.read(1);
+            fail();
+        } catch (CustomException expected) {
+        } finally {
+            vault.close();
+        }
+    }
+
+    @Test
+    public void open_rejectsCorruptIndex() throws Exception {
+        FileVault vault = FileVault.open(dataFile, indexFile, session);
+        vault.put(1, plaintext(1));
+        vault.close();
+
+        RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+        try {
+            index.seek(FIRST_IV_LENGTH);
+            index.write(0x80);
+        } finally {
+            index.close();
+        }
+
+        try {
+            FileVault.open(dataFile, indexFile, session);
+            fail();
+        } catch (CustomException e) {
+            assertEquals("Not a vault index", e.getMessage());
+        }
+    }
+
+    @Test
+    public void read_rejectsEntryMovedToAnotherId() throws Exception {
+        FileVault vault = FileVault.open(dataFile, indexFile, session);
+        vault.put(1, plaintext(1));
+        vault.close();
+
+        // Rewrite the id of the first record, leaving the checksum valid.
+        RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+        try {
+            index.seek(FIRST_ID);
+            index.writeLong(2);
+        } finally {
+            index.close();
+        }
+
+        vault = FileVault.open(dataFile, indexFile, session);
+        try {
+            vault.read(2);
+            fail();
+        } catch (CustomException expected) {
+        } finally {
+            vault.close();
+        }
+    }
+
+    @Test
+    public void open_rejectsEntryPastEndOfData() throws Exception {
+        FileVault vault = FileVault.open(dataFile, indexFile, session);
+        FileVault.Entry entry = vault.put(1, plaintext(1));
+        vault.close();
+
+        RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+        try {
+            data.setLength(entry.offset + entry.length - 1);
+        } finally {
+            data.close();
+        }
+
+        try {
+            FileVault.open(dataFile, indexFile, session);
+            fail();
+        } catch (CustomException e) {
+            assertEquals("Not a vault index", e.getMessage());
+        }
+    }
+
+    @Test(expected = CustomException.class)
+    public void open_rejectsForeignIndex() throws Exception {
+        RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+        try {
+            index.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        } finally {
+            index.close();
+        }
+        FileVault.open(dataFile, indexFile, session);
+    }
+
+    private static ByteBuffer plaintext(int i) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j <= i; j++)
+            sb.append("entry ").append(i).append('\n');
+        return ByteBuffer.wrap(sb.toString().getBytes("UTF-8"));
+    }
+
+    private static void flipByte(File file, long position) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 1);
+        } finally {
+            raf.close();
+        }
+    }
+}
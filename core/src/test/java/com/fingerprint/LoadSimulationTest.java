@@ -0,0 +1,20 @@
+package com.fingerprint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Only checks that concurrent flows complete; how many per second is measured by the
+ * AuthFlowBenchmark in the benchmark module.
+ */
+public class LoadSimulationTest {
+
+    @Test
+    public void run_completesFlowsAndCountsFailedReads() throws Exception {
+        LoadSimulation.Result result = new LoadSimulation(8, 500, 0.1).run();
+
+        assertTrue(result.toString(), result.flows > 0);
+        assertTrue(result.toString(), result.failedReads > 0);
+    }
+}
@@ -0,0 +1,120 @@
+package com.fingerprint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PasswordVerifierTest {
+
+    private static final long TARGET_MILLIS = 20;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("password", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void firstPassword_isStoredAndChecked() throws Exception {
+        PasswordVerifier verifier = newVerifier();
+        assertFalse(verifier.hasPassword());
+
+        assertTrue(verifier.verify("secret".toCharArray()));
+        assertTrue(verifier.hasPassword());
+
+        PasswordVerifier reloaded = newVerifier();
+        assertTrue(reloaded.verify("secret".toCharArray()));
+        assertFalse(reloaded.verify("Secret".toCharArray()));
+    }
+
+    @Test
+    public void passwordHash_keepsPreviousHashUntilReplaced() throws Exception {
+        PasswordHash.create("secret".toCharArray(), PasswordVerifier.MIN_ITERATIONS).writeTo(file);
+
+        // A write that crashed before the rename leaves only the temporary file behind.
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream truncated = new FileOutputStream(tmp);
+        truncated.write(1);
+        truncated.close();
+        assertTrue(PasswordHash.readFrom(file).matches("secret".toCharArray()));
+
+        PasswordHash.create("other".toCharArray(), PasswordVerifier.MIN_ITERATIONS).writeTo(file);
+        assertTrue(PasswordHash.readFrom(file).matches("other".toCharArray()));
+        assertFalse(tmp.exists());
+    }
+
+    @Test
+    public void passwordHash_rejectsIterationCountOutOfRange() throws Exception {
+        PasswordHash.create("secret".toCharArray(), PasswordVerifier.MIN_ITERATIONS).writeTo(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(1);
+            raf.writeInt(Integer.MAX_VALUE);
+        } finally {
+            raf.close();
+        }
+
+        try {
+            PasswordHash.readFrom(file);
+            fail();
+        } catch (CustomException e) {
+            assertEquals("Corrupt password file", e.getMessage());
+        }
+    }
+
+    @Test
+    public void calibrate_staysWithinBounds() throws Exception {
+        int iterations = PasswordVerifier.calibrate(TARGET_MILLIS);
+        assertTrue(iterations >= PasswordVerifier.MIN_ITERATIONS);
+        assertTrue(iterations <= PasswordVerifier.MAX_ITERATIONS);
+        assertTrue(PasswordHash.create("secret".toCharArray(), iterations).matches("secret".toCharArray()));
+    }
+
+    @Test
+    public void verifyAsync_deliversResultAndWipesPassword() throws Exception {
+        PasswordVerifier verifier = newVerifier();
+        verifier.setPassword("secret".toCharArray());
+
+        final Boolean[] result = new Boolean[1];
+        char[] password = "wrong".toCharArray();
+        verifier.verifyAsync(password, new PasswordVerifier.Callback() {
+            @Override
+            public void onPasswordChecked(boolean matches) {
+                result[0] = matches;
+            }
+
+            @Override
+            public void onPasswordError(CustomException e) {
+                fail(e.getMessage());
+            }
+        }).get();
+
+        assertEquals(Boolean.FALSE, result[0]);
+        assertArrayEquals(new char[5], password);
+    }
+
+    private PasswordVerifier newVerifier() {
+        PasswordVerifier verifier = new PasswordVerifier(file, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        verifier.setTargetMillis(TARGET_MILLIS);
+        return verifier;
+    }
+}
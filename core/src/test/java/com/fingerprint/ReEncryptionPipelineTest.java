@@ -0,0 +1,318 @@
+package com.fingerprint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ReEncryptionPipelineTest {
+
+    private static final int RECORDS = 150;
+    private static final int BATCH_SIZE = 40;
+
+    /**
+     * Runs the batches one at a time when the test says so.
+     */
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final Executor worker = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    private final RecordingCallback callback = new RecordingCallback();
+
+    private File directory;
+    private File checkpointFile;
+    private VersionedRecordStore store;
+    private KeyRing keyRing;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("records", "");
+        directory.delete();
+        checkpointFile = new File(directory, "checkpoint");
+        store = new VersionedRecordStore(directory);
+
+        keyRing = KeyRing.generate();
+        for (int i = 0; i < RECORDS; i++)
+            store.put(id(i), ("secret " + i).getBytes("UTF-8"), keyRing);
+    }
+
+    @After
+    public void tearDown() {
+        keyRing.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void migration_keepsRecordsReadableInBatches() throws Exception {
+        keyRing.rotate();
+        store.put("new", "fresh".getBytes("UTF-8"), keyRing);
+
+        ReEncryptionPipeline pipeline = newPipeline();
+        assertTrue(pipeline.start(keyRing, callback));
+        runNext();
+
+        assertEquals(BATCH_SIZE, callback.migrated);
+        assertEquals(2, store.getVersion(id(0)));
+        assertEquals(1, store.getVersion(id(RECORDS - 1)));
+        assertEquals("secret 0", read(id(0)));
+        assertEquals("secret " + (RECORDS - 1), read(id(RECORDS - 1)));
+
+        runAll();
+
+        assertTrue(callback.finished);
+        assertEquals(RECORDS, callback.migrated);
+        assertEquals(0, callback.failed);
+        for (int i = 0; i < RECORDS; i++) {
+            assertEquals(2, store.getVersion(id(i)));
+            assertEquals("secret " + i, read(id(i)));
+        }
+        assertEquals(Arrays.asList(2), keyRing.getVersions());
+        assertFalse(pipeline.hasCheckpoint());
+        assertFalse(pipeline.isRunning());
+    }
+
+    @Test
+    public void cancelledMigration_resumesFromCheckpoint() throws Exception {
+        keyRing.rotate();
+
+        ReEncryptionPipeline pipeline = newPipeline();
+        pipeline.start(keyRing, callback);
+        runNext();
+        pipeline.cancel();
+        runAll();
+
+        assertFalse(callback.finished);
+        assertTrue(pipeline.hasCheckpoint());
+
+        // A new instance, as after the process was killed.
+        RecordingCallback resumed = new RecordingCallback();
+        newPipeline().start(keyRing, resumed);
+        runNext();
+        assertEquals(2 * BATCH_SIZE, resumed.migrated);
+        runAll();
+
+        assertTrue(resumed.finished);
+        assertEquals(RECORDS, resumed.migrated);
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void lostVersion_isReportedAsFailed() throws Exception {
+        KeyRing lost = keyRing;
+        keyRing = KeyRing.generate(2);
+        lost.close();
+
+        newPipeline().start(keyRing, callback);
+        runAll();
+
+        assertTrue(callback.finished);
+        assertEquals(0, callback.migrated);
+        assertEquals(RECORDS, callback.failed);
+        assertEquals(1, store.getLatestVersion());
+    }
+
+    @Test
+    public void keyRing_wrapsEveryVersion() throws Exception {
+        keyRing.rotate();
+        DataKeySession wrapping = DataKeySession.generate();
+
+        WrappedDataKey wrapped = keyRing.wrap(wrapping.newEncryptCipher());
+        KeyRing unwrapped = KeyRing.unwrap(wrapped, wrapping.newDecryptCipher(wrapped.getIv()));
+
+        assertEquals(Arrays.asList(1, 2), unwrapped.getVersions());
+        assertEquals(2, unwrapped.getCurrentVersion());
+        assertEquals("secret 3", new String(store.get(id(3), unwrapped), "UTF-8"));
+        unwrapped.close();
+        wrapping.close();
+    }
+
+    @Test
+    public void keyRing_unwrapsLegacyDataKeyAsVersionOne() throws Exception {
+        DataKeySession legacy = DataKeySession.generate();
+        DataKeySession wrapping = DataKeySession.generate();
+        byte[] record = legacy.encrypt("legacy".getBytes("UTF-8"));
+
+        WrappedDataKey wrapped = legacy.wrap(wrapping.newEncryptCipher());
+        KeyRing unwrapped = KeyRing.unwrap(wrapped, wrapping.newDecryptCipher(wrapped.getIv()));
+
+        assertEquals(1, unwrapped.getCurrentVersion());
+        assertEquals("legacy", new String(unwrapped.get(1).decrypt(record), "UTF-8"));
+        unwrapped.close();
+        legacy.close();
+        wrapping.close();
+    }
+
+    @Test
+    public void wrappedDataKey_keepsPreviousKeyUntilReplaced() throws Exception {
+        File file = new File(directory, "data_key");
+        directory.mkdirs();
+        new WrappedDataKey(new byte[]{1}, new byte[]{2, 3}).writeTo(file);
+
+        // A write that crashed before the rename leaves only the temporary file behind.
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream truncated = new FileOutputStream(tmp);
+        truncated.write(1);
+        truncated.close();
+        assertArrayEquals(new byte[]{2, 3}, WrappedDataKey.readFrom(file).getWrappedKey());
+
+        new WrappedDataKey(new byte[]{4}, new byte[]{5}).writeTo(file);
+        assertArrayEquals(new byte[]{5}, WrappedDataKey.readFrom(file).getWrappedKey());
+        assertFalse(tmp.exists());
+    }
+
+    @Test
+    public void invalidatedKey_rotatesOpenRingAndRewrapsIt() throws Exception {
+        for (String id : store.ids())
+            store.delete(id);
+        InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        File registryFile = new File(directory, "registry");
+        CipherAuthenticator authenticator = TestSupport.newAuthenticator(keyStore, registryFile);
+        authenticator.create();
+
+        File dataKeyFile = new File(directory, "data_key");
+        DataKeyManager manager = new DataKeyManager(dataKeyFile);
+        manager.initCipher(authenticator);
+        manager.openSession(authenticator.getCipher());
+        store.put("before", "before".getBytes("UTF-8"), manager.getKeyRing());
+
+        keyStore.enrollBiometric();
+        manager.initCipher(authenticator);
+        assertFalse(dataKeyFile.exists());
+        manager.openSession(authenticator.getCipher());
+
+        assertTrue(manager.needsMigration());
+        assertEquals(2, manager.getKeyRing().getCurrentVersion());
+
+        newPipeline().start(manager.getKeyRing(), callback);
+        runAll();
+        assertEquals(2, store.getVersion("before"));
+        assertFalse(manager.needsMigration());
+
+        // The rewrapped ring unwraps with the new key after a restart.
+        DataKeyManager restarted = new DataKeyManager(dataKeyFile);
+        restarted.initCipher(authenticator);
+        restarted.openSession(authenticator.getCipher());
+        assertEquals("before", new String(store.get("before", restarted.getKeyRing()), "UTF-8"));
+        manager.closeSession();
+        restarted.closeSession();
+    }
+
+    @Test
+    public void changedValidity_rewrapsOpenRingForNewKey() throws Exception {
+        for (String id : store.ids())
+            store.delete(id);
+        InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        File registryFile = new File(directory, "registry");
+        CipherAuthenticator authenticator = TestSupport.newAuthenticator(keyStore, registryFile);
+        authenticator.create();
+
+        File dataKeyFile = new File(directory, "data_key");
+        DataKeyManager manager = new DataKeyManager(dataKeyFile);
+        manager.initCipher(authenticator);
+        manager.openSession(authenticator.getCipher());
+        store.put("before", "before".getBytes("UTF-8"), manager.getKeyRing());
+
+        // The window is read at startup, so the next launch regenerates the key.
+        CipherAuthenticator relaunched = TestSupport.newAuthenticator(keyStore, registryFile);
+        relaunched.setSessionValiditySeconds(30);
+        relaunched.create();
+        keyStore.onUserAuthenticated();
+        manager.initCipher(relaunched);
+        manager.openSession(relaunched.getCipher());
+        assertEquals(2, manager.getKeyRing().getCurrentVersion());
+
+        DataKeyManager restarted = new DataKeyManager(dataKeyFile);
+        restarted.initCipher(relaunched);
+        restarted.openSession(relaunched.getCipher());
+        assertEquals("before", new String(store.get("before", restarted.getKeyRing()), "UTF-8"));
+        manager.closeSession();
+        restarted.closeSession();
+    }
+
+    @Test
+    public void changedValidity_opensSessionWithClosedRing() throws Exception {
+        InMemoryKeyStoreBackend keyStore = new InMemoryKeyStoreBackend();
+        File registryFile = new File(directory, "registry");
+        CipherAuthenticator authenticator = TestSupport.newAuthenticator(keyStore, registryFile);
+        authenticator.setSessionValiditySeconds(30);
+        authenticator.create();
+        keyStore.onUserAuthenticated();
+
+        File dataKeyFile = new File(directory, "data_key");
+        DataKeyManager manager = new DataKeyManager(dataKeyFile);
+        manager.initCipher(authenticator);
+        manager.openSession(authenticator.getCipher());
+        manager.closeSession();
+
+        CipherAuthenticator relaunched = TestSupport.newAuthenticator(keyStore, registryFile);
+        relaunched.create();
+        DataKeyManager restarted = new DataKeyManager(dataKeyFile);
+        restarted.reserveVersions(1);
+        restarted.initCipher(relaunched);
+        restarted.openSession(relaunched.getCipher());
+
+        assertEquals(2, restarted.getKeyRing().getCurrentVersion());
+        restarted.closeSession();
+    }
+
+    private ReEncryptionPipeline newPipeline() {
+        return new ReEncryptionPipeline(store, checkpointFile, worker, BATCH_SIZE);
+    }
+
+    private void runNext() {
+        tasks.remove().run();
+    }
+
+    private void runAll() {
+        while (!tasks.isEmpty())
+            runNext();
+    }
+
+    private String read(String id) throws Exception {
+        return new String(store.get(id, keyRing), "UTF-8");
+    }
+
+    private static String id(int i) {
+        return String.format("record_%04d", i);
+    }
+
+    private static class RecordingCallback implements ReEncryptionPipeline.Callback {
+        int migrated;
+        int failed;
+        boolean finished;
+
+        @Override
+        public void onProgress(int migrated, int remaining) {
+            this.migrated = migrated;
+        }
+
+        @Override
+        public void onFinished(int migrated, int failed) {
+            this.migrated = migrated;
+            this.failed = failed;
+            finished = true;
+        }
+
+        @Override
+        public void onError(CustomException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
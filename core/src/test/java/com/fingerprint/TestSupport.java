@@ -0,0 +1,66 @@
+package com.fingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Helpers shared by the core tests.
+ */
+final class TestSupport {
+
+    /**
+     * Runs tasks on the calling thread, so background work is done when the call that posted it
+     * returns.
+     */
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private TestSupport() {
+    }
+
+    static SecretKey newKey() {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(128);
+            return generator.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @return a path for a key registry that does not exist yet and is deleted on exit
+     */
+    static File newRegistryFile() throws IOException {
+        File file = File.createTempFile("key_registry", ".idx");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * An authenticator on the in-memory backends that runs its background work on the caller.
+     */
+    static CipherAuthenticator newAuthenticator(InMemoryKeyStoreBackend keyStore, File registryFile) {
+        return new CipherAuthenticator(keyStore, new InMemoryBiometricPrompt(keyStore), new InMemoryLockScreen(),
+                registryFile, DIRECT);
+    }
+
+    /**
+     * @return the bean that reports per-thread allocations, or null on a JVM without one
+     */
+    static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+}